@@ -0,0 +1,304 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Many independent machine states with the same rotors and plugboard,
+ *  advanced and converting together.  The states are kept as structures
+ *  of arrays, one int[] of lanes per slot, so that each conversion step
+ *  is a gather from a rotor table across all lanes: each character is
+ *  taken through one slot in every lane before the next slot, so the
+ *  loop over lanes reads one table and one row array.  The tables are
+ *  the rotors' own (see Rotor.makeTables), with two loads per rotor for
+ *  alphabets too large for square tables.
+ *  @author Lei Hao
+ */
+class BatchMachine {
+
+    /** Compare LANES independent Machines with one BatchMachine, using
+     *  ARGS: the name of a configuration file, a settings line and,
+     *  optionally, the number of lanes and the message length.  Each
+     *  lane starts at random settings. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 4) {
+                throw error("Usage: java enigma.BatchMachine CONFIG "
+                            + "SETTINGS [LANES [LENGTH]]");
+            }
+            int lanes = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_BENCHMARK_LANES;
+            int length = args.length > 3 ? Integer.parseInt(args[3])
+                : DEFAULT_BENCHMARK_LENGTH;
+            Machine m = Main.loadConfig(args[0]);
+            Main.applySettings(m, args[1]);
+            benchmark(m, lanes, length);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number%n");
+        }
+        System.exit(1);
+    }
+
+    /** Time LANES runs of M over a random message of LENGTH characters
+     *  against one batch of LANES lanes, checking that they agree. */
+    private static void benchmark(Machine m, int lanes, int length) {
+        int n = m.alphabet().size(), slots = m.numRotors();
+        Random random = new Random(lanes);
+        int[] msg = random.ints(length, 0, n).toArray();
+        int[][] positions = new int[lanes][slots];
+        int[][] rings = new int[lanes][slots];
+        BatchMachine batch = new BatchMachine(m, lanes);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int k = 1; k < slots; k += 1) {
+                positions[lane][k] = random.nextInt(n);
+                rings[lane][k] = random.nextInt(n);
+            }
+        }
+        int[] expected = new int[length * lanes];
+        int[] actual = new int[length * lanes];
+        for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+            long start = System.nanoTime();
+            for (int lane = 0; lane < lanes; lane += 1) {
+                for (int k = 1; k < slots; k += 1) {
+                    m.setSlot(k, positions[lane][k], rings[lane][k]);
+                }
+                for (int t = 0; t < length; t += 1) {
+                    expected[t * lanes + lane] = m.convert(msg[t]);
+                }
+            }
+            long middle = System.nanoTime();
+            for (int lane = 0; lane < lanes; lane += 1) {
+                batch.setLane(lane, positions[lane], rings[lane]);
+            }
+            batch.convert(msg, actual);
+            long end = System.nanoTime();
+            for (int i = 0; i < actual.length; i += 1) {
+                if (expected[i] != actual[i]) {
+                    throw error("engines differ at lane %d, character %d",
+                                i % lanes, i / lanes);
+                }
+            }
+            double chars = (double) length * lanes;
+            System.out.printf("round %d: machine %.1f ns/char, batch "
+                              + "%.1f ns/char%n", round,
+                              (middle - start) / chars,
+                              (end - middle) / chars);
+        }
+    }
+
+    /** A batch of LANES states using the rotors and plugboard now in M,
+     *  each starting at M's current settings. */
+    BatchMachine(Machine m, int lanes) {
+        _n = m.alphabet().size();
+        _lanes = lanes;
+        _slots = m.numRotors();
+        _firstPawl = _slots - m.numPawls();
+        List<Rotor> rotors = m.usedRotors();
+        _forward = new int[_slots][];
+        _backward = new int[_slots][];
+        _notch = new boolean[_slots][];
+        _moving = new boolean[_slots];
+        _settings = new int[_slots][lanes];
+        _rows = new int[_slots][lanes];
+        _reflector = new int[_n];
+        _plugboard = new int[_n];
+        for (int c = 0; c < _n; c += 1) {
+            _reflector[c] = rotors.get(0).convertForward(c);
+            _plugboard[c] = m.plugboard().permute(c);
+        }
+        _square = _n <= Rotor.MAX_SQUARE_SIZE;
+        _rowStep = _square ? _n : 1;
+        _wrapped = _square ? null : rotors.get(1).wrappingTable();
+        for (int k = 1; k < _slots; k += 1) {
+            Rotor r = rotors.get(k);
+            _forward[k] = _square ? r.forwardTable()
+                : r.doubledForwardTable();
+            _backward[k] = _square ? r.backwardTable()
+                : r.doubledBackwardTable();
+            _moving[k] = r.rotates();
+            _notch[k] = new boolean[_n];
+            Rotor probe = r.copy();
+            for (int s = 0; s < _n; s += 1) {
+                probe.set(s);
+                _notch[k][s] = probe.atNotch();
+            }
+            for (int lane = 0; lane < lanes; lane += 1) {
+                _settings[k][lane] = r.setting();
+                _rows[k][lane] = r.offset() * _rowStep;
+            }
+        }
+        _pushed = new boolean[lanes];
+        _signal = new int[lanes];
+    }
+
+    /** Return the number of lanes. */
+    int lanes() {
+        return _lanes;
+    }
+
+    /** Set lane LANE to settings POSITIONS[k] and ring settings RINGS[k]
+     *  for slots k = 1 .. numRotors - 1. */
+    void setLane(int lane, int[] positions, int[] rings) {
+        for (int k = 1; k < _slots; k += 1) {
+            int setting = Math.floorMod(positions[k], _n);
+            _settings[k][lane] = setting;
+            _rows[k][lane] =
+                Math.floorMod(setting - rings[k], _n) * _rowStep;
+        }
+    }
+
+    /** Convert the message MSG (as alphabet indices) in every lane,
+     *  storing the result for character t of lane j in
+     *  OUT[t * lanes() + j]. */
+    void convert(int[] msg, int[] out) {
+        for (int t = 0; t < msg.length; t += 1) {
+            step();
+            translate(msg[t], out, t * _lanes);
+        }
+    }
+
+    /** Advance every lane, exactly as Machine.doubleStepping does, one
+     *  slot at a time from the left.  A slower rotor advances in the
+     *  lanes where it pushes, or is pushed by, its left neighbour, which
+     *  _pushed records from the slot before; the notch of the rotor to
+     *  the right is read before that rotor moves. */
+    private void step() {
+        int last = _slots - 1;
+        if (_firstPawl > last) {
+            return;
+        }
+        boolean[] pushed = _pushed;
+        Arrays.fill(pushed, false);
+        for (int k = _firstPawl; k < last; k += 1) {
+            boolean[] notch = _notch[k + 1];
+            int[] right = _settings[k + 1];
+            boolean moving = _moving[k];
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                boolean engaged = moving && notch[right[lane]];
+                if (engaged || pushed[lane]) {
+                    advance(k, lane, lane + 1);
+                }
+                pushed[lane] = engaged;
+            }
+        }
+        advance(last, 0, _lanes);
+    }
+
+    /** Advance the rotor in slot K, if it moves, in lanes FROM .. TO - 1. */
+    private void advance(int k, int from, int to) {
+        if (!_moving[k]) {
+            return;
+        }
+        int[] settings = _settings[k], rows = _rows[k];
+        int wrap = _rowStep * _n;
+        for (int lane = from; lane < to; lane += 1) {
+            int setting = settings[lane] + 1;
+            settings[lane] = setting == _n ? 0 : setting;
+            int row = rows[lane] + _rowStep;
+            rows[lane] = row == wrap ? 0 : row;
+        }
+    }
+
+    /** Store the conversion of C by each lane, at its current settings,
+     *  into OUT[OFFSET + lane]. */
+    private void translate(int c, int[] out, int offset) {
+        int[] x = _signal;
+        Arrays.fill(x, _plugboard[c]);
+        for (int k = _slots - 1; k > 0; k -= 1) {
+            gather(_forward[k], _rows[k], x);
+        }
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            x[lane] = _reflector[x[lane]];
+        }
+        for (int k = 1; k < _slots; k += 1) {
+            gather(_backward[k], _rows[k], x);
+        }
+        for (int lane = 0; lane < _lanes; lane += 1) {
+            out[offset + lane] = _plugboard[x[lane]];
+        }
+    }
+
+    /** Replace each X[lane] by its conversion by TABLE at row
+     *  ROWS[lane]. */
+    private void gather(int[] table, int[] rows, int[] x) {
+        if (_square) {
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                x[lane] = table[rows[lane] + x[lane]];
+            }
+        } else {
+            for (int lane = 0; lane < _lanes; lane += 1) {
+                int row = rows[lane];
+                x[lane] = _wrapped[table[row + x[lane]] - row];
+            }
+        }
+    }
+
+    /** Default number of lanes in the benchmark. */
+    static final int DEFAULT_BENCHMARK_LANES = 4096;
+
+    /** Default message length in the benchmark. */
+    static final int DEFAULT_BENCHMARK_LENGTH = 256;
+
+    /** Number of timed rounds in the benchmark. */
+    static final int BENCHMARK_ROUNDS = 5;
+
+    /** Alphabet size. */
+    private final int _n;
+
+    /** Number of lanes. */
+    private final int _lanes;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Leftmost slot with a pawl. */
+    private final int _firstPawl;
+
+    /** True iff the rotor tables are square, indexed by offset times
+     *  alphabet size plus input; otherwise they are doubled-length,
+     *  indexed by offset plus input. */
+    private final boolean _square;
+
+    /** Difference between the rows of consecutive offsets. */
+    private final int _rowStep;
+
+    /** Reduces doubled-length table entries modulo the alphabet size, or
+     *  null for square tables. */
+    private final int[] _wrapped;
+
+    /** Forward table of each slot, indexed by row plus input. */
+    private final int[][] _forward;
+
+    /** Backward table of each slot, indexed by row plus input. */
+    private final int[][] _backward;
+
+    /** The reflector's conversion. */
+    private final int[] _reflector;
+
+    /** The plugboard's permutation. */
+    private final int[] _plugboard;
+
+    /** Whether the rotor in each slot is at a notch, by setting. */
+    private final boolean[][] _notch;
+
+    /** Whether the rotor in each slot moves. */
+    private final boolean[] _moving;
+
+    /** Setting of each lane, by slot. */
+    private final int[][] _settings;
+
+    /** Row (offset times _rowStep) of each lane, by slot. */
+    private final int[][] _rows;
+
+    /** Scratch space for step(): whether each lane's rotor in the slot
+     *  before pushes the next. */
+    private final boolean[] _pushed;
+
+    /** Scratch space for translate(): the signal in each lane. */
+    private final int[] _signal;
+}
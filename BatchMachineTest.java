@@ -0,0 +1,163 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BatchMachine class, which check
+ *  each of its lanes against a Machine.
+ *  @author Lei Hao
+ */
+public class BatchMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with 5 slots and 3 pawls, set up by the
+     *  settings line SETTINGS. */
+    private Machine naval(String settings) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[] moving = { "I", "Q", "III", "V", "IV", "J", "VI", "ZM" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        Machine m = new Machine(UPPER, 5, 3, rotors);
+        Main.applySettings(m, settings);
+        return m;
+    }
+
+    /** Return the cycles of a random permutation of ALPHA, chosen by
+     *  RANDOM, as a single cycle if CYCLE and as pairs otherwise. */
+    private String cycles(Alphabet alpha, Random random, boolean cycle) {
+        ArrayList<Character> chars = new ArrayList<>();
+        for (int c = 0; c < alpha.size(); c += 1) {
+            chars.add(alpha.toChar(c));
+        }
+        Collections.shuffle(chars, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < chars.size(); i += cycle ? chars.size() : 2) {
+            result.append('(');
+            for (int j = i; j < (cycle ? chars.size() : i + 2); j += 1) {
+                result.append(chars.get(j));
+            }
+            result.append(") ");
+        }
+        return result.toString();
+    }
+
+    /** Return a machine over ALPHA, whose size is even, with 6 slots and
+     *  4 pawls, random rotors chosen by RANDOM, each moving rotor with
+     *  NOTCHES random notches, and rotors inserted. */
+    private Machine random(Alphabet alpha, Random random, int notches) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(cycles(alpha, random,
+                                                             false),
+                                                      alpha)));
+        rotors.add(new FixedRotor("F", new Permutation(cycles(alpha, random,
+                                                              true),
+                                                       alpha)));
+        String[] names = { "R", "F", "M1", "M2", "M3", "M4" };
+        for (int i = 2; i < names.length; i += 1) {
+            StringBuilder notch = new StringBuilder();
+            for (int j = 0; j < notches; j += 1) {
+                notch.append(alpha.toChar(random.nextInt(alpha.size())));
+            }
+            rotors.add(new MovingRotor(names[i],
+                                       new Permutation(cycles(alpha, random,
+                                                              true),
+                                                       alpha),
+                                       notch.toString()));
+        }
+        Machine m = new Machine(alpha, 6, 4, rotors);
+        m.insertRotors(names);
+        m.setPlugboard(new Permutation(cycles(alpha, random, false),
+                                       alpha));
+        return m;
+    }
+
+    /** Check every lane of a BatchMachine of LANES lanes built from M
+     *  against a copy of M, over a random message of LENGTH characters.
+     *  Lane 0 is left at M's settings; the others get random settings
+     *  and ring settings chosen by RANDOM.  NAME identifies the case. */
+    private void check(String name, Machine m, int lanes, int length,
+                       Random random) {
+        int n = m.alphabet().size(), slots = m.numRotors();
+        BatchMachine batch = new BatchMachine(m, lanes);
+        assertEquals(name, lanes, batch.lanes());
+        int[] msg = random.ints(length, 0, n).toArray();
+        Machine[] expected = new Machine[lanes];
+        for (int lane = 0; lane < lanes; lane += 1) {
+            expected[lane] = m.copy();
+            if (lane == 0) {
+                continue;
+            }
+            int[] positions = new int[slots], rings = new int[slots];
+            for (int k = 1; k < slots; k += 1) {
+                positions[k] = random.nextInt(n);
+                rings[k] = random.nextInt(n);
+                expected[lane].setSlot(k, positions[k], rings[k]);
+            }
+            batch.setLane(lane, positions, rings);
+        }
+        int[] out = new int[length * lanes];
+        batch.convert(msg, out);
+        for (int lane = 0; lane < lanes; lane += 1) {
+            for (int t = 0; t < length; t += 1) {
+                assertEquals(msg(name, "lane %d, character %d", lane, t),
+                             expected[lane].convert(msg[t]),
+                             out[t * lanes + lane]);
+            }
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkNavalLanes() {
+        Random random = new Random(33);
+        check("naval", naval("* B Beta III VI I AXLE (YF) (ZH)"), 37, 800,
+              random);
+        check("naval, one lane", naval("* B Beta I IV III AAJU BCDE"), 1,
+              800, random);
+    }
+
+    @Test
+    public void checkSmallAlphabet() {
+        Random random = new Random(34);
+        Alphabet alpha = new Alphabet("ABCDEF");
+        for (int notches = 1; notches <= 3; notches += 1) {
+            check("six letters", random(alpha, random, notches), 50, 300,
+                  random);
+        }
+    }
+
+    @Test
+    public void checkLargeAlphabet() {
+        StringBuilder chars = new StringBuilder();
+        for (char c = '0'; chars.length() < Rotor.MAX_SQUARE_SIZE + 6;
+             c += 1) {
+            chars.append(c);
+        }
+        Alphabet alpha = new Alphabet(chars.toString());
+        Random random = new Random(35);
+        check("large alphabet", random(alpha, random, 2), 19, 1500, random);
+    }
+}
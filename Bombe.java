@@ -0,0 +1,381 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** A Turing-Welchman Bombe: given a crib and the ciphertext it lies
+ *  under, finds the rotor orders and start positions (with all ring
+ *  settings at 0) consistent with the crib for some plugboard, and
+ *  deduces as much of that plugboard as the menu determines.  When the
+ *  crib lies some way into the ciphertext, the start positions reported
+ *  are those at the start of the ciphertext, not of the crib.
+ *  @author Lei Hao
+ */
+class Bombe {
+
+    /** Run the Bombe with ARGS: the name of a configuration file, a crib
+     *  and the ciphertext under it, followed optionally by the offset of
+     *  the crib in the ciphertext.  Prints one settings line per stop,
+     *  with the positions at the start of the ciphertext. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3 || args.length > 4) {
+                throw error("Usage: java enigma.Bombe CONFIG CRIB "
+                            + "CIPHERTEXT [OFFSET]");
+            }
+            Machine prototype = Main.loadConfig(args[0]);
+            int offset = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+            Bombe bombe = new Bombe(prototype, args[1].replaceAll(" ", ""),
+                                    args[2].replaceAll(" ", ""), offset);
+            System.err.printf("Menu: %d letters, %d loops%n",
+                              bombe.menuLetters(), bombe.loops().size());
+            for (String stop : bombe.run()) {
+                System.out.println(stop);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad crib offset%n");
+        }
+        System.exit(1);
+    }
+
+    /** A Bombe for machines like PROTOTYPE (whose available rotors are
+     *  tried) and the menu formed by CRIB and the start of CIPHER. */
+    Bombe(Machine prototype, String crib, String cipher) {
+        this(prototype, crib, cipher, 0);
+    }
+
+    /** A Bombe for machines like PROTOTYPE (whose available rotors are
+     *  tried) and the menu formed by CRIB and the text of CIPHER that
+     *  starts OFFSET characters in. */
+    Bombe(Machine prototype, String crib, String cipher, int offset) {
+        if (offset < 0 || offset > cipher.length()) {
+            throw error("crib offset %d outside the ciphertext", offset);
+        }
+        cipher = cipher.substring(offset);
+        _offset = offset;
+        _prototype = prototype;
+        _alphabet = prototype.alphabet();
+        _n = _alphabet.size();
+        _words = (_n + Long.SIZE - 1) / Long.SIZE;
+        _length = crib.length();
+        if (_length == 0 || _length > cipher.length()) {
+            throw error("crib must be non-empty and no longer than the "
+                        + "ciphertext");
+        }
+        _crib = new int[_length];
+        _cipher = new int[_length];
+        int[] degree = new int[_n];
+        for (int i = 0; i < _length; i += 1) {
+            _crib[i] = _alphabet.toInt(crib.charAt(i));
+            _cipher[i] = _alphabet.toInt(cipher.charAt(i));
+            if (_crib[i] == _cipher[i]) {
+                throw error("crib letter %c at %d encrypts to itself",
+                            crib.charAt(i), i);
+            }
+            degree[_crib[i]] += 1;
+            degree[_cipher[i]] += 1;
+        }
+        _edgeStart = new int[_n + 1];
+        for (int a = 0; a < _n; a += 1) {
+            _edgeStart[a + 1] = _edgeStart[a] + degree[a];
+        }
+        _edgeOther = new int[2 * _length];
+        _edgePosition = new int[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _n);
+        for (int i = 0; i < _length; i += 1) {
+            addEdge(fill, _crib[i], _cipher[i], i);
+            addEdge(fill, _cipher[i], _crib[i], i);
+        }
+        int test = 0;
+        for (int a = 1; a < _n; a += 1) {
+            if (degree[a] > degree[test]) {
+                test = a;
+            }
+        }
+        _test = test;
+    }
+
+    /** Record in the menu, using the free slots FILL, that letter A is
+     *  joined to letter B at position I. */
+    private void addEdge(int[] fill, int a, int b, int i) {
+        _edgeOther[fill[a]] = b;
+        _edgePosition[fill[a]] = i;
+        fill[a] += 1;
+    }
+
+    /** Return the number of distinct letters in the menu. */
+    int menuLetters() {
+        int result = 0;
+        for (int a = 0; a < _n; a += 1) {
+            if (_edgeStart[a + 1] > _edgeStart[a]) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return a basis of the loops in the menu, each as the list of crib
+     *  positions along it. */
+    List<List<Integer>> loops() {
+        List<List<Integer>> result = new ArrayList<>();
+        int[] parent = new int[_n];
+        int[] via = new int[_n];
+        int[] depth = new int[_n];
+        Arrays.fill(depth, -1);
+        boolean[] used = new boolean[_length];
+        for (int root = 0; root < _n; root += 1) {
+            if (depth[root] >= 0) {
+                continue;
+            }
+            depth[root] = 0;
+            parent[root] = -1;
+            int[] stack = new int[_n];
+            int top = 0;
+            stack[top++] = root;
+            while (top > 0) {
+                int a = stack[--top];
+                for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                    int b = _edgeOther[e], i = _edgePosition[e];
+                    if (used[i]) {
+                        continue;
+                    }
+                    used[i] = true;
+                    if (depth[b] < 0) {
+                        depth[b] = depth[a] + 1;
+                        parent[b] = a;
+                        via[b] = i;
+                        stack[top++] = b;
+                    } else {
+                        result.add(loop(a, b, i, parent, via, depth));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the loop closed by the edge at position I between A and B
+     *  in the spanning forest described by PARENT, VIA and DEPTH. */
+    private List<Integer> loop(int a, int b, int i, int[] parent,
+                               int[] via, int[] depth) {
+        ArrayList<Integer> left = new ArrayList<>();
+        ArrayList<Integer> right = new ArrayList<>();
+        left.add(i);
+        while (a != b) {
+            if (depth[a] >= depth[b]) {
+                left.add(via[a]);
+                a = parent[a];
+            } else {
+                right.add(0, via[b]);
+                b = parent[b];
+            }
+        }
+        left.addAll(right);
+        return left;
+    }
+
+    /** Return the stops for every available rotor order and start
+     *  position, each as a settings line including the deduced plugboard
+     *  pairs.  Rotor orders are tested in parallel. */
+    List<String> run() {
+        KeyspaceSpliterator keyspace =
+            new KeyspaceSpliterator(_prototype, false);
+        return StreamSupport.stream(keyspace, true)
+            .map(this::test)
+            .filter(stop -> stop != null)
+            .collect(Collectors.toList());
+    }
+
+    /** Return the stop for the machine M, set to its start position, as
+     *  a settings line, or null if every plugboard hypothesis for the
+     *  test letter leads to a contradiction.  M is skipped forward to
+     *  the crib, so that the start positions reported are those at the
+     *  start of the ciphertext.  (Stepping back from the positions at
+     *  the crib instead would be ambiguous, as a double step can be
+     *  reached from two positions.) */
+    private String test(Machine M) {
+        Scratch s = SCRATCH.get();
+        s.ensure(_n, _words, _length);
+        List<Rotor> rotors = M.usedRotors();
+        for (int k = 0; k < rotors.size(); k += 1) {
+            s.start[k] = rotors.get(k).setting();
+        }
+        M.skip(_offset);
+        for (int i = 0; i < _length; i += 1) {
+            M.doubleStepping();
+            for (int c = 0; c < _n; c += 1) {
+                s.scrambler[i * _n + c] = M.translate(c);
+            }
+        }
+        Arrays.fill(s.eliminated, false);
+        for (int x = 0; x < _n; x += 1) {
+            if (s.eliminated[x]) {
+                continue;
+            }
+            propagate(s, x);
+            if (consistent(s)) {
+                return describe(rotors, s);
+            }
+            for (int y = 0; y < _n; y += 1) {
+                if (lit(s.wires, _test, y)) {
+                    s.eliminated[y] = true;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Light, in S, every wire implied by the hypothesis that the test
+     *  letter is steckered to X, stopping early once all of the test
+     *  letter's wires are lit. */
+    private void propagate(Scratch s, int x) {
+        Arrays.fill(s.wires, 0L);
+        int head = 0, tail = 0;
+        int testLit = 0;
+        s.queue[tail++] = _test * _n + x;
+        light(s.wires, _test, x);
+        while (head < tail && testLit < _n) {
+            int wire = s.queue[head++];
+            int a = wire / _n, b = wire % _n;
+            if (a == _test) {
+                testLit += 1;
+            }
+            if (!lit(s.wires, b, a)) {
+                light(s.wires, b, a);
+                s.queue[tail++] = b * _n + a;
+            }
+            for (int e = _edgeStart[a]; e < _edgeStart[a + 1]; e += 1) {
+                int c = _edgeOther[e];
+                int d = s.scrambler[_edgePosition[e] * _n + b];
+                if (!lit(s.wires, c, d)) {
+                    light(s.wires, c, d);
+                    s.queue[tail++] = c * _n + d;
+                }
+            }
+        }
+    }
+
+    /** Return true iff no letter has more than one lit wire in S. */
+    private boolean consistent(Scratch s) {
+        for (int a = 0; a < _n; a += 1) {
+            int count = 0;
+            for (int w = 0; w < _words; w += 1) {
+                count += Long.bitCount(s.wires[a * _words + w]);
+            }
+            if (count > 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the settings line for ROTORS at the start positions in S,
+     *  with the plugboard pairs lit in S. */
+    private String describe(List<Rotor> rotors, Scratch s) {
+        StringBuilder result = new StringBuilder("*");
+        for (Rotor r : rotors) {
+            result.append(' ').append(r.name());
+        }
+        result.append(' ');
+        for (int k = 1; k < rotors.size(); k += 1) {
+            result.append(_alphabet.toChar(s.start[k]));
+        }
+        for (int a = 0; a < _n; a += 1) {
+            for (int b = a + 1; b < _n; b += 1) {
+                if (lit(s.wires, a, b)) {
+                    result.append(" (").append(_alphabet.toChar(a))
+                        .append(_alphabet.toChar(b)).append(')');
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return true iff the wire from A to B is lit in WIRES. */
+    private boolean lit(long[] wires, int a, int b) {
+        return (wires[a * _words + b / Long.SIZE] & (1L << b)) != 0;
+    }
+
+    /** Light the wire from A to B in WIRES. */
+    private void light(long[] wires, int a, int b) {
+        wires[a * _words + b / Long.SIZE] |= 1L << b;
+    }
+
+    /** Per-thread working storage for testing candidates. */
+    private static class Scratch {
+        /** Make sure my arrays suit an alphabet of size N with WORDS
+         *  words per bitset and a menu of LENGTH positions. */
+        void ensure(int n, int words, int length) {
+            if (scrambler == null || scrambler.length != length * n
+                || wires.length != n * words) {
+                scrambler = new int[length * n];
+                wires = new long[n * words];
+                queue = new int[2 * n * n];
+                eliminated = new boolean[n];
+                start = new int[MAX_SLOTS];
+            }
+        }
+
+        /** Scrambler substitution at each menu position. */
+        private int[] scrambler;
+        /** Lit wires, one bitset per letter. */
+        private long[] wires;
+        /** Wires lit but not yet propagated. */
+        private int[] queue;
+        /** Test-letter hypotheses already refuted. */
+        private boolean[] eliminated;
+        /** Start settings of the machine being tested. */
+        private int[] start;
+    }
+
+    /** Largest number of rotor slots supported. */
+    private static final int MAX_SLOTS = 64;
+
+    /** Working storage of each thread. */
+    private static final ThreadLocal<Scratch> SCRATCH =
+        ThreadLocal.withInitial(Scratch::new);
+
+    /** Position of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Machine whose available rotors are tried. */
+    private final Machine _prototype;
+
+    /** Alphabet of _prototype. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _n;
+
+    /** Number of words in the bitset for one letter. */
+    private final int _words;
+
+    /** Length of the crib. */
+    private final int _length;
+
+    /** Crib, as alphabet indices. */
+    private final int[] _crib;
+
+    /** Ciphertext under the crib, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Menu edges of letter A are _edgeStart[A] .. _edgeStart[A+1]-1. */
+    private final int[] _edgeStart;
+
+    /** Letter at the other end of each menu edge. */
+    private final int[] _edgeOther;
+
+    /** Crib position of each menu edge. */
+    private final int[] _edgePosition;
+
+    /** The test letter: the most connected letter of the menu. */
+    private final int _test;
+}
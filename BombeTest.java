@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Bombe class.
+ *  @author Lei Hao
+ */
+public class BombeTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine with 4 slots and 3 pawls, no rotors inserted,
+     *  and the naval reflector B and rotors I, II and III available. */
+    private Machine prototype() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        String[] moving = { "I", "Q", "II", "E", "III", "V" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        return new Machine(UPPER, 4, 3, rotors);
+    }
+
+    /** The plaintext of the test message. */
+    private static final String PLAIN =
+        "FROMBERLINWETTERVORHERSAGEBISKAYAREGENUNDWINDAUSWEST";
+
+    /** Where the crib lies in PLAIN. */
+    private static final int OFFSET = 10;
+
+    /** The crib: the part of PLAIN at OFFSET. */
+    private static final String CRIB = "WETTERVORHERSAGEBISKAYA";
+
+    /** The settings under which PLAIN is enciphered.  The middle rotor
+     *  moves before the crib starts, so the positions at the crib
+     *  differ from these in more than the fastest rotor. */
+    private static final String KEY = "* B II III I AUK (AZ) (PQ)";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFindsKey() {
+        Machine m = prototype();
+        Main.applySettings(m, KEY);
+        String cipher = m.convert(PLAIN);
+        assertEquals("crib in place", CRIB,
+                     PLAIN.substring(OFFSET, OFFSET + CRIB.length()));
+        for (int offset : new int[] { OFFSET, 0 }) {
+            String crib = PLAIN.substring(offset, offset + CRIB.length());
+            List<String> stops =
+                new Bombe(prototype(), crib, cipher, offset).run();
+            boolean found = false;
+            for (String stop : stops) {
+                found |= stop.startsWith("* B II III I AUK (AZ)");
+            }
+            assertTrue(msg("bombe", "no stop at AUK with offset %d: %s",
+                           offset, stops), found);
+        }
+    }
+
+    @Test
+    public void checkBadOffset() {
+        try {
+            new Bombe(prototype(), "AB", "CDEF", 3);
+            fail("crib past the end of the ciphertext");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            new Bombe(prototype(), "AB", "CDEF", -1);
+            fail("negative offset");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
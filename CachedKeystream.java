@@ -0,0 +1,66 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.*;
+
+/** The keystream following one settings line, read from a
+ *  KeystreamCache entry for as long as it lasts and computed by the
+ *  machine after that.
+ *  @author Lei Hao
+ */
+class CachedKeystream {
+
+    /** A keystream whose first POSITIONS substitutions are in TABLE,
+     *  stored position by position, and which continues with machine M.
+     *  M must be in the state that TABLE starts from. */
+    CachedKeystream(Machine M, CharBuffer table, int positions) {
+        _machine = M;
+        _alphabet = M.alphabet();
+        _table = table;
+        _positions = positions;
+    }
+
+    /** Returns the encoding/decoding of MSG, continuing from the end of
+     *  the previous message. */
+    String convert(String msg) {
+        int n = _alphabet.size();
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < msg.length(); i += 1) {
+            char c = msg.charAt(i);
+            if (!_alphabet.contains(c)) {
+                throw new EnigmaException("Machine class, convert method, "
+                        + "char not in the alphabet.");
+            }
+            int index = _alphabet.toInt(c);
+            if (_position < _positions) {
+                index = _table.get((int) _position * n + index);
+            } else {
+                if (_position == _positions) {
+                    for (long p = 0; p < _positions; p += 1) {
+                        _machine.doubleStepping();
+                    }
+                }
+                index = _machine.convert(index);
+            }
+            _position += 1;
+            result[i] = _alphabet.toChar(index);
+        }
+        return new String(result);
+    }
+
+    /** The machine that continues the keystream past the table. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** The cached substitutions. */
+    private final CharBuffer _table;
+
+    /** Number of positions in _table. */
+    private final int _positions;
+
+    /** Number of characters converted so far. */
+    private long _position;
+}
@@ -0,0 +1,247 @@
+package enigma;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** An engine specialized to the rotors and plugboard currently in a
+ *  Machine.  The signal path is compiled into a single MethodHandle,
+ *  a straight chain of table lookups bound to the exact tables and
+ *  rotors in each slot, so there is no loop over slots and no virtual
+ *  call per rotor.  Stepping is likewise unrolled over the pawl slots.
+ *  The rotors themselves still hold the state, so the Machine and this
+ *  engine may be used alternately.  Recompile after inserting rotors or
+ *  changing the plugboard.
+ *  @author Lei Hao
+ */
+class CompiledMachine {
+
+    /** Compare this engine with the Machine it compiles, using ARGS: the
+     *  name of a configuration file, a settings line and, optionally,
+     *  a message length.  Prints the speed of each. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2 || args.length > 3) {
+                throw error("Usage: java enigma.CompiledMachine CONFIG "
+                            + "SETTINGS [LENGTH]");
+            }
+            int length = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_BENCHMARK_LENGTH;
+            Machine interpreted = Main.loadConfig(args[0]);
+            Main.applySettings(interpreted, args[1]);
+            Machine compiled = Main.loadConfig(args[0]);
+            Main.applySettings(compiled, args[1]);
+            CompiledMachine engine = new CompiledMachine(compiled);
+
+            int n = interpreted.alphabet().size();
+            int[] msg = new Random(length).ints(length, 0, n).toArray();
+            int[] expected = new int[length], actual = new int[length];
+            for (int round = 0; round < BENCHMARK_ROUNDS; round += 1) {
+                long start = System.nanoTime();
+                for (int i = 0; i < length; i += 1) {
+                    expected[i] = interpreted.convert(msg[i]);
+                }
+                long middle = System.nanoTime();
+                for (int i = 0; i < length; i += 1) {
+                    actual[i] = engine.convert(msg[i]);
+                }
+                long end = System.nanoTime();
+                for (int i = 0; i < length; i += 1) {
+                    if (expected[i] != actual[i]) {
+                        throw error("engines differ at character %d", i);
+                    }
+                }
+                System.out.printf("round %d: interpreted %.1f ns/char, "
+                                  + "compiled %.1f ns/char%n", round,
+                                  (double) (middle - start) / length,
+                                  (double) (end - middle) / length);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad length%n");
+        }
+        System.exit(1);
+    }
+
+    /** An engine for the rotors and plugboard now in M. */
+    CompiledMachine(Machine m) {
+        _machine = m;
+        _alphabet = m.alphabet();
+        List<Rotor> rotors = m.usedRotors();
+        int slots = m.numRotors();
+        _pawlRotors = rotors.subList(slots - m.numPawls(), slots)
+            .toArray(new Rotor[0]);
+        _advance = new boolean[_pawlRotors.length];
+        _firstPawl = slots - _pawlRotors.length;
+
+        int n = _alphabet.size();
+        int[] plugboard = new int[n];
+        for (int c = 0; c < n; c += 1) {
+            plugboard[c] = m.plugboard().permute(c);
+        }
+        MethodHandle plug = ELEMENT.bindTo(plugboard);
+        MethodHandle path = plug;
+        for (int k = slots - 1; k > 0; k -= 1) {
+            path = MethodHandles.filterReturnValue(path,
+                       stage(rotors.get(k), true));
+        }
+        path = MethodHandles.filterReturnValue(path,
+                   reflector(rotors.get(0)));
+        for (int k = 1; k < slots; k += 1) {
+            path = MethodHandles.filterReturnValue(path,
+                       stage(rotors.get(k), false));
+        }
+        _path = MethodHandles.filterReturnValue(path, plug);
+    }
+
+    /** Return a handle (int)int converting through ROTOR, forward iff
+     *  FORWARD, at its offset when called. */
+    private static MethodHandle stage(Rotor rotor, boolean forward) {
+        int[] table = forward ? rotor.forwardTable() : rotor.backwardTable();
+        if (table == null) {
+            return (forward ? CONVERT_FORWARD : CONVERT_BACKWARD)
+                .bindTo(rotor);
+        }
+        return MethodHandles.insertArguments(LOOKUP, 0, table, rotor,
+                                             rotor.size());
+    }
+
+    /** Return a handle (int)int converting through the reflector
+     *  REFLECTOR. */
+    private static MethodHandle reflector(Rotor reflector) {
+        int n = reflector.size();
+        int[] table = new int[n];
+        for (int c = 0; c < n; c += 1) {
+            table[c] = reflector.convertForward(c);
+        }
+        return ELEMENT.bindTo(table);
+    }
+
+    /** Return the entry of TABLE for input X at the current offset of
+     *  ROTOR, whose alphabet has size N. */
+    private static int lookup(int[] table, Rotor rotor, int n, int x) {
+        return table[rotor.offset() * n + x];
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the machine. */
+    int convert(int c) {
+        step();
+        try {
+            return (int) _path.invokeExact(c);
+        } catch (RuntimeException | Error excp) {
+            throw excp;
+        } catch (Throwable excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the state of
+     *  the rotors accordingly. */
+    String convert(String msg) {
+        char[] result = new char[msg.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            char c = msg.charAt(i);
+            if (!_alphabet.contains(c)) {
+                throw new EnigmaException("Machine class, convert method, "
+                        + "char not in the alphabet.");
+            }
+            result[i] = _alphabet.toChar(convert(_alphabet.toInt(c)));
+        }
+        return new String(result);
+    }
+
+    /** Advance the pawl rotors, exactly as Machine.doubleStepping
+     *  does, and pass the step to the machine's pushStep. */
+    private void step() {
+        int last = _pawlRotors.length - 1;
+        if (last < 0) {
+            return;
+        }
+        for (int i = 0; i < last; i += 1) {
+            _advance[i] = false;
+        }
+        _advance[last] = true;
+        for (int i = last - 1; i >= 0; i -= 1) {
+            if (_pawlRotors[i].rotates() && _pawlRotors[i + 1].atNotch()) {
+                _advance[i] = true;
+                _advance[i + 1] = true;
+            }
+        }
+        long advanced = 0;
+        for (int i = last; i >= 0; i -= 1) {
+            if (_advance[i]) {
+                _pawlRotors[i].advance();
+                advanced |= 1L << (_firstPawl + i);
+            }
+        }
+        _machine.pushStep(advanced);
+    }
+
+    /** Return the machine I was compiled from. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Default message length for the benchmark. */
+    static final int DEFAULT_BENCHMARK_LENGTH = 1 << 20;
+
+    /** Number of timed rounds in the benchmark. */
+    static final int BENCHMARK_ROUNDS = 5;
+
+    /** Handle for lookup(int[], Rotor, int, int). */
+    private static final MethodHandle LOOKUP;
+
+    /** Handle reading an element of an int[]. */
+    private static final MethodHandle ELEMENT =
+        MethodHandles.arrayElementGetter(int[].class);
+
+    /** Handle for Rotor.convertForward. */
+    private static final MethodHandle CONVERT_FORWARD;
+
+    /** Handle for Rotor.convertBackward. */
+    private static final MethodHandle CONVERT_BACKWARD;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType conversion =
+                MethodType.methodType(int.class, int.class);
+            LOOKUP = lookup.findStatic(CompiledMachine.class, "lookup",
+                         MethodType.methodType(int.class, int[].class,
+                                               Rotor.class, int.class,
+                                               int.class));
+            CONVERT_FORWARD = lookup.findVirtual(Rotor.class,
+                                  "convertForward", conversion);
+            CONVERT_BACKWARD = lookup.findVirtual(Rotor.class,
+                                   "convertBackward", conversion);
+        } catch (ReflectiveOperationException excp) {
+            throw new ExceptionInInitializerError(excp);
+        }
+    }
+
+    /** The machine I was compiled from. */
+    private final Machine _machine;
+
+    /** Alphabet of _machine. */
+    private final Alphabet _alphabet;
+
+    /** The rotors in the pawl slots, left to right. */
+    private final Rotor[] _pawlRotors;
+
+    /** Scratch space for step(). */
+    private final boolean[] _advance;
+
+    /** Slot of _pawlRotors[0]. */
+    private final int _firstPawl;
+
+    /** The whole signal path, (int)int. */
+    private final MethodHandle _path;
+}
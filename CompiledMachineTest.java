@@ -0,0 +1,143 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CompiledMachine class, which
+ *  check it against Machine.convert.
+ *  @author Lei Hao
+ */
+public class CompiledMachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with 5 slots and 3 pawls, with its own
+     *  rotors, set up by the settings line SETTINGS. */
+    private Machine naval(String settings) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[] moving = { "I", "Q", "II", "E", "III", "V", "IV", "J",
+                            "VI", "ZM" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        Machine m = new Machine(UPPER, 5, 3, rotors);
+        Main.applySettings(m, settings);
+        return m;
+    }
+
+    /** A four-letter alphabet. */
+    private static final Alphabet ABCD = new Alphabet("ABCD");
+
+    /** Return a machine over ABCD with 5 slots and 4 pawls, with its
+     *  own rotors, whose moving rotors have one, two and three notches,
+     *  set up by the settings line SETTINGS. */
+    private Machine small(String settings) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation("(AB) (CD)", ABCD)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ACBD)", ABCD),
+                                   "B"));
+        rotors.add(new MovingRotor("M2", new Permutation("(ABC)", ABCD),
+                                   "CD"));
+        rotors.add(new MovingRotor("M3", new Permutation("(AD) (B)", ABCD),
+                                   "ABD"));
+        rotors.add(new MovingRotor("M4", new Permutation("(BDC)", ABCD),
+                                   "A"));
+        Machine m = new Machine(ABCD, 5, 4, rotors);
+        Main.applySettings(m, settings);
+        return m;
+    }
+
+    /** Check that a CompiledMachine for COMPILED converts each character
+     *  of MSG as EXPECTED, an identical machine, does with
+     *  Machine.convert, leaving the rotors at the same settings after
+     *  every character, and that it converts MSG as a whole alike.
+     *  NAME identifies the case. */
+    private void check(String name, Machine expected, Machine compiled,
+                       String msg) {
+        Machine compiled2 = compiled.copy();
+        CompiledMachine engine = new CompiledMachine(compiled);
+        Alphabet alpha = expected.alphabet();
+        StringBuilder converted = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            int c = alpha.toInt(msg.charAt(i));
+            int want = expected.convert(c);
+            converted.append(alpha.toChar(want));
+            assertEquals(msg(name, "character %d", i), want,
+                         engine.convert(c));
+            for (int k = 0; k < expected.numRotors(); k += 1) {
+                assertEquals(msg(name, "slot %d after character %d", k, i),
+                             expected.usedRotors().get(k).setting(),
+                             compiled.usedRotors().get(k).setting());
+            }
+        }
+        assertEquals(msg(name, "whole message"), converted.toString(),
+                     new CompiledMachine(compiled2).convert(msg));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkNavalBoundaries() {
+        String msg = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOGTHEQUICKBROWNFOX"
+            .repeat(12);
+        String[] settings = {
+            "* B Beta III IV I AXLE (YF) (ZH)",
+            "* B Beta III IV I AAIP",
+            "* B Beta III IV I AAJQ",
+            "* B Beta III IV I AUIQ",
+            "* B Beta III IV I AUJP",
+            "* B Beta I II III AQDU",
+            "* B Beta I II III AQEV",
+            "* B Beta II VI IV ZZLY",
+            "* B Beta II VI IV AMLJ",
+            "* B Beta II VI IV AYIJ AACK (AQ) (EP)",
+            "* B Beta III IV I AAJQ AAJQ (AB)",
+            "* B Beta III IV I ATHO BDFX",
+        };
+        for (String s : settings) {
+            check(s, naval(s), naval(s), msg);
+        }
+    }
+
+    @Test
+    public void checkEveryPosition() {
+        Random random = new Random(32);
+        String[] orders = { "R M1 M2 M3 M4", "R M4 M3 M2 M1",
+                            "R M2 M3 M1 M4" };
+        for (String order : orders) {
+            for (int state = 0; state < 256; state += 1) {
+                char[] positions = new char[4], rings = new char[4];
+                for (int k = 3, s = state; k >= 0; k -= 1, s /= 4) {
+                    positions[k] = ABCD.toChar(s % 4);
+                    rings[k] = ABCD.toChar(random.nextInt(4));
+                }
+                String s = "* " + order + " " + new String(positions) + " "
+                    + new String(rings) + " (AC)";
+                StringBuilder msg = new StringBuilder();
+                for (int i = 0; i < 150; i += 1) {
+                    msg.append(ABCD.toChar(random.nextInt(4)));
+                }
+                check(s, small(s), small(s), msg.toString());
+            }
+        }
+    }
+}
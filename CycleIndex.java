@@ -0,0 +1,607 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import static enigma.EnigmaException.*;
+
+/** A catalogue of the cycle structures of the doubly enciphered message
+ *  keys of every day key, in the manner of Rejewski's characteristics.
+ *  A message key of LENGTH letters is enciphered twice at the day key,
+ *  so letters j and j + LENGTH of each indicator are related by the
+ *  product of the machine's substitutions at keystrokes j and
+ *  j + LENGTH.  The cycle types of those LENGTH products do not depend
+ *  on the plugboard, and so narrow the day key to a few rotor orders
+ *  and positions.
+ *
+ *  An index covers every candidate of a KeyspaceSpliterator without
+ *  ring settings: every reflector, rotor order and start position.  It
+ *  is a file of sorted longs, each holding a hash of a candidate's cycle
+ *  types above the candidate's number, preceded by a table of where
+ *  each range of hashes starts.  It is built in parallel and mapped
+ *  read-only for lookups, which binary-search one range and then check
+ *  each hit against the cycle types themselves.
+ *  @author Lei Hao
+ */
+class CycleIndex {
+
+    /** Build or search an index, as given by ARGS: the name of a
+     *  configuration file and of an index file, then optionally a
+     *  characteristic.  Without one, the index is built (with message
+     *  keys of --length=K letters, 3 by default).  With one, the settings
+     *  lines whose cycle types it gives are printed.  A characteristic
+     *  is the cycle lengths of each product, separated by '/', as in
+     *  "13 13/10 10 2 2 1 1/9 9 4 4".  Instead, --indicators=FILE gives a
+     *  file of indicators, one per line, from which to work it out. */
+    public static void main(String... args) {
+        try {
+            ArrayList<String> rest = new ArrayList<>();
+            int length = DEFAULT_LENGTH;
+            String indicators = null;
+            for (String arg : args) {
+                if (arg.startsWith("--length=")) {
+                    length = Integer.parseInt(arg.substring(9));
+                } else if (arg.startsWith("--indicators=")) {
+                    indicators = arg.substring(13);
+                } else {
+                    rest.add(arg);
+                }
+            }
+            if (rest.size() < 2 || rest.size() > 3
+                || rest.size() == 3 && indicators != null) {
+                throw error("Usage: java enigma.CycleIndex [--length=K] "
+                            + "CONFIG INDEX [CHARACTERISTIC | "
+                            + "--indicators=FILE]");
+            }
+            Path config = Path.of(rest.get(0));
+            Path index = Path.of(rest.get(1));
+            if (rest.size() == 2 && indicators == null) {
+                long start = System.nanoTime();
+                CycleIndex built = build(config, index, length);
+                System.err.printf("Indexed %d candidates in %.1f s%n",
+                                  built.size(),
+                                  (System.nanoTime() - start) / 1e9);
+                return;
+            }
+            CycleIndex catalogue = open(config, index);
+            int[][] characteristic =
+                indicators == null ? catalogue.parse(rest.get(2))
+                : catalogue.fromIndicators(readLines(Path.of(indicators)));
+            long start = System.nanoTime();
+            List<String> found = catalogue.lookup(characteristic);
+            System.err.printf("%s: %d candidates in %.3f ms%n",
+                              describe(characteristic), found.size(),
+                              (System.nanoTime() - start) / 1e6);
+            for (String settings : found) {
+                System.out.println(settings);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad message key length%n");
+        }
+        System.exit(1);
+    }
+
+    /** An index of the machines configured by configuration file CONFIG,
+     *  for message keys of LENGTH letters, in file INDEX. */
+    private CycleIndex(Path config, Path index, int length) {
+        _prototype = Main.loadConfig(config.toString());
+        _n = _prototype.alphabet().size();
+        _length = length;
+        _digest = KeystreamCache.key(readBytes(config), "cycles " + length);
+        _path = index;
+        _size = new KeyspaceSpliterator(_prototype, false).keyspaceSize();
+        _candidateBits = 64 - Long.numberOfLeadingZeros(_size);
+        if (length < 1) {
+            throw error("message keys of %d letters not supported", length);
+        }
+        if (_candidateBits > Long.SIZE - BUCKET_BITS) {
+            throw error("keyspace too large to index");
+        }
+    }
+
+    /** Build an index of the machines of configuration file CONFIG for
+     *  message keys of LENGTH letters, write it to INDEX, and return it,
+     *  open for lookups. */
+    static CycleIndex build(Path config, Path index, int length) {
+        CycleIndex result = new CycleIndex(config, index, length);
+        result.write();
+        result.map();
+        return result;
+    }
+
+    /** Return the index in file INDEX, which must have been built from
+     *  configuration file CONFIG. */
+    static CycleIndex open(Path config, Path index) {
+        int length;
+        try (FileChannel channel = FileChannel.open(index)) {
+            MappedByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw error("%s is not a cycle index", index);
+            }
+            length = header.getInt(8);
+        } catch (IOException excp) {
+            throw error("could not read index %s", index);
+        }
+        CycleIndex result = new CycleIndex(config, index, length);
+        result.map();
+        return result;
+    }
+
+    /** Return the number of candidates I index. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the settings lines, without ring settings or plugboard, of
+     *  the candidates whose cycle types are CHARACTERISTIC, as returned
+     *  by parse. */
+    List<String> lookup(int[][] characteristic) {
+        long hash = hash(characteristic) >>> _candidateBits;
+        long first = hash << _candidateBits;
+        int bucket = (int) (first >>> (Long.SIZE - BUCKET_BITS));
+        long lo = _buckets.get(bucket), hi = _buckets.get(bucket + 1);
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (_entries.get(mid) < first) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        ArrayList<String> result = new ArrayList<>();
+        Scratch s = new Scratch(_n, _length);
+        long mask = (1L << _candidateBits) - 1;
+        for (long e = lo; e < _size && (_entries.get(e) >>> _candidateBits)
+                 == hash; e += 1) {
+            long candidate = _entries.get(e) & mask;
+            KeyspaceSpliterator keys =
+                new KeyspaceSpliterator(_prototype, false, candidate,
+                                        candidate + 1);
+            keys.tryAdvance(m -> characterize(m, s));
+            if (Arrays.deepEquals(s.lengths, characteristic)) {
+                result.add(keys.settings());
+            }
+        }
+        return result;
+    }
+
+    /** Return the characteristic described by TEXT: the cycle lengths of
+     *  each product, separated by '/'. */
+    int[][] parse(String text) {
+        String[] groups = text.trim().split("\\s*/\\s*");
+        if (groups.length != _length) {
+            throw error("characteristic needs %d products", _length);
+        }
+        int[][] result = new int[_length][];
+        for (int j = 0; j < _length; j += 1) {
+            String[] words = groups[j].trim().split("[\\s,]+");
+            result[j] = new int[words.length];
+            int total = 0;
+            for (int i = 0; i < words.length; i += 1) {
+                try {
+                    result[j][i] = Integer.parseInt(words[i]);
+                } catch (NumberFormatException excp) {
+                    throw error("bad cycle length %s", words[i]);
+                }
+                if (result[j][i] < 1) {
+                    throw error("bad cycle length %s", words[i]);
+                }
+                total += result[j][i];
+            }
+            if (total != _n) {
+                throw error("cycle lengths of product %d add up to %d, "
+                            + "not %d", j + 1, total, _n);
+            }
+            Arrays.sort(result[j]);
+        }
+        return result;
+    }
+
+    /** Return the characteristic of the day key under which the message
+     *  keys giving INDICATORS were each enciphered twice.  There must be
+     *  enough indicators to determine every product completely. */
+    int[][] fromIndicators(List<String> indicators) {
+        Alphabet alpha = _prototype.alphabet();
+        int[][] products = new int[_length][_n];
+        for (int[] product : products) {
+            Arrays.fill(product, -1);
+        }
+        for (String line : indicators) {
+            String indicator = line.replaceAll("\\s", "");
+            if (indicator.isEmpty()) {
+                continue;
+            }
+            if (indicator.length() != 2 * _length) {
+                throw error("indicator %s is not %d letters long",
+                            indicator, 2 * _length);
+            }
+            for (int j = 0; j < _length; j += 1) {
+                int from = letter(alpha, indicator.charAt(j));
+                int to = letter(alpha, indicator.charAt(j + _length));
+                if (products[j][from] >= 0 && products[j][from] != to) {
+                    throw error("indicator %s contradicts an earlier one",
+                                indicator);
+                }
+                products[j][from] = to;
+            }
+        }
+        int[][] result = new int[_length][];
+        Scratch s = new Scratch(_n, _length);
+        for (int j = 0; j < _length; j += 1) {
+            for (int c = 0; c < _n; c += 1) {
+                if (products[j][c] < 0) {
+                    throw error("indicators do not determine product %d",
+                                j + 1);
+                }
+            }
+            result[j] = cycleType(products[j], s);
+        }
+        return result;
+    }
+
+    /** Return a description of CHARACTERISTIC in the form accepted by
+     *  parse, longest cycles first. */
+    static String describe(int[][] characteristic) {
+        StringBuilder result = new StringBuilder();
+        for (int j = 0; j < characteristic.length; j += 1) {
+            if (j > 0) {
+                result.append('/');
+            }
+            for (int i = characteristic[j].length - 1; i >= 0; i -= 1) {
+                result.append(characteristic[j][i]);
+                if (i > 0) {
+                    result.append(' ');
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /** Set S.lengths to the characteristic of M at its present settings,
+     *  stepping it through two message keys. */
+    private void characterize(Machine m, Scratch s) {
+        for (int i = 0; i < 2 * _length; i += 1) {
+            m.doubleStepping();
+            for (int c = 0; c < _n; c += 1) {
+                s.steps[i][c] = m.translate(c);
+            }
+        }
+        for (int j = 0; j < _length; j += 1) {
+            for (int c = 0; c < _n; c += 1) {
+                s.product[c] = s.steps[j + _length][s.steps[j][c]];
+            }
+            s.lengths[j] = cycleType(s.product, s);
+        }
+    }
+
+    /** Return the lengths of the cycles of the permutation PRODUCT of
+     *  0 .. n-1, in increasing order, using scratch space S. */
+    private int[] cycleType(int[] product, Scratch s) {
+        s.stamp += 1;
+        int cycles = 0;
+        for (int c = 0; c < _n; c += 1) {
+            if (s.seen[c] == s.stamp) {
+                continue;
+            }
+            int len = 0;
+            for (int x = c; s.seen[x] != s.stamp; x = product[x]) {
+                s.seen[x] = s.stamp;
+                len += 1;
+            }
+            s.cycle[cycles] = len;
+            cycles += 1;
+        }
+        int[] result = Arrays.copyOf(s.cycle, cycles);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return a 64-bit hash of CHARACTERISTIC, mixed so that its high
+     *  bits are as well distributed as its low ones. */
+    private static long hash(int[][] characteristic) {
+        long h = 0xcbf29ce484222325L;
+        for (int[] lengths : characteristic) {
+            for (int len : lengths) {
+                h = (h ^ len) * 0x100000001b3L;
+            }
+            h = (h ^ 0xff) * 0x100000001b3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    /** Compute the entries of all candidates, sort them, and write them
+     *  with a header and bucket table to my file, replacing it. */
+    private void write() {
+        Path dir = _path.toAbsolutePath().getParent();
+        Path keys = null, temp = null;
+        try {
+            keys = Files.createTempFile(dir, "cycles", TEMP_SUFFIX);
+            temp = Files.createTempFile(dir, "cycles", TEMP_SUFFIX);
+            try (FileChannel keyChannel = open(keys);
+                 FileChannel channel = open(temp)) {
+                MappedLongs unsorted =
+                    new MappedLongs(keyChannel, 0, _size, true);
+                computeEntries(unsorted);
+                long[] starts = new long[BUCKETS + 1];
+                for (long i = 0; i < _size; i += 1) {
+                    starts[bucket(unsorted.get(i)) + 1] += 1;
+                }
+                for (int b = 0; b < BUCKETS; b += 1) {
+                    starts[b + 1] += starts[b];
+                }
+                MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                header.putInt(MAGIC).putInt(_n).putInt(_length)
+                    .putInt(_candidateBits).putLong(_size)
+                    .put(_digest.getBytes(StandardCharsets.US_ASCII));
+                header.force();
+                MappedLongs table = new MappedLongs(channel, HEADER_BYTES,
+                                                    BUCKETS + 1, true);
+                for (int b = 0; b <= BUCKETS; b += 1) {
+                    table.put(b, starts[b]);
+                }
+                MappedLongs entries =
+                    new MappedLongs(channel, ENTRIES_START, _size, true);
+                long[] next = Arrays.copyOf(starts, BUCKETS);
+                for (long i = 0; i < _size; i += 1) {
+                    long entry = unsorted.get(i);
+                    entries.put(next[bucket(entry)]++, entry);
+                }
+                IntStream.range(0, BUCKETS).parallel()
+                    .forEach(b -> sortRange(entries, starts[b],
+                                            starts[b + 1]));
+                table.force();
+                entries.force();
+            }
+            Files.move(temp, _path, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write index %s", _path);
+        } finally {
+            for (Path p : new Path[] { keys, temp }) {
+                if (p != null) {
+                    p.toFile().delete();
+                }
+            }
+        }
+    }
+
+    /** Set entry I of ENTRIES to the entry of candidate I, for every
+     *  candidate, working on batches of candidates in parallel. */
+    private void computeEntries(MappedLongs entries) {
+        long batches = (_size + BATCH - 1) / BATCH;
+        LongStream.range(0, batches).parallel().forEach(b -> {
+            KeyspaceSpliterator candidates =
+                new KeyspaceSpliterator(_prototype, false, b * BATCH,
+                                        Math.min(_size, (b + 1) * BATCH));
+            Scratch s = new Scratch(_n, _length);
+            while (candidates.tryAdvance(m -> characterize(m, s))) {
+                long i = candidates.index();
+                entries.put(i, (hash(s.lengths) >>> _candidateBits
+                                << _candidateBits) | i);
+            }
+        });
+    }
+
+    /** Sort entries FROM .. TO-1 of ENTRIES. */
+    private static void sortRange(MappedLongs entries, long from,
+                                  long to) {
+        long[] range = new long[(int) (to - from)];
+        for (int i = 0; i < range.length; i += 1) {
+            range[i] = entries.get(from + i);
+        }
+        Arrays.sort(range);
+        for (int i = 0; i < range.length; i += 1) {
+            entries.put(from + i, range[i]);
+        }
+    }
+
+    /** Map my file for lookups, checking that it was built from my
+     *  configuration. */
+    private void map() {
+        try (FileChannel channel = FileChannel.open(_path)) {
+            MappedByteBuffer header =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            byte[] digest = new byte[_digest.length()];
+            header.position(HEADER_BYTES - digest.length);
+            header.get(digest);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != _n
+                || header.getInt(12) != _candidateBits
+                || header.getLong(16) != _size
+                || !_digest.equals(new String(digest,
+                                              StandardCharsets.US_ASCII))
+                || channel.size() != ENTRIES_START + 8 * _size) {
+                throw error("index %s does not match the configuration",
+                            _path);
+            }
+            _buckets = new MappedLongs(channel, HEADER_BYTES, BUCKETS + 1,
+                                       false);
+            _entries = new MappedLongs(channel, ENTRIES_START, _size, false);
+        } catch (IOException excp) {
+            throw error("could not read index %s", _path);
+        }
+    }
+
+    /** Return the bucket of ENTRY. */
+    private static int bucket(long entry) {
+        return (int) (entry >>> (Long.SIZE - BUCKET_BITS));
+    }
+
+    /** Return the index of character C in ALPHA. */
+    private static int letter(Alphabet alpha, char c) {
+        if (!alpha.contains(c)) {
+            throw error("%c is not in the alphabet", c);
+        }
+        return alpha.toInt(c);
+    }
+
+    /** Return a new channel for reading and writing file PATH. */
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+    }
+
+    /** Return the contents of file PATH. */
+    private static byte[] readBytes(Path path) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (IOException excp) {
+            throw error("could not read %s", path);
+        }
+    }
+
+    /** Return the lines of file PATH. */
+    private static List<String> readLines(Path path) {
+        try {
+            return Files.readAllLines(path);
+        } catch (IOException excp) {
+            throw error("could not read %s", path);
+        }
+    }
+
+    /** A run of longs in a file, mapped in chunks so that it may exceed
+     *  the 2 GB limit of a single mapping. */
+    private static class MappedLongs {
+        /** The SIZE longs starting at byte START of CHANNEL, mapped for
+         *  writing iff WRITABLE. */
+        MappedLongs(FileChannel channel, long start, long size,
+                    boolean writable) throws IOException {
+            int chunks = (int) ((size + CHUNK - 1) / CHUNK);
+            _chunks = new LongBuffer[chunks];
+            _mapped = new MappedByteBuffer[chunks];
+            for (int k = 0; k < chunks; k += 1) {
+                long longs = Math.min(CHUNK, size - (long) k * CHUNK);
+                _mapped[k] = channel.map(writable
+                                         ? FileChannel.MapMode.READ_WRITE
+                                         : FileChannel.MapMode.READ_ONLY,
+                                         start + 8L * k * CHUNK,
+                                         8 * longs);
+                _chunks[k] = _mapped[k].asLongBuffer();
+            }
+        }
+
+        /** Return long number I. */
+        long get(long i) {
+            return _chunks[(int) (i / CHUNK)].get((int) (i % CHUNK));
+        }
+
+        /** Set long number I to VALUE. */
+        void put(long i, long value) {
+            _chunks[(int) (i / CHUNK)].put((int) (i % CHUNK), value);
+        }
+
+        /** Write my changes to the file. */
+        void force() {
+            for (MappedByteBuffer chunk : _mapped) {
+                chunk.force();
+            }
+        }
+
+        /** Longs in each mapping. */
+        private static final int CHUNK = 1 << 27;
+
+        /** The mappings, as longs. */
+        private final LongBuffer[] _chunks;
+
+        /** The mappings. */
+        private final MappedByteBuffer[] _mapped;
+    }
+
+    /** Working storage for computing characteristics. */
+    private static class Scratch {
+        /** Storage for an alphabet of size N and message keys of LENGTH
+         *  letters. */
+        Scratch(int n, int length) {
+            steps = new int[2 * length][n];
+            product = new int[n];
+            seen = new int[n];
+            cycle = new int[n];
+            lengths = new int[length][];
+        }
+
+        /** Substitution at each keystroke of the two message keys. */
+        private final int[][] steps;
+        /** A product of two substitutions. */
+        private final int[] product;
+        /** Stamp of the last cycle search to reach each letter. */
+        private final int[] seen;
+        /** The current cycle search's stamp. */
+        private int stamp;
+        /** Cycle lengths found so far. */
+        private final int[] cycle;
+        /** Cycle type of each product. */
+        private final int[][] lengths;
+    }
+
+    /** Default number of letters in a message key. */
+    static final int DEFAULT_LENGTH = 3;
+
+    /** Marks the start of an index file. */
+    static final int MAGIC = 0x454e4359;
+
+    /** Size of the header: magic, alphabet size, message key length,
+     *  candidate bits, number of entries and the hexadecimal digest of
+     *  the configuration. */
+    static final int HEADER_BYTES = 24 + 64;
+
+    /** Number of high bits of an entry selecting its bucket. */
+    static final int BUCKET_BITS = 16;
+
+    /** Number of buckets. */
+    static final int BUCKETS = 1 << BUCKET_BITS;
+
+    /** Byte offset of the first entry. */
+    static final long ENTRIES_START = HEADER_BYTES + 8L * (BUCKETS + 1);
+
+    /** Candidates computed by each parallel task. */
+    static final long BATCH = 1 << 12;
+
+    /** Suffix of temporary files. */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /** Machine describing the candidates. */
+    private final Machine _prototype;
+
+    /** Size of the alphabet. */
+    private final int _n;
+
+    /** Letters in a message key. */
+    private final int _length;
+
+    /** Hexadecimal digest of the configuration and _length. */
+    private final String _digest;
+
+    /** The index file. */
+    private final Path _path;
+
+    /** Number of candidates. */
+    private final long _size;
+
+    /** Number of low bits of an entry holding its candidate's number;
+     *  the rest hold the high bits of the hash of its characteristic. */
+    private final int _candidateBits;
+
+    /** Where each bucket's entries start, once mapped. */
+    private MappedLongs _buckets;
+
+    /** The sorted entries, once mapped. */
+    private MappedLongs _entries;
+}
@@ -0,0 +1,174 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the CycleIndex class.
+ *  @author Lei Hao
+ */
+public class CycleIndexTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration over ABCD with 4 slots and 2 pawls, two
+     *  reflectors, two non-moving rotors and three moving rotors. */
+    private static final String CONFIG =
+        "ABCD\n"
+        + "4 2\n"
+        + "R1 R (AB) (CD)\n"
+        + "R2 R (AC) (BD)\n"
+        + "F1 N (ABDC)\n"
+        + "F2 N (AD) (BC)\n"
+        + "M1 MB (ACBD)\n"
+        + "M2 MCD (ABC)\n"
+        + "M3 MA (AD) (B)\n";
+
+    /** The same configuration with a rotor rewired. */
+    private static final String OTHER_CONFIG =
+        CONFIG.replace("M3 MA (AD) (B)", "M3 MA (AB) (D)");
+
+    /** The day key whose characteristic is looked up. */
+    private static final String DAY_KEY = "* R2 F1 M3 M1 BCA AAA (AC)";
+
+    /** Return a new temporary directory holding the configuration files
+     *  "conf", with CONFIG in it, and "other", with OTHER_CONFIG. */
+    private Path directory() throws IOException {
+        Path dir = Files.createTempDirectory("cycles");
+        Files.writeString(dir.resolve("conf"), CONFIG);
+        Files.writeString(dir.resolve("other"), OTHER_CONFIG);
+        return dir;
+    }
+
+    /** Remove directory DIR and the files in it. */
+    private void delete(Path dir) {
+        File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    /** Return the indicators of every three-letter message key, each
+     *  enciphered twice by the machine of the configuration in DIR at
+     *  the settings line SETTINGS. */
+    private List<String> indicators(Path dir, String settings) {
+        Machine m = Main.loadConfig(dir.resolve("conf").toString());
+        Alphabet alpha = m.alphabet();
+        int n = alpha.size();
+        ArrayList<String> result = new ArrayList<>();
+        for (int key = 0; key < n * n * n; key += 1) {
+            String msgKey = "" + alpha.toChar(key / (n * n))
+                + alpha.toChar(key / n % n) + alpha.toChar(key % n);
+            Main.applySettings(m, settings);
+            result.add(m.convert(msgKey + msgKey));
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkLookup() throws IOException {
+        Path dir = directory();
+        try {
+            Path config = dir.resolve("conf"), file = dir.resolve("index");
+            CycleIndex index = CycleIndex.build(config, file, 3);
+            assertEquals("size",
+                         new KeyspaceSpliterator(Main.loadConfig(
+                             config.toString()), false).keyspaceSize(),
+                         index.size());
+
+            int[][] characteristic =
+                index.fromIndicators(indicators(dir, DAY_KEY));
+            List<String> found = index.lookup(characteristic);
+            assertTrue(msg("day key", "%s not in %s", DAY_KEY, found),
+                       found.contains("* R2 F1 M3 M1 BCA AAA"));
+            for (String settings : found) {
+                assertTrue(msg("candidate", "%s", settings),
+                           Arrays.deepEquals(characteristic,
+                                             index.fromIndicators(
+                                                 indicators(dir,
+                                                            settings))));
+            }
+
+            int expected = 0;
+            KeyspaceSpliterator keys =
+                new KeyspaceSpliterator(Main.loadConfig(config.toString()),
+                                        false);
+            ArrayList<String> all = new ArrayList<>();
+            keys.forEachRemaining(m -> all.add(keys.settings()));
+            for (String settings : all) {
+                if (Arrays.deepEquals(characteristic,
+                                      index.fromIndicators(
+                                          indicators(dir, settings)))) {
+                    expected += 1;
+                }
+            }
+            assertEquals("candidates found", expected, found.size());
+
+            CycleIndex reopened = CycleIndex.open(config, file);
+            assertEquals("reopened",
+                         found, reopened.lookup(reopened.parse(
+                             CycleIndex.describe(characteristic))));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkOtherConfiguration() throws IOException {
+        Path dir = directory();
+        try {
+            Path file = dir.resolve("index");
+            CycleIndex.build(dir.resolve("conf"), file, 3);
+            try {
+                CycleIndex.open(dir.resolve("other"), file);
+                fail("index of another configuration");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkBadCharacteristic() throws IOException {
+        Path dir = directory();
+        try {
+            CycleIndex index =
+                CycleIndex.build(dir.resolve("conf"), dir.resolve("index"),
+                                 3);
+            String[] bad = { "2 2/4", "2 2/4/3", "2 2/4/1 1 1 1 1",
+                             "2 2/4/0 4", "2 2/4/x" };
+            for (String text : bad) {
+                try {
+                    index.parse(text);
+                    fail(msg("characteristic", "%s", text));
+                } catch (EnigmaException excp) {
+                    /* Expected. */
+                }
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+}
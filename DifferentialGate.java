@@ -0,0 +1,655 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+import static enigma.EnigmaException.*;
+
+/** Checks the fast engines against ReferenceMachine, and their speed
+ *  against a recorded baseline, so that an optimization that changes a
+ *  single character, or slows conversion down, is caught before it is
+ *  merged.  For each seed, WorkloadGenerator writes a random
+ *  configuration (alphabet size, slots, pawls, notches, wirings) and
+ *  input, whose settings lines all give ring settings.  Each message
+ *  is converted by the reference and by
+ *      machine   Machine.convert(String), through all its tiers,
+ *      stepwise  Machine.convert(int), comparing positions after every
+ *                character,
+ *      compiled  CompiledMachine,
+ *      stream    StreamCodec, in parallel,
+ *      batch     BatchMachine, in every lane,
+ *      skip      Machine.skip, comparing positions only,
+ *  with other random ring settings, and the whole input, with the ring
+ *  settings its settings lines give, by Main.convertAll.  The first
+ *  difference of each engine in each message is reported, with the
+ *  seed that reproduces it.  Before all that, while the JIT compiler
+ *  has seen no other alphabets or rotors, the throughput of Main, of
+ *  CompiledMachine and of the reference on a fixed workload of long
+ *  messages (so that setting up each line costs little beside
+ *  converting it) is measured after a warm-up and compared with the
+ *  baseline file.  The spread of each engine's throughput across
+ *  rounds is reported with it, and a drop within that spread is not
+ *  held against the engine.
+ *  @author Lei Hao
+ */
+class DifferentialGate {
+
+    /** Run the gate with options ARGS, each of the form --NAME=VALUE
+     *  (with defaults):
+     *    --seeds=20        number of random workloads.
+     *    --seed=1          the first of their seeds, which follow in
+     *                      order.
+     *    --rounds=5        timed runs of each engine, after at least
+     *                      a second of runs to warm up; the fastest
+     *                      counts.
+     *    --baseline=FILE   properties file of throughputs, in characters
+     *                      per second, against which to compare.  It is
+     *                      written if it does not exist.
+     *    --tolerance=10    largest drop in throughput of a fast engine
+     *                      below its baseline, in percent, unless the
+     *                      spread of its rounds is larger.
+     *    --update-baseline  write the throughputs measured to the
+     *                      baseline file instead of comparing them.
+     *  Exits with code 1 if any engine differs from the reference or is
+     *  too slow. */
+    public static void main(String... args) {
+        try {
+            DifferentialGate gate = new DifferentialGate(args);
+            gate.checkThroughput();
+            gate.checkCorrectness();
+            gate.finish();
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A gate with the options in ARGS (see main). */
+    DifferentialGate(String... args) {
+        HashMap<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = arg.startsWith("--")
+                ? arg.substring(2, eq < 0 ? arg.length() : eq) : "";
+            if (!DEFAULTS.containsKey(name)) {
+                throw error("unknown option %s", arg);
+            }
+            options.put(name, eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        try {
+            _seeds = Integer.parseInt(options.get("seeds"));
+            _firstSeed = Long.parseLong(options.get("seed"));
+            _rounds = Integer.parseInt(options.get("rounds"));
+            _tolerance = Double.parseDouble(options.get("tolerance"));
+        } catch (NumberFormatException excp) {
+            throw error("bad option value: %s", excp.getMessage());
+        }
+        if (_seeds < 0 || _rounds < 1 || _tolerance < 0) {
+            throw error("inconsistent options");
+        }
+        String baseline = options.get("baseline");
+        _baseline = baseline.isEmpty() ? null : Path.of(baseline);
+        _updateBaseline =
+            Boolean.parseBoolean(options.get("update-baseline"));
+        try {
+            _dir = Files.createTempDirectory("enigma-gate");
+        } catch (IOException excp) {
+            throw error("could not create a temporary directory");
+        }
+    }
+
+    /** Compare the engines with the reference on the workload of each
+     *  seed. */
+    void checkCorrectness() {
+        for (int i = 0; i < _seeds; i += 1) {
+            long seed = _firstSeed + i;
+            int before = _divergences;
+            String[] options = workload(seed);
+            generate(options);
+            checkEngines(seed);
+            checkMain(seed);
+            System.out.printf("seed %d: %s: %s%n", seed,
+                              String.join(" ", options),
+                              _divergences == before ? "ok"
+                              : (_divergences - before) + " differences");
+        }
+        System.out.printf("%d seeds, %d characters, %d differences%n",
+                          _seeds, _characters, _divergences);
+    }
+
+    /** Measure the throughput of each engine on the standard workload,
+     *  and compare it with, or record it as, the baseline. */
+    void checkThroughput() {
+        generate(TIMED_WORKLOAD);
+        Machine m = Main.loadConfig(config());
+        m.ownRotors();
+        String text = read(input());
+        List<String[]> lines = messages(text);
+        long chars = 0;
+        for (String[] line : lines) {
+            chars += line[1].length();
+        }
+        HashMap<String, double[]> rates = new HashMap<>();
+        rates.put("main", rates(chars, () -> {
+            Main.convertAll(m, text);
+        }));
+        rates.put("machine", rates(chars, () -> {
+            for (String[] line : lines) {
+                Main.applySettings(m, line[0]);
+                m.convert(line[1]);
+            }
+        }));
+        rates.put("compiled", rates(chars, () -> {
+            for (String[] line : lines) {
+                Main.applySettings(m, line[0]);
+                new CompiledMachine(m).convert(line[1]);
+            }
+        }));
+        ReferenceMachine ref = new ReferenceMachine(read(config()));
+        rates.put("reference", rates(chars, () -> {
+            for (String[] line : lines) {
+                ref.setUp(line[0]);
+                ref.convert(line[1]);
+            }
+        }));
+
+        Properties measured = new Properties();
+        Properties baseline = loadBaseline();
+        double reference = best(rates.get("reference"));
+        System.out.printf("Throughput, characters per second, in %d rounds "
+                          + "of %d characters:%n", _rounds, chars);
+        System.out.printf("  %-10s %10s %10s %7s %7s%n", "", "best",
+                          "median", "spread", "vs ref");
+        for (String engine : TIMED_ENGINES) {
+            double[] r = rates.get(engine);
+            double now = best(r), spread = spread(r);
+            measured.setProperty(engine, String.format("%.0f", now));
+            System.out.printf("  %-10s %10.0f %10.0f %6.1f%% %6.2fx",
+                              engine, now, median(r), spread,
+                              now / reference);
+            String was = baseline == null ? null
+                : baseline.getProperty(engine);
+            if (was != null) {
+                double change = 100 * (now / Double.parseDouble(was) - 1);
+                System.out.printf("  %+6.1f%% on baseline", change);
+                if (!engine.equals("reference") && -change > _tolerance
+                    && -change > spread) {
+                    _slow.add(engine);
+                }
+            }
+            System.out.println();
+        }
+        if (_baseline != null && (baseline == null || _updateBaseline)) {
+            saveBaseline(measured);
+            _slow.clear();
+        }
+    }
+
+    /** Remove my files, and throw an exception if the gate failed. */
+    void finish() {
+        delete(config());
+        delete(input());
+        delete(_dir.toString());
+        if (_divergences > 0) {
+            throw error("%d differences from the reference engine",
+                        _divergences);
+        }
+        if (!_slow.isEmpty()) {
+            throw error("throughput of %s fell more than %.0f%% below "
+                        + "the baseline", String.join(", ", _slow),
+                        _tolerance);
+        }
+    }
+
+    /** Return the WorkloadGenerator options for SEED, less the names of
+     *  the files to write. */
+    private String[] workload(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int n = 2 + random.nextInt(MAX_ALPHABET - 1);
+        int slots = 2 + random.nextInt(MAX_SLOTS - 1);
+        int pawls = random.nextInt(slots);
+        return new String[] {
+            "--seed=" + seed,
+            "--alphabet=" + n,
+            "--slots=" + slots,
+            "--pawls=" + pawls,
+            "--rotors=" + (pawls + random.nextInt(3)),
+            "--fixed=" + (slots - 1 - pawls + random.nextInt(2)),
+            "--reflectors=" + (1 + random.nextInt(2)),
+            String.format("--notch-density=%.3f", random.nextDouble() / 4),
+            "--cycle-length=" + (random.nextBoolean() ? 0
+                                 : 1 + random.nextInt(n)),
+            "--settings=" + (1 + random.nextInt(4)),
+            "--message-length=" + random.nextInt(MAX_MESSAGE),
+            "--line-length=" + (1 + random.nextInt(MAX_LINE)),
+            "--plugboard=" + random.nextInt(n / 2 + 1),
+            "--rings=1",
+        };
+    }
+
+    /** Write a configuration and input with the WorkloadGenerator options
+     *  OPTIONS. */
+    private void generate(String[] options) {
+        String[] args = Arrays.copyOf(options, options.length + 2);
+        args[options.length] = config();
+        args[options.length + 1] = input();
+        WorkloadGenerator generator = new WorkloadGenerator(args);
+        generator.writeConfig(config());
+        generator.writeInput(input());
+    }
+
+    /** Compare each engine with the reference on every message of the
+     *  workload of SEED, with random ring settings. */
+    private void checkEngines(long seed) {
+        ReferenceMachine ref = new ReferenceMachine(read(config()));
+        Machine fast = Main.loadConfig(config());
+        fast.ownRotors();
+        Machine stepwise = Main.loadConfig(config());
+        stepwise.ownRotors();
+        Machine forCompiled = Main.loadConfig(config());
+        forCompiled.ownRotors();
+        CompiledMachine compiled = null;
+        Alphabet alpha = fast.alphabet();
+        SplittableRandom random = new SplittableRandom(~seed);
+        String[] lines = read(input()).split("\n");
+        for (int l = 0; l < lines.length; l += 1) {
+            String line = lines[l];
+            if (line.contains("*")) {
+                String rings = rings(random, alpha, fast.numRotors());
+                ref.setUp(line);
+                ref.setRings(rings);
+                for (Machine m : List.of(fast, stepwise, forCompiled)) {
+                    Main.applySettings(m, line);
+                    m.setRings(rings);
+                }
+                compiled = new CompiledMachine(forCompiled);
+                continue;
+            }
+            Where where = new Where(seed, l + 1);
+            String msg = line.replaceAll("\\s", "");
+            int[] symbols = new int[msg.length()];
+            for (int i = 0; i < symbols.length; i += 1) {
+                symbols[i] = alpha.toInt(msg.charAt(i));
+            }
+            Machine start = stepwise.copy();
+
+            char[] expected = new char[symbols.length];
+            int[][] positions = new int[symbols.length][];
+            for (int i = 0; i < symbols.length; i += 1) {
+                expected[i] = ref.convert(msg.charAt(i));
+                positions[i] = ref.positions();
+            }
+            String want = new String(expected);
+            _characters += symbols.length;
+
+            for (int i = 0; i < symbols.length; i += 1) {
+                char got = alpha.toChar(stepwise.convert(symbols[i]));
+                if (got != expected[i]) {
+                    where.differ("stepwise", i, expected[i], got);
+                    break;
+                }
+                if (!samePositions(positions[i], stepwise.positions())) {
+                    where.differ("stepwise", i, positions[i],
+                                 stepwise.positions());
+                    break;
+                }
+            }
+            int[] last = ref.positions();
+            where.compare("machine", want, fast.convert(msg));
+            where.compare("machine", last, fast.positions());
+            where.compare("compiled", want, compiled.convert(msg));
+            where.compare("compiled", last, forCompiled.positions());
+            where.compare("stream", want, new StreamCodec(start).encode(msg));
+            Machine skipped = start.copy();
+            skipped.skip(symbols.length);
+            where.compare("skip", last, skipped.positions());
+
+            BatchMachine batch = new BatchMachine(start, LANES);
+            int[] out = new int[symbols.length * LANES];
+            batch.convert(symbols, out);
+            for (int j = 0; j < LANES; j += 1) {
+                char[] lane = new char[symbols.length];
+                for (int i = 0; i < symbols.length; i += 1) {
+                    lane[i] = alpha.toChar(out[i * LANES + j]);
+                }
+                if (!where.compare("batch lane " + j, want,
+                                   new String(lane))) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** Compare Main.convertAll with the reference on the whole input of
+     *  the workload of SEED. */
+    private void checkMain(long seed) {
+        String text = read(input());
+        ReferenceMachine ref = new ReferenceMachine(read(config()));
+        StringBuilder want = new StringBuilder();
+        for (String line : text.split("\n")) {
+            if (line.contains("*")) {
+                ref.setUp(line);
+            } else {
+                want.append(Main.formatMessageLine(
+                    ref.convert(line.replaceAll("\\s", ""))))
+                    .append(System.lineSeparator());
+            }
+        }
+        Machine m = Main.loadConfig(config());
+        m.ownRotors();
+        String[] expected = want.toString().split(System.lineSeparator());
+        String[] got =
+            Main.convertAll(m, text).split(System.lineSeparator());
+        for (int i = 0; i < Math.max(expected.length, got.length); i += 1) {
+            String e = i < expected.length ? expected[i] : "";
+            String g = i < got.length ? got[i] : "";
+            if (!new Where(seed, 0).compare("main output line " + (i + 1),
+                                            e, g)) {
+                break;
+            }
+        }
+    }
+
+    /** The place in a workload being checked. */
+    private class Where {
+        /** Line LINE (from 1; 0 for the whole input) of the input of
+         *  the workload of SEED. */
+        Where(long seed, int line) {
+            _seed = seed;
+            _line = line;
+        }
+
+        /** Report, unless they are equal, that ENGINE gives GOT where the
+         *  reference gives WANT.  Returns true iff they are equal. */
+        boolean compare(String engine, String want, String got) {
+            if (want.equals(got)) {
+                return true;
+            }
+            int i = 0;
+            while (i < Math.min(want.length(), got.length())
+                   && want.charAt(i) == got.charAt(i)) {
+                i += 1;
+            }
+            if (i == Math.min(want.length(), got.length())) {
+                report(engine, String.format("gives %d characters, not %d",
+                                             got.length(), want.length()));
+            } else {
+                differ(engine, i, want.charAt(i), got.charAt(i));
+            }
+            return false;
+        }
+
+        /** Report, unless their rotors are at the same settings, that
+         *  ENGINE ends a message at positions GOT where the reference is
+         *  at WANT.  Returns true iff they agree. */
+        boolean compare(String engine, int[] want, int[] got) {
+            if (samePositions(want, got)) {
+                return true;
+            }
+            report(engine, String.format("ends at positions %s, not %s",
+                                         Arrays.toString(got),
+                                         Arrays.toString(want)));
+            return false;
+        }
+
+        /** Report that ENGINE converts character I to GOT rather than
+         *  WANT. */
+        void differ(String engine, int i, char want, char got) {
+            report(engine, String.format("gives '%c' for character %d, "
+                                         + "not '%c'", got, i, want));
+        }
+
+        /** Report that ENGINE is at positions GOT rather than WANT after
+         *  character I. */
+        void differ(String engine, int i, int[] want, int[] got) {
+            report(engine, String.format("is at positions %s after "
+                                         + "character %d, not %s",
+                                         Arrays.toString(got), i,
+                                         Arrays.toString(want)));
+        }
+
+        /** Count a difference in ENGINE, described by WHAT, and print
+         *  it if not too many have been. */
+        private void report(String engine, String what) {
+            _divergences += 1;
+            if (_divergences <= MAX_REPORTS) {
+                System.out.printf("  seed %d%s: %s %s%n", _seed,
+                                  _line == 0 ? "" : ", line " + _line,
+                                  engine, what);
+            }
+        }
+
+        /** Seed of the workload. */
+        private final long _seed;
+        /** Line of the input, or 0. */
+        private final int _line;
+    }
+
+    /** Return true iff POSITIONS0 and POSITIONS1 agree, apart from the
+     *  reflector's. */
+    private static boolean samePositions(int[] positions0,
+                                         int[] positions1) {
+        return Arrays.equals(positions0, 1, positions0.length,
+                             positions1, 1, positions1.length);
+    }
+
+    /** Return ring settings for the NUMROTORS - 1 rotors after the
+     *  reflector, from ALPHA: all zero half the time, and otherwise
+     *  random, using RANDOM. */
+    private static String rings(SplittableRandom random, Alphabet alpha,
+                                int numRotors) {
+        boolean zero = random.nextBoolean();
+        StringBuilder result = new StringBuilder();
+        for (int k = 1; k < numRotors; k += 1) {
+            result.append(alpha.toChar(zero ? 0
+                                       : random.nextInt(alpha.size())));
+        }
+        return result.toString();
+    }
+
+    /** Return each settings line of TEXT, paired with the message lines
+     *  that follow it, without blanks, run together. */
+    private static List<String[]> messages(String text) {
+        ArrayList<String[]> result = new ArrayList<>();
+        StringBuilder msg = new StringBuilder();
+        for (String line : text.split("\n")) {
+            if (line.contains("*")) {
+                if (!result.isEmpty()) {
+                    result.get(result.size() - 1)[1] = msg.toString();
+                }
+                result.add(new String[] { line, "" });
+                msg.setLength(0);
+            } else {
+                msg.append(line.replaceAll("\\s", ""));
+            }
+        }
+        if (!result.isEmpty()) {
+            result.get(result.size() - 1)[1] = msg.toString();
+        }
+        return result;
+    }
+
+    /** Return the throughputs of RUN, which converts CHARS characters,
+     *  in characters per second, in increasing order: one for each of
+     *  _rounds timed runs, after running it at least WARMUP_RUNS times
+     *  and for at least WARMUP_NANOS to warm up. */
+    private double[] rates(long chars, Runnable run) {
+        long start = System.nanoTime();
+        for (int i = 0; i < WARMUP_RUNS
+                 || System.nanoTime() - start < WARMUP_NANOS; i += 1) {
+            run.run();
+        }
+        double[] result = new double[_rounds];
+        for (int i = 0; i < _rounds; i += 1) {
+            System.gc();
+            long begin = System.nanoTime();
+            run.run();
+            long time = System.nanoTime() - begin;
+            result[i] = chars * 1e9 / Math.max(time, 1);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Return the largest of RATES, which are in increasing order. */
+    private static double best(double[] rates) {
+        return rates[rates.length - 1];
+    }
+
+    /** Return the median of RATES, which are in increasing order. */
+    private static double median(double[] rates) {
+        int mid = rates.length / 2;
+        return rates.length % 2 == 1 ? rates[mid]
+            : (rates[mid - 1] + rates[mid]) / 2;
+    }
+
+    /** Return the spread of RATES, which are in increasing order: the
+     *  difference between the largest and smallest, as a percentage of
+     *  the median. */
+    private static double spread(double[] rates) {
+        return 100 * (best(rates) - rates[0]) / median(rates);
+    }
+
+    /** Return the baseline throughputs, or null if there are none. */
+    private Properties loadBaseline() {
+        if (_baseline == null || _updateBaseline
+            || !Files.exists(_baseline)) {
+            return null;
+        }
+        Properties result = new Properties();
+        try (InputStream in = Files.newInputStream(_baseline)) {
+            result.load(in);
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not read baseline %s", _baseline);
+        }
+        return result;
+    }
+
+    /** Write THROUGHPUTS to the baseline file. */
+    private void saveBaseline(Properties throughputs) {
+        try (OutputStream out = Files.newOutputStream(_baseline)) {
+            throughputs.store(out, "enigma.DifferentialGate throughputs, "
+                              + "characters per second");
+        } catch (IOException excp) {
+            throw error("could not write baseline %s", _baseline);
+        }
+        System.out.printf("Recorded baseline in %s%n", _baseline);
+    }
+
+    /** Return the contents of the file named NAME. */
+    private static String read(String name) {
+        try {
+            return Files.readString(Path.of(name));
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
+        }
+    }
+
+    /** Delete the file named NAME, if it exists. */
+    private static void delete(String name) {
+        try {
+            Files.deleteIfExists(Path.of(name));
+        } catch (IOException excp) {
+            /* Ignore. */
+        }
+    }
+
+    /** Return the name of the configuration file of the workload. */
+    private String config() {
+        return _dir.resolve("gate.conf").toString();
+    }
+
+    /** Return the name of the input file of the workload. */
+    private String input() {
+        return _dir.resolve("gate.in").toString();
+    }
+
+    /** Options and their defaults. */
+    private static final HashMap<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("seeds", "20");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("rounds", "5");
+        DEFAULTS.put("baseline", "");
+        DEFAULTS.put("tolerance", "10");
+        DEFAULTS.put("update-baseline", "false");
+    }
+
+    /** WorkloadGenerator options for the throughput workload: a few
+     *  settings lines, each followed by a long message. */
+    private static final String[] TIMED_WORKLOAD = {
+        "--seed=1", "--settings=2", "--message-length=4000000",
+    };
+
+    /** Shortest time spent warming up each engine before timing it, in
+     *  nanoseconds. */
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+
+    /** Fewest runs of each engine to warm it up before timing it. */
+    private static final int WARMUP_RUNS = 3;
+
+    /** Engines whose throughput is measured, in the order reported. */
+    private static final String[] TIMED_ENGINES = {
+        "main", "machine", "compiled", "reference",
+    };
+
+    /** Largest alphabet of a random workload. */
+    private static final int MAX_ALPHABET = 89;
+
+    /** Most slots of a random workload. */
+    private static final int MAX_SLOTS = 6;
+
+    /** Bound on the characters of message after each settings line of a
+     *  random workload. */
+    private static final int MAX_MESSAGE = 6000;
+
+    /** Bound on the length of the message lines of a random workload. */
+    private static final int MAX_LINE = 200;
+
+    /** Lanes of the BatchMachines checked. */
+    private static final int LANES = 3;
+
+    /** Most differences printed. */
+    private static final int MAX_REPORTS = 20;
+
+    /** Number of random workloads. */
+    private final int _seeds;
+
+    /** Seed of the first of them. */
+    private final long _firstSeed;
+
+    /** Timed runs of each engine. */
+    private final int _rounds;
+
+    /** Largest drop in throughput allowed, in percent. */
+    private final double _tolerance;
+
+    /** The baseline file, or null. */
+    private final Path _baseline;
+
+    /** True iff the baseline is to be rewritten. */
+    private final boolean _updateBaseline;
+
+    /** Directory of the workload files. */
+    private final Path _dir;
+
+    /** Number of differences from the reference found. */
+    private int _divergences;
+
+    /** Number of message characters checked. */
+    private long _characters;
+
+    /** Engines found too slow. */
+    private final ArrayList<String> _slow = new ArrayList<>();
+}
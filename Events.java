@@ -0,0 +1,94 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** Java Flight Recorder events for the phases of a run.  They are
+ *  disabled unless a recording enables them, for instance with the
+ *  settings in enigma.jfc; while disabled, begin(), end() and commit()
+ *  do nothing, but each event is still an object allocated on the
+ *  heap unless the JIT compiler happens to eliminate it.  So the
+ *  events made once per message or settings line are only made when
+ *  recording() is true.
+ *  @author Lei Hao
+ */
+final class Events {
+
+    /** Not instantiable. */
+    private Events() {
+    }
+
+    /** Return true iff the flight recorder has been started in this
+     *  JVM, so that my events may be enabled.  This is far cheaper than
+     *  asking whether a particular event type is enabled, which starts
+     *  the flight recorder's machinery. */
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    /** Reading and parsing a configuration file. */
+    @Name("enigma.ConfigLoaded")
+    @Label("Configuration Loaded")
+    @Category("Enigma")
+    @Description("Parsing of a configuration file")
+    @Enabled(false)
+    @StackTrace(false)
+    static class ConfigLoaded extends Event {
+        /** Number of rotors in the configuration. */
+        @Label("Rotors")
+        int rotors;
+    }
+
+    /** Applying a settings line to a machine. */
+    @Name("enigma.SettingsApplied")
+    @Label("Settings Applied")
+    @Category("Enigma")
+    @Description("Parsing and applying a settings line")
+    @Enabled(false)
+    @StackTrace(false)
+    static class SettingsApplied extends Event {
+        /** The settings line. */
+        @Label("Settings")
+        String settings;
+
+        /** True iff the line was found in the settings cache. */
+        @Label("Cached")
+        boolean cached;
+    }
+
+    /** Converting one message. */
+    @Name("enigma.MessageConverted")
+    @Label("Message Converted")
+    @Category("Enigma")
+    @Description("Conversion of one message by Machine.convert")
+    @Enabled(false)
+    @StackTrace(false)
+    static class MessageConverted extends Event {
+        /** Length of the message. */
+        @Label("Characters")
+        int characters;
+
+        /** True iff a CompiledMachine converted the message. */
+        @Label("Compiled")
+        boolean compiled;
+    }
+
+    /** Formatting and printing one converted message. */
+    @Name("enigma.MessageFormatted")
+    @Label("Message Formatted")
+    @Category("Enigma")
+    @Description("Grouping a converted message and writing it out")
+    @Enabled(false)
+    @StackTrace(false)
+    static class MessageFormatted extends Event {
+        /** Length of the message. */
+        @Label("Characters")
+        int characters;
+    }
+}
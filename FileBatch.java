@@ -0,0 +1,315 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many input files with one configuration, so that a run
+ *  over many small files pays for starting the JVM and reading the
+ *  configuration once.  Each file is converted as Main would convert
+ *  it alone, by a machine of its own that shares the parsed rotors of
+ *  the configuration (see Machine.ownRotors).  Files are read and
+ *  written with asynchronous channels whose completions, and the
+ *  conversions, run on a pool of one thread per processor; a semaphore
+ *  bounds the number of files in flight, and so the memory holding
+ *  their contents.  A file that cannot be read, converted or written is
+ *  reported on the standard error, and the others go on.
+ *  @author Lei Hao
+ */
+class FileBatch {
+
+    /** A batch converting with machines configured like PROTOTYPE, whose
+     *  rotors are not changed, with at most JOBS files in flight. */
+    FileBatch(Machine prototype, int jobs) {
+        _prototype = prototype;
+        _jobs = jobs;
+    }
+
+    /** Return the input files named by SOURCE, in order of name: the
+     *  files in directory SOURCE, or those matching SOURCE as a glob
+     *  pattern, which may have wildcards only in its last component.
+     *  When OUTDIR is null, outputs go beside their inputs, and files
+     *  named as outputs are left out. */
+    static List<Path> inputs(String source, Path outDir) {
+        Path path = Path.of(source);
+        Path dir = path;
+        String glob = "*";
+        if (!Files.isDirectory(path)) {
+            dir = path.getParent() == null ? Path.of(".") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+        ArrayList<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files =
+                 Files.newDirectoryStream(dir, glob)) {
+            for (Path file : files) {
+                if (Files.isRegularFile(file)
+                    && (outDir != null
+                        || !file.toString().endsWith(OUTPUT_SUFFIX))) {
+                    result.add(file);
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not list %s", source);
+        }
+        if (result.isEmpty()) {
+            throw error("no input files in %s", source);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Return the output file for INPUT: its name with OUTPUT_SUFFIX
+     *  appended, in directory OUTDIR or, if that is null, beside it. */
+    static Path output(Path input, Path outDir) {
+        String name = input.getFileName() + OUTPUT_SUFFIX;
+        return outDir == null ? input.resolveSibling(name)
+            : outDir.resolve(name);
+    }
+
+    /** Convert each of INPUTS to its output (see output(), with OUTDIR),
+     *  reporting each that fails on the standard error.  Returns the
+     *  number that failed. */
+    int run(List<Path> inputs, Path outDir) {
+        if (outDir != null) {
+            try {
+                Files.createDirectories(outDir);
+            } catch (IOException excp) {
+                throw error("could not create %s", outDir);
+            }
+        }
+        int threads =
+            Math.min(_jobs, Runtime.getRuntime().availableProcessors());
+        _pool = Executors.newFixedThreadPool(threads);
+        _slots = new Semaphore(_jobs);
+        _done = new CountDownLatch(inputs.size());
+        try {
+            for (Path input : inputs) {
+                _slots.acquireUninterruptibly();
+                new FileTask(input, output(input, outDir)).start();
+            }
+            _done.await();
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } finally {
+            _pool.shutdown();
+        }
+        return _failures.get();
+    }
+
+    /** The reading, conversion and writing of one file.  Each step
+     *  starts the next from its completion handler, and every path ends
+     *  in finish(). */
+    private class FileTask {
+
+        /** A task converting file INPUT to file OUTPUT. */
+        FileTask(Path input, Path output) {
+            _input = input;
+            _output = output;
+        }
+
+        /** Start reading my input. */
+        void start() {
+            try {
+                _in = AsynchronousFileChannel.open(_input, READ, _pool);
+                long size = _in.size();
+                if (size > MAX_FILE_BYTES) {
+                    finish("file too large");
+                    return;
+                }
+                _buffer = ByteBuffer.allocate((int) size);
+                read();
+            } catch (IOException | RuntimeException excp) {
+                finish("could not open: " + message(excp));
+            }
+        }
+
+        /** Read the rest of my input into _buffer. */
+        private void read() {
+            _in.read(_buffer, _buffer.position(), null, _reading);
+        }
+
+        /** Write the rest of _buffer to my output. */
+        private void write() {
+            _out.write(_buffer, _buffer.position(), null, _writing);
+        }
+
+        /** Convert the contents of my input, in _buffer, and start
+         *  writing the result. */
+        private void convert() {
+            close(_in);
+            _in = null;
+            String text = new String(_buffer.array(), 0, _buffer.position(),
+                                     Charset.defaultCharset());
+            Machine m = new Machine(_prototype.alphabet(),
+                                    _prototype.numRotors(),
+                                    _prototype.numPawls(),
+                                    _prototype.allRotors());
+            m.ownRotors();
+            String result;
+            try {
+                result = Main.convertAll(m, text);
+            } catch (RuntimeException excp) {
+                finish(message(excp));
+                return;
+            }
+            _buffer = ByteBuffer.wrap(
+                result.getBytes(Charset.defaultCharset()));
+            try {
+                _out = AsynchronousFileChannel.open(_output, WRITE, _pool);
+            } catch (IOException excp) {
+                finish("could not open " + _output + ": "
+                       + excp.getMessage());
+                return;
+            }
+            write();
+        }
+
+        /** End this task, reporting ERROR unless it is null. */
+        private void finish(String error) {
+            close(_in);
+            close(_out);
+            if (error != null) {
+                if (_out != null) {
+                    _output.toFile().delete();
+                }
+                _failures.incrementAndGet();
+                System.err.printf("Error: %s: %s%n", _input, error);
+            }
+            _slots.release();
+            _done.countDown();
+        }
+
+        /** Completes reads of my input. */
+        private final CompletionHandler<Integer, Void> _reading =
+            new CompletionHandler<>() {
+                @Override
+                public void completed(Integer n, Void unused) {
+                    try {
+                        if (n >= 0 && _buffer.hasRemaining()) {
+                            read();
+                        } else {
+                            convert();
+                        }
+                    } catch (RuntimeException excp) {
+                        finish(message(excp));
+                    }
+                }
+
+                @Override
+                public void failed(Throwable excp, Void unused) {
+                    finish("could not read: " + message(excp));
+                }
+            };
+
+        /** Completes writes of my output. */
+        private final CompletionHandler<Integer, Void> _writing =
+            new CompletionHandler<>() {
+                @Override
+                public void completed(Integer n, Void unused) {
+                    try {
+                        if (_buffer.hasRemaining()) {
+                            write();
+                        } else {
+                            finish(null);
+                        }
+                    } catch (RuntimeException excp) {
+                        finish(message(excp));
+                    }
+                }
+
+                @Override
+                public void failed(Throwable excp, Void unused) {
+                    finish("could not write " + _output + ": "
+                           + message(excp));
+                }
+            };
+
+        /** The input file. */
+        private final Path _input;
+
+        /** The output file. */
+        private final Path _output;
+
+        /** The open input, or null. */
+        private AsynchronousFileChannel _in;
+
+        /** The open output, or null. */
+        private AsynchronousFileChannel _out;
+
+        /** The contents of the input while reading, then of the output
+         *  while writing. */
+        private ByteBuffer _buffer;
+    }
+
+    /** Close CHANNEL, if it is not null, ignoring errors. */
+    private static void close(AsynchronousFileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                /* Ignore. */
+            }
+        }
+    }
+
+    /** Return the message of EXCP, or its class if it has none. */
+    private static String message(Throwable excp) {
+        return excp.getMessage() != null ? excp.getMessage()
+            : excp.getClass().getSimpleName();
+    }
+
+    /** Default number of files in flight. */
+    static final int DEFAULT_JOBS =
+        2 * Runtime.getRuntime().availableProcessors();
+
+    /** Appended to the name of an input to name its output. */
+    static final String OUTPUT_SUFFIX = ".out";
+
+    /** Largest input file converted. */
+    static final long MAX_FILE_BYTES = Integer.MAX_VALUE - 8;
+
+    /** Options for opening inputs. */
+    private static final Set<StandardOpenOption> READ =
+        EnumSet.of(StandardOpenOption.READ);
+
+    /** Options for opening outputs. */
+    private static final Set<StandardOpenOption> WRITE =
+        EnumSet.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                   StandardOpenOption.TRUNCATE_EXISTING);
+
+    /** Configuration shared by the machines converting files. */
+    private final Machine _prototype;
+
+    /** Most files in flight. */
+    private final int _jobs;
+
+    /** Runs completion handlers and conversions. */
+    private ExecutorService _pool;
+
+    /** One permit for each file that may be started. */
+    private Semaphore _slots;
+
+    /** Counts down as files finish. */
+    private CountDownLatch _done;
+
+    /** Number of files that failed. */
+    private final AtomicInteger _failures = new AtomicInteger();
+}
@@ -12,5 +12,15 @@ class FixedRotor extends Rotor {
     FixedRotor(String name, Permutation perm) {
         super(name, perm);
     }
+
+    /** A fixed rotor like ORIGINAL, sharing its lookup tables. */
+    FixedRotor(FixedRotor original) {
+        super(original);
+    }
+
+    @Override
+    Rotor copy() {
+        return new FixedRotor(this);
+    }
     /** FIXME fixed */
 }
@@ -0,0 +1,195 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import static enigma.EnigmaException.*;
+
+/** Summarizes a flight recording of an enigma run made with the
+ *  settings in enigma.jfc: conversion throughput, bytes allocated per
+ *  converted character, and garbage collection pauses.
+ *  @author Lei Hao
+ */
+class JfrReport {
+
+    /** Print a summary of the recording named by ARGS[0] on the standard
+     *  output. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 1) {
+                throw error("Usage: java enigma.JfrReport RECORDING.jfr");
+            }
+            JfrReport report = new JfrReport();
+            report.read(Path.of(args[0]));
+            System.out.print(report.summary());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Add the events in the recording in file PATH to my totals. */
+    void read(Path path) {
+        List<RecordedEvent> events;
+        try {
+            events = RecordingFile.readAllEvents(path);
+        } catch (IOException excp) {
+            throw error("could not read recording %s: %s", path,
+                        excp.getMessage());
+        }
+        for (RecordedEvent event : events) {
+            add(event);
+        }
+    }
+
+    /** Add EVENT to my totals. */
+    void add(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+        case "enigma.ConfigLoaded":
+            _configTime = _configTime.plus(event.getDuration());
+            break;
+        case "enigma.SettingsApplied":
+            _settingsLines += 1;
+            _settingsTime = _settingsTime.plus(event.getDuration());
+            if (event.getBoolean("cached")) {
+                _cachedSettings += 1;
+            }
+            break;
+        case "enigma.MessageConverted":
+            _messages += 1;
+            _characters += event.getInt("characters");
+            _convertTime = _convertTime.plus(event.getDuration());
+            if (event.getBoolean("compiled")) {
+                _compiledMessages += 1;
+            }
+            break;
+        case "enigma.MessageFormatted":
+            _formatTime = _formatTime.plus(event.getDuration());
+            break;
+        case "jdk.GarbageCollection":
+            Duration pause = event.getDuration("sumOfPauses");
+            _gcs += 1;
+            _gcPause = _gcPause.plus(pause);
+            if (pause.compareTo(_gcMaxPause) > 0) {
+                _gcMaxPause = pause;
+            }
+            break;
+        case "jdk.ThreadAllocationStatistics":
+            RecordedThread thread = event.getThread("thread");
+            if (thread != null) {
+                _allocated.merge(thread.getJavaThreadId(),
+                                 event.getLong("allocated"), Math::max);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** Return the bytes allocated by all threads reported, each since it
+     *  started. */
+    long allocated() {
+        long result = 0;
+        for (long bytes : _allocated.values()) {
+            result += bytes;
+        }
+        return result;
+    }
+
+    /** Return my totals as lines of text. */
+    String summary() {
+        StringBuilder result = new StringBuilder();
+        double convertSeconds = seconds(_convertTime);
+        result.append(String.format("configuration   %10.3f ms%n",
+                                    millis(_configTime)));
+        result.append(String.format("settings lines  %10d (%d cached),"
+                                    + " %.3f ms%n", _settingsLines,
+                                    _cachedSettings,
+                                    millis(_settingsTime)));
+        result.append(String.format("messages        %10d (%d compiled)%n",
+                                    _messages, _compiledMessages));
+        result.append(String.format("characters      %10d in %.3f ms"
+                                    + " (%.1f ns/char, %.2f Mchar/s)%n",
+                                    _characters, millis(_convertTime),
+                                    _characters == 0 ? 0.0
+                                    : 1e9 * convertSeconds / _characters,
+                                    convertSeconds == 0 ? 0.0
+                                    : _characters / convertSeconds / 1e6));
+        result.append(String.format("formatting      %10.3f ms%n",
+                                    millis(_formatTime)));
+        if (_allocated.isEmpty()) {
+            result.append(String.format("allocation      no thread"
+                                        + " allocation statistics%n"));
+        } else {
+            long allocated = allocated();
+            result.append(String.format("allocation      %10d bytes"
+                                        + " (%.1f bytes/char)%n",
+                                        allocated, _characters == 0 ? 0.0
+                                        : (double) allocated / _characters));
+        }
+        result.append(String.format("GC pauses       %10d, %.3f ms total,"
+                                    + " %.3f ms max%n", _gcs,
+                                    millis(_gcPause),
+                                    millis(_gcMaxPause)));
+        return result.toString();
+    }
+
+    /** Return D in milliseconds. */
+    private static double millis(Duration d) {
+        return d.toNanos() / 1e6;
+    }
+
+    /** Return D in seconds. */
+    private static double seconds(Duration d) {
+        return d.toNanos() / 1e9;
+    }
+
+    /** Total time reading configurations. */
+    private Duration _configTime = Duration.ZERO;
+
+    /** Number of settings lines applied. */
+    private long _settingsLines;
+
+    /** Number of settings lines found in the settings cache. */
+    private long _cachedSettings;
+
+    /** Total time applying settings lines. */
+    private Duration _settingsTime = Duration.ZERO;
+
+    /** Number of messages converted. */
+    private long _messages;
+
+    /** Number of messages converted by a CompiledMachine. */
+    private long _compiledMessages;
+
+    /** Number of characters converted. */
+    private long _characters;
+
+    /** Total time converting messages. */
+    private Duration _convertTime = Duration.ZERO;
+
+    /** Total time formatting and writing messages. */
+    private Duration _formatTime = Duration.ZERO;
+
+    /** Number of garbage collections. */
+    private long _gcs;
+
+    /** Total time of garbage collection pauses. */
+    private Duration _gcPause = Duration.ZERO;
+
+    /** Longest garbage collection pause. */
+    private Duration _gcMaxPause = Duration.ZERO;
+
+    /** Bytes allocated by each thread since it started, by thread id, as
+     *  last reported.  The counts only grow, so the largest report is
+     *  the last. */
+    private final HashMap<Long, Long> _allocated = new HashMap<>();
+}
@@ -0,0 +1,129 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jdk.jfr.Recording;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the JfrReport class, which check its
+ *  summary of a recording of synthetic events.
+ *  @author Lei Hao
+ */
+public class JfrReportTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Commit a SettingsApplied event for SETTINGS, found in the settings
+     *  cache iff CACHED. */
+    private void settings(String settings, boolean cached) {
+        Events.SettingsApplied event = new Events.SettingsApplied();
+        event.begin();
+        event.settings = settings;
+        event.cached = cached;
+        event.commit();
+    }
+
+    /** Commit a MessageConverted event for a message of CHARACTERS
+     *  characters, converted by a CompiledMachine iff COMPILED, and a
+     *  MessageFormatted event for it. */
+    private void message(int characters, boolean compiled) {
+        Events.MessageConverted converted = new Events.MessageConverted();
+        converted.begin();
+        converted.characters = characters;
+        converted.compiled = compiled;
+        converted.commit();
+        Events.MessageFormatted formatted = new Events.MessageFormatted();
+        formatted.begin();
+        formatted.characters = characters;
+        formatted.commit();
+    }
+
+    /** Check that SUMMARY contains the line beginning LINE.  NAME
+     *  identifies the line. */
+    private void checkLine(String name, String summary, String line) {
+        assertTrue(msg(name, "no line %s in%n%s", line, summary),
+                   summary.contains(System.lineSeparator() + line)
+                   || summary.startsWith(line));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSummary() throws IOException {
+        Path file = Files.createTempFile("report", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("enigma.ConfigLoaded");
+            recording.enable("enigma.SettingsApplied");
+            recording.enable("enigma.MessageConverted");
+            recording.enable("enigma.MessageFormatted");
+            recording.start();
+            assertTrue("recording", Events.recording());
+            Events.ConfigLoaded config = new Events.ConfigLoaded();
+            config.begin();
+            config.rotors = 12;
+            config.commit();
+            settings("* B Beta III IV I AXLE", false);
+            message(100, false);
+            message(20, false);
+            settings("* B Beta I II III AAAA", false);
+            message(5000, true);
+            settings("* B Beta III IV I AXLE", true);
+            message(7, false);
+            recording.stop();
+            recording.dump(file);
+
+            JfrReport report = new JfrReport();
+            report.read(file);
+            String summary = report.summary();
+            checkLine("configuration", summary, "configuration   ");
+            checkLine("settings", summary,
+                      String.format("settings lines  %10d (1 cached),", 3));
+            checkLine("messages", summary,
+                      String.format("messages        %10d (1 compiled)", 4));
+            checkLine("characters", summary,
+                      String.format("characters      %10d in ", 5127));
+            checkLine("allocation", summary,
+                      "allocation      no thread allocation statistics");
+            checkLine("GC", summary,
+                      String.format("GC pauses       %10d, 0.000 ms total",
+                                    0));
+            assertEquals("allocated", 0, report.allocated());
+        } finally {
+            file.toFile().delete();
+        }
+    }
+
+    @Test
+    public void checkEmptyReport() {
+        String summary = new JfrReport().summary();
+        checkLine("settings", summary,
+                  String.format("settings lines  %10d (0 cached),", 0));
+        checkLine("characters", summary,
+                  String.format("characters      %10d in 0.000 ms"
+                                + " (0.0 ns/char, 0.00 Mchar/s)", 0));
+    }
+
+    @Test
+    public void checkMissingRecording() throws IOException {
+        Path file = Files.createTempFile("report", ".jfr");
+        file.toFile().delete();
+        try {
+            new JfrReport().read(file);
+            fail("missing recording");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
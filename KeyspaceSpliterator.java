@@ -0,0 +1,327 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.*;
+
+/** A Spliterator over the keyspace of a machine: every choice of
+ *  reflector, of non-moving rotors for the slots without pawls, of
+ *  moving rotors for the slots with pawls, of rotor settings and,
+ *  optionally, of ring settings.  Each candidate is numbered, with the
+ *  last ring setting varying fastest, and is delivered by configuring
+ *  this Spliterator's own Machine in place; apart from copying rotors
+ *  when the rotor order changes, advancing allocates nothing.  Splits
+ *  divide the range of candidate numbers, so parallel workers see
+ *  disjoint candidates.  The plugboard is always the identity.
+ *  @author Lei Hao
+ */
+class KeyspaceSpliterator implements Spliterator<Machine> {
+
+    /** A Spliterator over all candidates for machines with the alphabet,
+     *  slots, pawls and available rotors of PROTOTYPE.  Ring settings
+     *  are enumerated iff RINGS; otherwise they are all 0. */
+    KeyspaceSpliterator(Machine prototype, boolean rings) {
+        this(prototype, rings, 0, -1);
+    }
+
+    /** A Spliterator over candidates ORIGIN .. FENCE-1 for machines like
+     *  PROTOTYPE, enumerating ring settings iff RINGS.  A negative FENCE
+     *  stands for the size of the keyspace. */
+    KeyspaceSpliterator(Machine prototype, boolean rings,
+                        long origin, long fence) {
+        ArrayList<Rotor> reflectors = new ArrayList<>();
+        ArrayList<Rotor> fixed = new ArrayList<>();
+        ArrayList<Rotor> moving = new ArrayList<>();
+        for (Rotor r : prototype.allRotors()) {
+            if (r.reflecting()) {
+                reflectors.add(r);
+            } else if (r.rotates()) {
+                moving.add(r);
+            } else {
+                fixed.add(r);
+            }
+        }
+        _prototype = prototype;
+        _reflectors = reflectors.toArray(new Rotor[0]);
+        _fixed = fixed.toArray(new Rotor[0]);
+        _moving = moving.toArray(new Rotor[0]);
+        _rings = rings;
+        _identity = Permutation.of("", prototype.alphabet());
+
+        int slots = prototype.numRotors();
+        int pawls = prototype.numPawls();
+        int n = prototype.alphabet().size();
+        _firstMoving = slots - pawls;
+        _firstPosition = 3;
+        _firstRing = _firstPosition + slots - 1;
+        _radix = new long[rings ? _firstRing + slots - 1 : _firstRing];
+        _radix[0] = _reflectors.length;
+        _radix[1] = arrangements(_fixed.length, _firstMoving - 1);
+        _radix[2] = arrangements(_moving.length, pawls);
+        for (int i = _firstPosition; i < _radix.length; i += 1) {
+            _radix[i] = n;
+        }
+        if (_radix[0] == 0) {
+            throw error("no reflectors to enumerate");
+        }
+        if (_radix[1] == 0) {
+            throw error("fewer than %d non-moving rotors to enumerate",
+                        _firstMoving - 1);
+        }
+        if (_radix[2] == 0) {
+            throw error("fewer than %d moving rotors to enumerate", pawls);
+        }
+        long size = 1;
+        try {
+            for (long r : _radix) {
+                size = Math.multiplyExact(size, r);
+            }
+        } catch (ArithmeticException excp) {
+            throw error("keyspace too large to enumerate");
+        }
+        _size = size;
+        _digits = new long[_radix.length];
+        _delivered = new long[_radix.length];
+        _taken = new boolean[Math.max(_fixed.length, _moving.length)];
+        init(origin, fence < 0 ? size : fence);
+    }
+
+    /** A Spliterator sharing the rotor lists and radices of ORIGINAL,
+     *  over candidates ORIGIN .. FENCE-1. */
+    private KeyspaceSpliterator(KeyspaceSpliterator original,
+                                long origin, long fence) {
+        _prototype = original._prototype;
+        _reflectors = original._reflectors;
+        _fixed = original._fixed;
+        _moving = original._moving;
+        _rings = original._rings;
+        _identity = original._identity;
+        _firstMoving = original._firstMoving;
+        _firstPosition = original._firstPosition;
+        _firstRing = original._firstRing;
+        _radix = original._radix;
+        _size = original._size;
+        _digits = new long[_radix.length];
+        _delivered = new long[_radix.length];
+        _taken = new boolean[original._taken.length];
+        init(origin, fence);
+    }
+
+    /** Set up my own machine to enumerate candidates ORIGIN .. FENCE-1. */
+    private void init(long origin, long fence) {
+        _machine = new Machine(_prototype.alphabet(),
+                               _prototype.numRotors(),
+                               _prototype.numPawls(),
+                               _prototype.allRotors());
+        _machine.setPlugboard(_identity);
+        _placed = new long[] { -1, -1, -1 };
+        _index = origin;
+        _fence = Math.min(fence, _size);
+        long rest = origin;
+        for (int i = _digits.length - 1; i >= 0; i -= 1) {
+            _digits[i] = rest % _radix[i];
+            rest /= _radix[i];
+        }
+    }
+
+    /** Return the number of ways to arrange K of N distinct rotors. */
+    private static long arrangements(int n, int k) {
+        long result = 1;
+        for (int i = 0; i < k; i += 1) {
+            result *= n - i;
+        }
+        return result;
+    }
+
+    /** Return the total number of candidates in my keyspace. */
+    long keyspaceSize() {
+        return _size;
+    }
+
+    /** Return the number of the candidate most recently delivered. */
+    long index() {
+        return _index - 1;
+    }
+
+    /** Return the settings line for the candidate most recently
+     *  delivered, with its ring settings (all 0 unless I enumerate them),
+     *  so that Main reproduces it whatever rings earlier lines set. */
+    String settings() {
+        Alphabet alpha = _prototype.alphabet();
+        StringBuilder result = new StringBuilder("*");
+        for (Rotor r : _machine.usedRotors()) {
+            result.append(' ').append(r.name());
+        }
+        result.append(' ');
+        for (int i = 1; i < _machine.numRotors(); i += 1) {
+            result.append(alpha.toChar(settingOf(i)));
+        }
+        result.append(' ');
+        for (int i = 1; i < _machine.numRotors(); i += 1) {
+            result.append(alpha.toChar(_rings ? ringOf(i) : 0));
+        }
+        return result.toString();
+    }
+
+    /** Return the initial setting of slot K in the candidate most recently
+     *  delivered. */
+    private int settingOf(int k) {
+        return (int) _delivered[_firstPosition + k - 1];
+    }
+
+    /** Return the ring setting of slot K in the candidate most recently
+     *  delivered. */
+    private int ringOf(int k) {
+        return (int) _delivered[_firstRing + k - 1];
+    }
+
+    /** Configure _machine for the candidate given by _digits. */
+    private void configure() {
+        if (_placed[0] != _digits[0]) {
+            _machine.placeRotor(0, _reflectors[(int) _digits[0]].copy());
+            _placed[0] = _digits[0];
+        }
+        if (_placed[1] != _digits[1]) {
+            place(_fixed, _digits[1], 1, _firstMoving);
+            _placed[1] = _digits[1];
+        }
+        if (_placed[2] != _digits[2]) {
+            place(_moving, _digits[2], _firstMoving,
+                  _prototype.numRotors());
+            _placed[2] = _digits[2];
+        }
+        for (int k = 1; k < _prototype.numRotors(); k += 1) {
+            int ring = _rings ? (int) _digits[_firstRing + k - 1] : 0;
+            _machine.setSlot(k, (int) _digits[_firstPosition + k - 1],
+                             ring);
+        }
+    }
+
+    /** Fill slots FROM .. TO-1 with copies of the arrangement of ROTORS
+     *  numbered ARRANGEMENT. */
+    private void place(Rotor[] rotors, long arrangement, int from, int to) {
+        Arrays.fill(_taken, false);
+        long rest = arrangement;
+        for (int k = from; k < to; k += 1) {
+            long below = arrangements(rotors.length - (k - from) - 1,
+                                      to - k - 1);
+            long choice = rest / below;
+            rest %= below;
+            int j = -1;
+            while (choice >= 0) {
+                j += 1;
+                if (!_taken[j]) {
+                    choice -= 1;
+                }
+            }
+            _taken[j] = true;
+            _machine.placeRotor(k, rotors[j].copy());
+        }
+    }
+
+    /** Move _digits to the next candidate. */
+    private void increment() {
+        for (int i = _digits.length - 1; i >= 0; i -= 1) {
+            _digits[i] += 1;
+            if (_digits[i] < _radix[i]) {
+                return;
+            }
+            _digits[i] = 0;
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Machine> action) {
+        if (_index >= _fence) {
+            return false;
+        }
+        configure();
+        System.arraycopy(_digits, 0, _delivered, 0, _digits.length);
+        _index += 1;
+        increment();
+        action.accept(_machine);
+        return true;
+    }
+
+    @Override
+    public Spliterator<Machine> trySplit() {
+        long mid = _index + (_fence - _index) / 2;
+        if (mid <= _index) {
+            return null;
+        }
+        KeyspaceSpliterator prefix =
+            new KeyspaceSpliterator(this, _index, mid);
+        init(mid, _fence);
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _fence - _index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+
+    /** The machine describing my keyspace. */
+    private final Machine _prototype;
+
+    /** Available reflectors. */
+    private final Rotor[] _reflectors;
+
+    /** Available rotors that neither move nor reflect. */
+    private final Rotor[] _fixed;
+
+    /** Available moving rotors. */
+    private final Rotor[] _moving;
+
+    /** True iff ring settings are enumerated. */
+    private final boolean _rings;
+
+    /** Plugboard of the machines I configure. */
+    private final Permutation _identity;
+
+    /** Leftmost slot with a pawl. */
+    private final int _firstMoving;
+
+    /** Index in _digits of the setting of slot 1. */
+    private final int _firstPosition;
+
+    /** Index in _digits of the ring setting of slot 1. */
+    private final int _firstRing;
+
+    /** Number of values of each digit of a candidate number: reflector,
+     *  arrangement of non-moving rotors, arrangement of moving rotors,
+     *  then settings and ring settings of slots 1 and up. */
+    private final long[] _radix;
+
+    /** Number of candidates in the whole keyspace. */
+    private final long _size;
+
+    /** Digits of the next candidate. */
+    private final long[] _digits;
+
+    /** Scratch space for decoding arrangements. */
+    private final boolean[] _taken;
+
+    /** The machine I configure. */
+    private Machine _machine;
+
+    /** The digits most recently placed in _machine for the reflector and
+     *  the two rotor arrangements. */
+    private long[] _placed;
+
+    /** Digits of the candidate most recently delivered. */
+    private final long[] _delivered;
+
+    /** Number of the next candidate. */
+    private long _index;
+
+    /** One past the number of my last candidate. */
+    private long _fence;
+}
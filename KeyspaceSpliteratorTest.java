@@ -0,0 +1,152 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Spliterator;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeyspaceSpliterator class.
+ *  @author Lei Hao
+ */
+public class KeyspaceSpliteratorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A four-letter alphabet. */
+    private static final Alphabet ABCD = new Alphabet("ABCD");
+
+    /** Return a machine over ABCD with 4 slots and 2 pawls, no rotors
+     *  inserted, and two reflectors, two non-moving rotors and three
+     *  moving rotors available. */
+    private Machine prototype() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R1", new Permutation("(AB) (CD)", ABCD)));
+        rotors.add(new Reflector("R2", new Permutation("(AC) (BD)", ABCD)));
+        rotors.add(new FixedRotor("F1", new Permutation("(ABDC)", ABCD)));
+        rotors.add(new FixedRotor("F2", new Permutation("(AD) (BC)", ABCD)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ACBD)", ABCD),
+                                   "B"));
+        rotors.add(new MovingRotor("M2", new Permutation("(ABC)", ABCD),
+                                   "CD"));
+        rotors.add(new MovingRotor("M3", new Permutation("(AD) (B)", ABCD),
+                                   "A"));
+        return new Machine(ABCD, 4, 2, rotors);
+    }
+
+    /** Return the number of candidates delivered by KEYS, after checking
+     *  that each is numbered in turn from FIRST and adding each number
+     *  to SEEN, which must not already contain it. */
+    private long drain(KeyspaceSpliterator keys, long first,
+                       HashSet<Long> seen) {
+        long[] count = { 0 };
+        while (keys.tryAdvance(m -> count[0] += 1)) {
+            assertEquals("numbered in turn", first + count[0] - 1,
+                         keys.index());
+            assertTrue(msg("split", "candidate %d twice", keys.index()),
+                       seen.add(keys.index()));
+        }
+        return count[0];
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSize() {
+        assertEquals("without rings", 2L * 2 * 6 * 64,
+                     new KeyspaceSpliterator(prototype(), false)
+                     .keyspaceSize());
+        assertEquals("with rings", 2L * 2 * 6 * 64 * 64,
+                     new KeyspaceSpliterator(prototype(), true)
+                     .keyspaceSize());
+    }
+
+    @Test
+    public void checkArrangements() {
+        KeyspaceSpliterator keys = new KeyspaceSpliterator(prototype(),
+                                                           false);
+        HashSet<String> orders = new HashSet<>();
+        HashSet<String> settings = new HashSet<>();
+        while (keys.tryAdvance(m -> {
+            StringBuilder order = new StringBuilder();
+            HashSet<String> names = new HashSet<>();
+            for (Rotor r : m.usedRotors()) {
+                order.append(r.name()).append(' ');
+                names.add(r.name());
+            }
+            assertEquals("distinct rotors", 4, names.size());
+            assertTrue("reflector first", m.usedRotors().get(0).reflecting());
+            assertFalse("fixed second", m.usedRotors().get(1).rotates());
+            orders.add(order.toString());
+        })) {
+            assertTrue(msg("arrangements", "%s twice", keys.settings()),
+                       settings.add(keys.settings()));
+        }
+        assertEquals("rotor orders", 2 * 2 * 6, orders.size());
+        assertEquals("candidates", keys.keyspaceSize(), settings.size());
+    }
+
+    @Test
+    public void checkSplitsDisjoint() {
+        KeyspaceSpliterator all = new KeyspaceSpliterator(prototype(), true);
+        long size = all.keyspaceSize();
+        ArrayDeque<KeyspaceSpliterator> parts = new ArrayDeque<>();
+        ArrayList<KeyspaceSpliterator> leaves = new ArrayList<>();
+        parts.add(all);
+        while (!parts.isEmpty()) {
+            KeyspaceSpliterator part = parts.pop();
+            if (part.estimateSize() > size / 13) {
+                Spliterator<Machine> prefix = part.trySplit();
+                if (prefix != null) {
+                    parts.push((KeyspaceSpliterator) prefix);
+                }
+                parts.push(part);
+            } else {
+                leaves.add(part);
+            }
+        }
+        HashSet<Long> seen = new HashSet<>();
+        long total = 0;
+        for (KeyspaceSpliterator leaf : leaves) {
+            long first = leaf.index() + 1;
+            total += drain(leaf, first, seen);
+        }
+        assertTrue("several parts", leaves.size() > 8);
+        assertEquals("every candidate", size, total);
+        assertEquals("no gaps", size, seen.size());
+    }
+
+    @Test
+    public void checkSettingsRoundTrip() {
+        String text = "ABCDDCBAABCDDCBAACAC";
+        Machine main = prototype();
+        for (boolean rings : new boolean[] { false, true }) {
+            KeyspaceSpliterator keys =
+                new KeyspaceSpliterator(prototype(), rings);
+            int stride = rings ? 37 : 1;
+            long[] checked = { 0 };
+            while (keys.tryAdvance(m -> {
+                if (keys.index() % stride != 0) {
+                    return;
+                }
+                Main.applySettings(main, keys.settings());
+                assertEquals(msg("round trip", "%s", keys.settings()),
+                             m.copy().convert(text), main.convert(text));
+                checked[0] += 1;
+            })) {
+                continue;
+            }
+            assertTrue("checked many", checked[0] > 1000);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static enigma.EnigmaException.*;
+
+/** A directory of precomputed keystreams, shared between processes.
+ *  Each entry holds, for one configuration file and machine state (the
+ *  rotors, their ring settings and positions, and the plugboard), the
+ *  substitution (plugboard included) performed at each of the first
+ *  positions() keystrokes from that state.  Entries are keyed by the
+ *  state rather than by the settings line that produced it, because a
+ *  line that leaves ring settings alone keeps those of an earlier
+ *  line.  Entries are written
+ *  once to a temporary file, renamed into place, and then mapped
+ *  read-only by every process that needs them.
+ *  @author Lei Hao
+ */
+class KeystreamCache {
+
+    /** A cache kept in directory DIR, which is created if needed.
+     *  Stale entries are removed. */
+    KeystreamCache(File dir) {
+        _dir = dir.toPath();
+        try {
+            Files.createDirectories(_dir);
+        } catch (IOException excp) {
+            throw error("could not create cache directory %s", dir);
+        }
+        cleanUp();
+    }
+
+    /** Return the keystream of machine M, described by configuration
+     *  text CONFIG, from its present state, in which it is left. */
+    CachedKeystream open(byte[] config, Machine M) {
+        int n = M.alphabet().size();
+        int positions = positions(M);
+        Path entry = _dir.resolve(key(config, M) + SUFFIX);
+        MappedByteBuffer data = map(entry, n, positions);
+        if (data == null) {
+            write(entry, M, positions);
+            data = map(entry, n, positions);
+            if (data == null) {
+                throw error("could not cache keystream in %s", entry);
+            }
+        } else {
+            entry.toFile().setLastModified(System.currentTimeMillis());
+        }
+        data.position(HEADER_BYTES);
+        return new CachedKeystream(M, data.slice().asCharBuffer(),
+                                   positions);
+    }
+
+    /** Return the number of positions to precompute for M: one for each
+     *  combination of its moving rotors, within MAX_ENTRY_BYTES. */
+    private int positions(Machine M) {
+        int n = M.alphabet().size();
+        long limit = (MAX_ENTRY_BYTES - HEADER_BYTES) / (2L * n);
+        long reach = 1;
+        for (int i = 0; i < M.numPawls() && reach < limit; i += 1) {
+            reach *= n;
+        }
+        return (int) Math.min(reach, limit);
+    }
+
+    /** Return the contents of ENTRY mapped read-only, provided that it
+     *  exists and holds POSITIONS substitutions over an alphabet of size
+     *  N.  Otherwise return null. */
+    private MappedByteBuffer map(Path entry, int n, int positions) {
+        long size = HEADER_BYTES + 2L * n * positions;
+        try (FileChannel channel = FileChannel.open(entry,
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() != size) {
+                return null;
+            }
+            MappedByteBuffer data =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (data.getInt(0) != MAGIC || data.getInt(4) != n
+                || data.getInt(8) != positions) {
+                return null;
+            }
+            return data;
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /** Compute POSITIONS substitutions of M, starting from its current
+     *  state, and store them in ENTRY.  M is restored afterwards. */
+    private void write(Path entry, Machine M, int positions) {
+        int n = M.alphabet().size();
+        long size = HEADER_BYTES + 2L * n * positions;
+        int[] start = M.positions();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(_dir, "keystream", TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp,
+                     StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer data =
+                    channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                data.putInt(MAGIC).putInt(n).putInt(positions);
+                CharBuffer table = data.asCharBuffer();
+                for (int p = 0; p < positions; p += 1) {
+                    M.doubleStepping();
+                    for (int c = 0; c < n; c += 1) {
+                        table.put((char) M.translate(c));
+                    }
+                }
+                data.force();
+            }
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write keystream cache entry %s", entry);
+        } finally {
+            M.setPositions(start);
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    /** Remove entries not used within MAX_AGE_MILLIS, abandoned
+     *  temporary files, and then the least recently used entries until
+     *  the directory holds at most MAX_TOTAL_BYTES. */
+    private void cleanUp() {
+        File[] files = _dir.toFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long total = 0;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified)
+                    .reversed());
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                if (now - f.lastModified() > MAX_TEMP_AGE_MILLIS) {
+                    f.delete();
+                }
+            } else if (name.endsWith(SUFFIX)) {
+                if (now - f.lastModified() > MAX_AGE_MILLIS
+                    || total + f.length() > MAX_TOTAL_BYTES) {
+                    f.delete();
+                } else {
+                    total += f.length();
+                }
+            }
+        }
+    }
+
+    /** Return the hexadecimal SHA-256 digest of CONFIG and the settings
+     *  line SETTINGS with its whitespace normalized. */
+    static String key(byte[] config, String settings) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(config);
+            digest.update((byte) 0);
+            digest.update(settings.trim().replaceAll("\\s+", " ")
+                          .getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            for (byte b : digest.digest()) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw error("no SHA-256 digest available");
+        }
+    }
+
+    /** Return the hexadecimal SHA-256 digest of CONFIG and the present
+     *  state of M: the name, ring setting and position of each of its
+     *  rotors, and its plugboard. */
+    static String key(byte[] config, Machine M) {
+        StringBuilder state = new StringBuilder("state");
+        for (Rotor r : M.usedRotors()) {
+            state.append(' ').append(r.name()).append(':')
+                .append(r.ringSetting()).append(':').append(r.setting());
+        }
+        state.append(" plugboard");
+        for (int c = 0; c < M.alphabet().size(); c += 1) {
+            state.append(' ').append(M.plugboard().permute(c));
+        }
+        return key(config, state.toString());
+    }
+
+    /** Marks the start of a cache entry. */
+    static final int MAGIC = 0x454e4b53;
+
+    /** Size of the entry header: magic, alphabet size, positions. */
+    static final int HEADER_BYTES = 12;
+
+    /** Largest size of a single entry. */
+    static final long MAX_ENTRY_BYTES = 64L << 20;
+
+    /** Largest total size of the cache directory. */
+    static final long MAX_TOTAL_BYTES = 1L << 30;
+
+    /** Entries unused for longer than this are stale. */
+    static final long MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    /** Temporary files older than this were abandoned by their writer. */
+    static final long MAX_TEMP_AGE_MILLIS = 60L * 60 * 1000;
+
+    /** Suffix of entry files. */
+    static final String SUFFIX = ".ks";
+
+    /** Suffix of entries being written. */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /** The cache directory. */
+    private final Path _dir;
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeystreamCache class.
+ *  @author Lei Hao
+ */
+public class KeystreamCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the naval machine B Beta III IV I at AXLE with ring
+     *  settings RINGS and plugboard (AB). */
+    private Machine machine(String rings) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[] moving = { "III", "V", "IV", "J", "I", "Q" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        Machine m = new Machine(UPPER, 5, 3, rotors);
+        m.insertRotors(new String[] { "B", "Beta", "III", "IV", "I" });
+        m.setRotors("AXLE");
+        m.setRings(rings);
+        m.setPlugboard(new Permutation("(AB)", UPPER));
+        return m;
+    }
+
+    /** Remove directory DIR and the files in it. */
+    private void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRingsInKey() throws IOException {
+        File dir = Files.createTempDirectory("keystreams").toFile();
+        try {
+            KeystreamCache cache = new KeystreamCache(dir);
+            byte[] config = "config".getBytes();
+            String text = "HELLOWORLD";
+            for (String rings : new String[] { "BCDE", "AAAA", "BCDE" }) {
+                String want = machine(rings).convert(text);
+                Machine m = machine(rings);
+                assertEquals(msg("cache", "rings %s", rings), want,
+                             cache.open(config, m).convert(text));
+            }
+            assertEquals("two entries", 2,
+                         dir.listFiles((d, name) ->
+                                       name.endsWith(KeystreamCache.SUFFIX))
+                         .length);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkKeyFollowsState() {
+        byte[] config = "config".getBytes();
+        String key = KeystreamCache.key(config, machine("AAAA"));
+        assertEquals("same state", key,
+                     KeystreamCache.key(config, machine("AAAA")));
+        Machine m = machine("AAAA");
+        m.setRings("AAAB");
+        assertFalse("rings", key.equals(KeystreamCache.key(config, m)));
+        m = machine("AAAA");
+        m.setRotors("AXLF");
+        assertFalse("positions", key.equals(KeystreamCache.key(config, m)));
+        m = machine("AAAA");
+        m.setPlugboard(new Permutation("(AC)", UPPER));
+        assertFalse("plugboard", key.equals(KeystreamCache.key(config, m)));
+        assertFalse("configuration",
+                    key.equals(KeystreamCache.key("other".getBytes(),
+                                                  machine("AAAA"))));
+    }
+}
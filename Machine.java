@@ -2,10 +2,10 @@ package enigma;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.HashSet;
-import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import static enigma.EnigmaException.*;
 
@@ -34,6 +34,7 @@ class Machine {
                     + "Must between 0 and " + _numRotors);
         }
         _allRotors = allRotors;
+        _inner = new int[alpha.size()];
     }
 
     /** Return the number of rotor slots I have. */
@@ -46,13 +47,35 @@ class Machine {
         return _pawls;
     }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the rotors available to me. */
+    Collection<Rotor> allRotors() {
+        return _allRotors;
+    }
+
     /** Return the number of rotors we use. */
     ArrayList<Rotor> usedRotors() {
         return _usedRotors;
     }
 
+    /** Return the number of bytes used by the lookup tables of the
+     *  rotors in my slots. */
+    long tableBytes() {
+        long total = 0;
+        for (Rotor r : _usedRotors) {
+            total += r.tableBytes();
+        }
+        return total;
+    }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
-     *  available rotors (ROTORS[0] names the reflector).
+     *  available rotors (ROTORS[0] names the reflector).  It is an error
+     *  for more than one available rotor to have one of those names,
+     *  since which to use would be ambiguous.
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
         if (rotors == null) {
@@ -73,22 +96,74 @@ class Machine {
 //            }
 //        }
 
-        // nest loop way to add it to the _usedRotors.
+        _tierChecked = false;
+        _historySize = 0;
+        _innerStale = true;
         _usedRotors = new ArrayList<>();
+        // a catalogue looks up each name, keeping the rotors it makes.
+        if (_allRotors instanceof RotorCatalogue) {
+            RotorCatalogue catalogue = (RotorCatalogue) _allRotors;
+            for (String s : rotors) {
+                int i = catalogue.indexOf(s);
+                if (i >= 0 && catalogue.nextNamed(i) >= 0) {
+                    throw error("more than one rotor named %s", s);
+                }
+                if (i >= 0) {
+                    _usedRotors.add(own(catalogue.get(i)));
+                }
+            }
+            return;
+        }
+
+        // nest loop way to add it to the _usedRotors.
         for (String s : rotors) {
+            Rotor found = null;
             for (Rotor r : _allRotors) {
                 if (r.name().equals(s)) {
-                    _usedRotors.add(r);
+                    if (found != null) {
+                        throw error("more than one rotor named %s", s);
+                    }
+                    found = r;
                 }
             }
+            if (found != null) {
+                _usedRotors.add(own(found));
+            }
         }
     }
 
+    /** From now on, insert copies of my available rotors, made the
+     *  first time each is inserted and reused afterward, rather than
+     *  the rotors themselves.  Machines sharing one collection of rotors
+     *  may then be used on different threads. */
+    void ownRotors() {
+        if (_own == null) {
+            _own = new IdentityHashMap<>();
+        }
+    }
+
+    /** Return the rotor to insert for available rotor R: R itself, or
+     *  my copy of it after ownRotors(). */
+    private Rotor own(Rotor r) {
+        return _own == null ? r : _own.computeIfAbsent(r, Rotor::copy);
+    }
+
+    /** Set my rotor slots to ROTORS, as chosen by a previous call of
+     *  insertRotors(String[]).  Their settings are left alone. */
+    void insertRotors(List<Rotor> rotors) {
+        _tierChecked = false;
+        _historySize = 0;
+        _innerStale = true;
+        _usedRotors = new ArrayList<>(rotors);
+    }
+
     /** Set my rotors according to SETTING, which must be a string of
      *  numRotors()-1 characters in my alphabet. The first letter refers
      *  to the leftmost rotor setting (not counting the reflector).
      *  n index rotor's set()  {setting = "1346"} */
     void setRotors(String setting) {
+        _historySize = 0;
+        _innerStale = true;
         if (setting.length() != numRotors() - 1) {
             throw new EnigmaException("Not enough setting for rotors.");
         } else {
@@ -104,15 +179,48 @@ class Machine {
         }
     }
 
-    /** Set the plugboard to PLUGBOARD. */
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
+    /** Put ROTOR in slot K (0 for the reflector), without checking it
+     *  against my available rotors.  Slots must be filled from left to
+     *  right the first time. */
+    void placeRotor(int k, Rotor rotor) {
+        _tierChecked = false;
+        _historySize = 0;
+        _innerStale = true;
+        if (k == _usedRotors.size()) {
+            _usedRotors.add(rotor);
+        } else {
+            _usedRotors.set(k, rotor);
+        }
+    }
+
+    /** Set the rotor in slot K to setting POSN and ring setting RING,
+     *  without validation. */
+    void setSlot(int k, int posn, int ring) {
+        _historySize = 0;
+        _innerStale = true;
+        Rotor rotor = _usedRotors.get(k);
+        rotor.setRing(ring);
+        rotor.set(posn);
+    }
+
+    /** Set the plugboard to PLUGBOARD, or rather to the canonical
+     *  permutation equal to it. */
     void setPlugboard(Permutation plugboard) {
-        _plugboard = plugboard;
+        _tierChecked = false;
+        _plugboard = plugboard.intern();
     }
 
 
     /** Set the ring to used rotors.
      *  @param ringSeting = 'c' */
     void setRings(String ringSeting) {
+        _historySize = 0;
+        _innerStale = true;
         for (int i = 1; i < _usedRotors.size(); i++) {
             _usedRotors.get(i).setRing(ringSeting.charAt(i - 1));
         }
@@ -124,59 +232,377 @@ class Machine {
      *  iterate all the rotor, return the result. */
     int convert(int c) {
         doubleStepping();
-        int out = _plugboard.permute(c);
-        for (int i = _numRotors - 1; i >= 0; i--) {
-            out = _usedRotors.get(i).convertForward(out);
-        }
-        for (int i = 1; i < _usedRotors.size(); i++) {
-            out = _usedRotors.get(i).convertBackward(out);
+        return translate(c);
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1) at the current rotor
+     *  positions, without advancing the machine.  The signal passes
+     *  through the fastest rotor, my inner stack (see composeInner) and
+     *  the fastest rotor again. */
+    int translate(int c) {
+        if (_innerStale) {
+            composeInner();
         }
+        Rotor fast = _usedRotors.get(_numRotors - 1);
+        int out = _plugboard.permute(c);
+        out = fast.convertBackward(_inner[fast.convertForward(out)]);
         out = _plugboard.permute(out);
         return out;
     }
 
-    /** double stepping. */
+    /** Set _inner to the composition of my rotors other than the
+     *  fastest at their present settings: forward from the second
+     *  fastest through the reflector, and back.  It stays valid until
+     *  one of those rotors moves, which happens at most once in
+     *  alphabet-size steps, so translating a character costs three
+     *  lookups however many rotors I have, and needs no table larger
+     *  than the alphabet. */
+    private void composeInner() {
+        for (int c = 0; c < _inner.length; c += 1) {
+            int out = c;
+            for (int i = _numRotors - 2; i >= 0; i -= 1) {
+                out = _usedRotors.get(i).convertForward(out);
+            }
+            for (int i = 1; i < _numRotors - 1; i += 1) {
+                out = _usedRotors.get(i).convertBackward(out);
+            }
+            _inner[c] = out;
+        }
+        _innerStale = false;
+    }
+
+    /** Return the current settings of the rotors in my slots, starting
+     *  with the reflector. */
+    int[] positions() {
+        int[] result = new int[_usedRotors.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _usedRotors.get(i).setting();
+        }
+        return result;
+    }
+
+    /** Restore the settings of the rotors in my slots to POSITIONS, as
+     *  returned by positions(). */
+    void setPositions(int[] positions) {
+        _historySize = 0;
+        _innerStale = true;
+        for (int i = 1; i < positions.length; i += 1) {
+            _usedRotors.get(i).set(positions[i]);
+        }
+    }
+
+    /** double stepping: advance the fastest rotor, every rotor whose
+     *  right neighbour is at a notch, and every rotor at a notch whose
+     *  left neighbour rotates.  Notches are read before any rotor moves;
+     *  working from left to right, each is read before its rotor can
+     *  have moved. */
     void doubleStepping() {
-        Map<Integer, Boolean> rotate = new HashMap<Integer, Boolean>();
-        int rotateIndex = 0;
-        for (int i = numRotors() - 1; i > numRotors() - 1 - _pawls; i--) {
-            if (i == _usedRotors.size() - 1) {
-                rotate.put(rotateIndex, true);
-            } else if (_usedRotors.get(i).rotates()
-                    && _usedRotors.get(i + 1).atNotch()) {
-                rotate.put(rotateIndex, true);
-                rotate.put(rotateIndex - 1, true);
+        pushStep(step());
+    }
+
+    /** Advance me N steps, as if converting N characters, but without
+     *  converting any.  The steps are not remembered for stepBack().
+     *  Between the steps that move a rotor other than the fastest, the
+     *  fastest is moved straight to its next notch, so that skipping
+     *  takes time in proportion to the number of those steps (about N
+     *  divided by the alphabet size) rather than to N. */
+    void skip(long n) {
+        _historySize = 0;
+        _innerStale = true;
+        if (_pawls == 0) {
+            return;
+        }
+        int last = _numRotors - 1;
+        int size = _alphabet.size();
+        Rotor fast = _usedRotors.get(last);
+        boolean carries = _pawls > 1 && _usedRotors.get(last - 1).rotates();
+        int[] toNotch = carries ? stepsToNotch(fast) : null;
+        while (n > 0) {
+            if (!fast.rotates()) {
+                if (!slowEngaged()) {
+                    return;
+                }
+            } else if (!slowEngaged()) {
+                long jump = n;
+                if (carries && toNotch[fast.setting()] >= 0) {
+                    jump = Math.min(n, toNotch[fast.setting()]);
+                }
+                fast.set((int) ((fast.setting() + jump % size) % size));
+                n -= jump;
+                if (n == 0) {
+                    return;
+                }
+            }
+            step();
+            n -= 1;
+        }
+    }
+
+    /** Return, for each setting of ROTOR, the number of steps until it
+     *  is next at a notch (0 if it is at one then), or -1 if it has no
+     *  notches. */
+    private static int[] stepsToNotch(Rotor rotor) {
+        int size = rotor.size();
+        int[] result = new int[size];
+        int next = -1;
+        for (int k = 2 * size - 1; k >= 0; k -= 1) {
+            if (rotor.notchAt(k % size)) {
+                next = k;
+            }
+            if (k < size) {
+                result[k] = next < 0 ? -1 : next - k;
             }
-            rotateIndex += 1;
         }
-        int rotorIndex = numRotors() - 1;
-        for (int i = 0; i < rotate.size(); i++) {
-            if (rotate.get(i)) {
-                _usedRotors.get(rotorIndex).advance();
+        return result;
+    }
+
+    /** Return true iff my next step would move a rotor other than the
+     *  fastest whatever the fastest's setting: that is, iff a rotor
+     *  with a pawl, other than the two fastest, rotates and has its
+     *  right neighbour at a notch. */
+    private boolean slowEngaged() {
+        for (int k = _numRotors - _pawls; k < _numRotors - 2; k += 1) {
+            if (_usedRotors.get(k).rotates()
+                && _usedRotors.get(k + 1).atNotch()) {
+                return true;
             }
-            rotorIndex -= 1;
         }
+        return false;
+    }
+
+    /** Return a new machine in my present state, with copies of my
+     *  rotors, that can be stepped independently of me. */
+    Machine copy() {
+        Machine result = new Machine(_alphabet, _numRotors, _pawls,
+                                     _allRotors);
+        for (Rotor r : _usedRotors) {
+            result._usedRotors.add(r.copy());
+        }
+        result._plugboard = _plugboard;
+        return result;
+    }
+
+    /** Advance my rotors one step, as for doubleStepping(), and return
+     *  the slots advanced, as bits. */
+    private long step() {
+        int last = _numRotors - 1;
+        long advanced = 0;
+        boolean pushed = false;
+        for (int k = _numRotors - _pawls; k <= last; k += 1) {
+            Rotor r = _usedRotors.get(k);
+            boolean engaged = k < last && r.rotates()
+                && _usedRotors.get(k + 1).atNotch();
+            if (k == last || engaged || pushed) {
+                r.advance();
+                advanced |= 1L << k;
+            }
+            pushed = engaged;
+        }
+        return advanced;
+    }
+
+    /** Remember my steps for stepBack() from now on iff ON.  Machines
+     *  start out not remembering them; turning this off forgets the
+     *  steps remembered so far and frees their buffer. */
+    void recordHistory(boolean on) {
+        _recording = on;
+        if (!on) {
+            _history = new long[0];
+            _historyStart = 0;
+            _historySize = 0;
+        }
+    }
+
+    /** Return the number of steps I remember for stepBack(). */
+    int historySize() {
+        return _historySize;
+    }
+
+    /** Note that the last step advanced the rotors in the slots whose
+     *  bits are set in ADVANCED and, if I am recording my history, record
+     *  it so that stepBack() can undo it exactly.  The oldest steps are
+     *  forgotten beyond MAX_HISTORY steps. */
+    void pushStep(long advanced) {
+        if (!onlyFast(advanced)) {
+            _innerStale = true;
+        }
+        if (!_recording || _numRotors > Long.SIZE) {
+            return;
+        }
+        if (_historySize == _history.length) {
+            if (_history.length < MAX_HISTORY) {
+                long[] larger =
+                    new long[Math.max(2 * _history.length, MIN_HISTORY)];
+                for (int i = 0; i < _historySize; i += 1) {
+                    larger[i] = _history[(_historyStart + i)
+                                         & (_history.length - 1)];
+                }
+                _history = larger;
+                _historyStart = 0;
+            } else {
+                _historyStart = (_historyStart + 1) & (_history.length - 1);
+                _historySize -= 1;
+            }
+        }
+        _history[(_historyStart + _historySize) & (_history.length - 1)] =
+            advanced;
+        _historySize += 1;
+    }
+
+    /** Undo one step of the machine, so that a following
+     *  doubleStepping() returns it to its present state.  Steps taken
+     *  since the rotors were last inserted or set while I was recording
+     *  my history (see recordHistory) are undone exactly.  Others are
+     *  inferred from the notches, working from the rightmost rotor
+     *  leftwards; when a rotor may or may not have been carried by its
+     *  left neighbour's pawl, it is taken to have been carried iff that
+     *  put it on a notch it was itself just carried onto, which is the
+     *  only way a running machine reaches such a state.  Each step
+     *  takes constant time. */
+    void stepBack() {
+        long advanced;
+        if (_historySize > 0) {
+            _historySize -= 1;
+            advanced = _history[(_historyStart + _historySize)
+                                & (_history.length - 1)];
+        } else {
+            advanced = inferStep();
+        }
+        if (!onlyFast(advanced)) {
+            _innerStale = true;
+        }
+        for (int k = _numRotors - 1; k >= 0 && advanced != 0; k -= 1) {
+            if ((advanced & (1L << k)) != 0) {
+                _usedRotors.get(k).retreat();
+                advanced &= ~(1L << k);
+            }
+        }
+    }
+
+    /** Return true iff ADVANCED, a set of slots as bits, holds no slot
+     *  but the fastest's. */
+    private boolean onlyFast(long advanced) {
+        return _numRotors <= Long.SIZE
+            && (advanced & ~(1L << (_numRotors - 1))) == 0;
+    }
+
+    /** Undo N steps of the machine, as for N calls of stepBack(). */
+    void rewind(long n) {
+        for (long i = 0; i < n; i += 1) {
+            stepBack();
+        }
+    }
+
+    /** Return the slots (as bits) whose rotors the step leading to the
+     *  present state most plausibly advanced, as described for
+     *  stepBack(). */
+    private long inferStep() {
+        int first = _numRotors - _pawls, last = _numRotors - 1;
+        long advanced = 0;
+        boolean carried = true;
+        boolean rightCarried = false;
+        for (int k = last; k >= first; k -= 1) {
+            Rotor r = _usedRotors.get(k);
+            boolean pushable = k > first && _usedRotors.get(k - 1).rotates();
+            int now = r.setting();
+            boolean moved = carried;
+            if (!carried && pushable) {
+                boolean stayed = !r.notchAt(now);
+                boolean pushed = r.notchAt(now - 1);
+                moved = pushed && (!stayed || r.rotates() && rightCarried);
+            }
+            int before = moved ? now - 1 : now;
+            rightCarried = r.notchAt(before - 1);
+            carried = pushable && r.notchAt(before);
+            if (moved) {
+                advanced |= 1L << k;
+            }
+        }
+        return advanced;
     }
 
 
     /** Returns the encoding/decoding of MSG, updating the state of
-     *  the rotors accordingly.
+     *  the rotors accordingly.  Messages are converted directly until
+     *  one of at least COMPILE_LENGTH characters arrives, or until
+     *  COMPILE_CHARS characters have been converted with the same rotors
+     *  and plugboard; from then on, a CompiledMachine for those rotors
+     *  and plugboard is used.
      *  "abcd"  */
     String convert(String msg) {
-        String convered = "";
+        if (!Events.recording()) {
+            return convertTiered(msg);
+        }
+        Events.MessageConverted event = new Events.MessageConverted();
+        event.begin();
+        event.characters = msg.length();
+        String result = convertTiered(msg);
+        event.compiled = _compiled != null;
+        event.commit();
+        return result;
+    }
+
+    /** Returns the encoding/decoding of MSG by the appropriate tier, as
+     *  for convert(String). */
+    private String convertTiered(String msg) {
+        checkTier();
+        _tierChars += msg.length();
+        if (_compiled == null && (msg.length() >= COMPILE_LENGTH
+                                  || _tierChars >= COMPILE_CHARS)) {
+            _compiled = new CompiledMachine(this);
+            COMPILATIONS.increment();
+        }
+        if (_compiled != null) {
+            COMPILED_RUNS.increment();
+            return _compiled.convert(msg);
+        }
+        DIRECT_RUNS.increment();
+        char[] convered = new char[msg.length()];
         for (int i = 0; i < msg.length(); i++) {
             if (_alphabet.contains(msg.charAt(i))) {
                 char c = msg.charAt(i);
                 int cIndex = _alphabet.toInt(c);
                 int convCIndex = convert(cIndex);
-                char toChar = _alphabet.toChar(convCIndex);
-                convered += toChar;
+                convered[i] = _alphabet.toChar(convCIndex);
             } else {
                 throw new EnigmaException("Machine class, convert method, "
                         + "char not in the alphabet.");
             }
         }
-        return convered;
+        return new String(convered);
+    }
+
+    /** If my rotors or plugboard may have changed since the last
+     *  conversion, discard my compiled engine and restart the count of
+     *  characters converted, unless the rotors are the very same and
+     *  the plugboard has the same effect (and so, being canonical, is
+     *  the same). */
+    private void checkTier() {
+        if (_tierChecked) {
+            return;
+        }
+        _tierChecked = true;
+        boolean same = _tierRotors != null
+            && _tierRotors.size() == _usedRotors.size()
+            && _plugboard == _tierPlugboard;
+        for (int i = 0; same && i < _usedRotors.size(); i += 1) {
+            same = _tierRotors.get(i) == _usedRotors.get(i);
+        }
+        if (!same) {
+            _compiled = null;
+            _tierChars = 0;
+            _tierRotors = new ArrayList<>(_usedRotors);
+            _tierPlugboard = _plugboard;
+        }
+    }
+
+    /** Return a description of how many messages each tier of
+     *  convert(String) has converted, in all machines. */
+    static String tierStatistics() {
+        return String.format("direct %d, compiled %d, compilations %d",
+                             DIRECT_RUNS.sum(), COMPILED_RUNS.sum(),
+                             COMPILATIONS.sum());
     }
 
     /** Common alphabet of my rotors. */
@@ -191,12 +617,77 @@ class Machine {
     /** _allRotors. */
     private final Collection<Rotor> _allRotors;
 
+    /** My copies of available rotors, by rotor, after ownRotors(); else
+     *  null. */
+    private IdentityHashMap<Rotor, Rotor> _own;
+
     /** _plugboard. */
     private Permutation _plugboard;
 
     /** _usedRotors. */
     private ArrayList<Rotor> _usedRotors = new ArrayList<>();
 
+    /** Length of message at and above which convert(String) compiles my
+     *  rotors; set by the system property enigma.tier.length. */
+    static final int COMPILE_LENGTH =
+        Integer.getInteger("enigma.tier.length", 512);
+
+    /** Number of characters converted with the same rotors and plugboard
+     *  at and above which convert(String) compiles them; set by the
+     *  system property enigma.tier.chars. */
+    static final long COMPILE_CHARS =
+        Long.getLong("enigma.tier.chars", 4096);
+
+    /** Number of messages converted directly. */
+    private static final LongAdder DIRECT_RUNS = new LongAdder();
+
+    /** Number of messages converted by a CompiledMachine. */
+    private static final LongAdder COMPILED_RUNS = new LongAdder();
+
+    /** Number of CompiledMachines made by convert(String). */
+    private static final LongAdder COMPILATIONS = new LongAdder();
+
+    /** Rotors in my slots when _tierChars was last reset. */
+    private ArrayList<Rotor> _tierRotors;
+
+    /** My plugboard when _tierChars was last reset. */
+    private Permutation _tierPlugboard;
+
+    /** False if my rotors or plugboard may have changed since they were
+     *  last compared with _tierRotors and _tierPlugboard. */
+    private boolean _tierChecked;
+
+    /** Characters converted with _tierRotors and _tierPlugboard. */
+    private long _tierChars;
+
+    /** Compiled engine for _tierRotors and _tierPlugboard, or null. */
+    private CompiledMachine _compiled;
+
+    /** Initial capacity of _history, once used; a power of 2. */
+    static final int MIN_HISTORY = 64;
+
+    /** Largest number of steps remembered for stepBack(); a power of 2. */
+    static final int MAX_HISTORY = 1 << 16;
+
+    /** True iff pushStep records steps in _history. */
+    private boolean _recording;
+
+    /** Circular buffer of the slots advanced by recent steps, as bits. */
+    private long[] _history = new long[0];
+
+    /** Index in _history of the oldest step remembered. */
+    private int _historyStart;
+
+    /** Number of steps remembered. */
+    private int _historySize;
+
+    /** Composition of my rotors other than the fastest, as made by
+     *  composeInner. */
+    private final int[] _inner;
+
+    /** True iff _inner may not match my rotors' present settings. */
+    private boolean _innerStale = true;
+
     /** FIXME fixed : ADDITIONAL FIELDS HERE, IF NEEDED.*/
 
     /**
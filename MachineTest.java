@@ -0,0 +1,303 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Lei Hao
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with rotors REFLECTOR, FIXED, and the moving
+     *  rotors MOVING[0], MOVING[2], ..., whose notches are MOVING[1],
+     *  MOVING[3], .... */
+    private Machine machine(String reflector, String fixed,
+                            String... moving) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector(reflector,
+                                 new Permutation(NAVALA.get(reflector),
+                                                 UPPER)));
+        rotors.add(new FixedRotor(fixed,
+                                  new Permutation(NAVALA.get(fixed), UPPER)));
+        String[] names = new String[moving.length / 2 + 2];
+        names[0] = reflector;
+        names[1] = fixed;
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+            names[i / 2 + 2] = moving[i];
+        }
+        Machine m = new Machine(UPPER, names.length, moving.length / 2,
+                                rotors);
+        m.insertRotors(names);
+        m.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        return m;
+    }
+
+    /** Set M to the state numbered STATE, the rightmost rotor varying
+     *  fastest. */
+    private void setState(Machine m, int state) {
+        char[] setting = new char[m.numRotors() - 1];
+        for (int i = setting.length - 1; i >= 0; i -= 1) {
+            setting[i] = UPPER_STRING.charAt(state % 26);
+            state /= 26;
+        }
+        m.setRotors(new String(setting));
+    }
+
+    /** Return the conversion of C by M at its present settings, passing
+     *  through every rotor in turn. */
+    private int throughAllRotors(Machine m, int c) {
+        int out = m.plugboard().permute(c);
+        for (int i = m.numRotors() - 1; i >= 0; i -= 1) {
+            out = m.usedRotors().get(i).convertForward(out);
+        }
+        for (int i = 1; i < m.numRotors(); i += 1) {
+            out = m.usedRotors().get(i).convertBackward(out);
+        }
+        return m.plugboard().permute(out);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSinglePlugboardLead() {
+        Machine m = machine("B", "Beta", "III", "V", "IV", "J", "I", "Q");
+        Main.applySettings(m, "* B Beta III IV I AXLE (AB)");
+        assertEquals("lead A", UPPER.toInt('B'),
+                     m.plugboard().permute(UPPER.toInt('A')));
+        assertEquals("lead B", UPPER.toInt('A'),
+                     m.plugboard().permute(UPPER.toInt('B')));
+        assertEquals("old plugboard", UPPER.toInt('Y'),
+                     m.plugboard().permute(UPPER.toInt('Y')));
+    }
+
+    @Test
+    public void checkInnerStackFollowsSlowRotors() {
+        Machine m = machine("B", "Beta", "III", "V", "VI", "ZM", "I", "Q");
+        m.setRotors("AXLE");
+        for (int step = 0; step < 2000; step += 1) {
+            if (step % 7 == 6) {
+                m.stepBack();
+            } else {
+                m.doubleStepping();
+            }
+            for (int c = 0; c < 26; c += 1) {
+                assertEquals(msg("translate", "step %d, char %d", step, c),
+                             throughAllRotors(m, c), m.translate(c));
+            }
+        }
+    }
+
+    @Test
+    public void checkStepBackUndoesStep() {
+        Machine m = machine("B", "Beta", "III", "V", "VI", "ZM", "I", "Q");
+        m.recordHistory(true);
+        for (int state = 0; state < 26 * 26 * 26; state += 1) {
+            setState(m, state);
+            int[] before = m.positions();
+            m.doubleStepping();
+            int[] after = m.positions();
+            m.stepBack();
+            assertArrayEquals(msg("step back", "state %d", state),
+                              before, m.positions());
+
+            m.setPositions(after);
+            m.stepBack();
+            m.doubleStepping();
+            assertArrayEquals(msg("inferred step back", "state %d", state),
+                              after, m.positions());
+        }
+    }
+
+    @Test
+    public void checkSkipMatchesConversion() {
+        Machine m = machine("B", "Beta", "III", "V", "IV", "J", "I", "Q");
+        m.setRotors("AXLE");
+        m.convert(UPPER_STRING.repeat(40));
+        int[] after = m.positions();
+        String next = m.convert("HELLOWORLD");
+
+        m.setRotors("AXLE");
+        m.skip(26 * 40);
+        assertArrayEquals("positions", after, m.positions());
+        assertEquals("following message", next, m.convert("HELLOWORLD"));
+
+        Random random = new Random(44);
+        for (int trial = 0; trial < 200; trial += 1) {
+            int state = random.nextInt(26 * 26 * 26);
+            int steps = random.nextInt(3 * 26 * 26);
+            setState(m, state);
+            for (int i = 0; i < steps; i += 1) {
+                m.doubleStepping();
+            }
+            int[] stepped = m.positions();
+            setState(m, state);
+            m.skip(steps);
+            assertArrayEquals(msg("skip", "state %d, %d steps", state, steps),
+                              stepped, m.positions());
+        }
+    }
+
+    @Test
+    public void checkRewindRestoresMessage() {
+        Machine m = machine("B", "Beta", "III", "V", "IV", "J", "I", "Q");
+        m.recordHistory(true);
+        m.setRotors("AXLE");
+        Random random = new Random(36);
+        char[] text = new char[5000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = UPPER_STRING.charAt(random.nextInt(26));
+        }
+        String msg = new String(text);
+        String head = m.convert(msg.substring(0, 3000));
+        int[] middle = m.positions();
+        String tail = m.convert(msg.substring(3000));
+
+        m.rewind(2000);
+        assertArrayEquals("rewind with history", middle, m.positions());
+        assertEquals("tail", tail, m.convert(msg.substring(3000)));
+
+        m.setPositions(m.positions());
+        m.rewind(2000);
+        assertArrayEquals("rewind without history", middle, m.positions());
+        m.rewind(3000);
+        assertEquals("head", head, m.convert(msg.substring(0, 3000)));
+    }
+
+    @Test
+    public void checkHistoryOnlyWhenAsked() {
+        Machine m = machine("B", "Beta", "III", "V", "IV", "J", "I", "Q");
+        m.setRotors("AXLE");
+        String msg = UPPER_STRING.repeat(4 * Machine.MAX_HISTORY / 26);
+        m.convert(msg);
+        assertEquals("not recording", 0, m.historySize());
+
+        m.recordHistory(true);
+        m.convert("HELLOWORLD");
+        assertEquals("recording", 10, m.historySize());
+        m.convert(msg);
+        assertEquals("bounded", Machine.MAX_HISTORY, m.historySize());
+
+        m.recordHistory(false);
+        assertEquals("forgotten", 0, m.historySize());
+        m.convert("HELLOWORLD");
+        assertEquals("stopped", 0, m.historySize());
+    }
+
+    @Test
+    public void checkOwnedRotorsAreIndependent() {
+        Machine shared = machine("B", "Beta", "III", "V", "IV", "J", "I",
+                                 "Q");
+        String[] names = new String[shared.numRotors()];
+        for (int i = 0; i < names.length; i += 1) {
+            names[i] = shared.usedRotors().get(i).name();
+        }
+        Machine own = new Machine(UPPER, shared.numRotors(),
+                                  shared.numPawls(), shared.allRotors());
+        own.ownRotors();
+        own.insertRotors(names);
+        ArrayList<Rotor> first = new ArrayList<>(own.usedRotors());
+        own.insertRotors(names);
+        for (int i = 0; i < names.length; i += 1) {
+            assertTrue(msg("own", "slot %d shared", i),
+                       shared.usedRotors().get(i) != first.get(i));
+            assertTrue(msg("own", "slot %d copied again", i),
+                       first.get(i) == own.usedRotors().get(i));
+        }
+
+        shared.setRotors("AXLE");
+        own.setRotors("AXLE");
+        own.setPlugboard(new Permutation("(YF) (ZH)", UPPER));
+        String msg = "FROMHISSHOULDERHIAWATHA";
+        String expected = shared.convert(msg);
+        shared.setRotors("AXLE");
+        own.setRotors("ZZZZ");
+        own.convert(msg);
+        assertEquals("shared machine unaffected", expected,
+                     shared.convert(msg));
+    }
+
+    @Test
+    public void checkCatalogueKeepsRotors() {
+        RotorCatalogue catalogue = new RotorCatalogue(UPPER);
+        catalogue.add("B", 'R', "", new Permutation(NAVALA.get("B"), UPPER));
+        catalogue.add("Beta", 'N', "",
+                      new Permutation(NAVALA.get("Beta"), UPPER));
+        for (String name : new String[] { "III", "IV", "I" }) {
+            catalogue.add(name, 'M', "Q",
+                          new Permutation(NAVALA.get(name), UPPER));
+        }
+        catalogue.add("V", 'M', "Z", new Permutation(NAVALA.get("V"), UPPER));
+        catalogue.add("V", 'M', "Z",
+                      new Permutation(NAVALA.get("II"), UPPER));
+        Machine m = new Machine(UPPER, 5, 3, catalogue);
+        String[] names = { "B", "Beta", "III", "IV", "I" };
+        m.insertRotors(names);
+        ArrayList<Rotor> first = new ArrayList<>(m.usedRotors());
+        m.insertRotors(names);
+        for (int i = 0; i < names.length; i += 1) {
+            assertTrue(msg("catalogue", "slot %d made again", i),
+                       first.get(i) == m.usedRotors().get(i));
+        }
+        Rotor fast = m.usedRotors().get(4);
+        for (int c = 0; c < UPPER.size(); c += 1) {
+            assertEquals(msg("catalogue", "notch at %c", UPPER.toChar(c)),
+                         UPPER.toChar(c) == 'Q', fast.notchAt(c));
+        }
+    }
+
+    @Test
+    public void checkDuplicateNameRejected() {
+        RotorCatalogue catalogue = new RotorCatalogue(UPPER);
+        catalogue.add("B", 'R', "", new Permutation(NAVALA.get("B"), UPPER));
+        catalogue.add("Beta", 'N', "",
+                      new Permutation(NAVALA.get("Beta"), UPPER));
+        catalogue.add("I", 'M', "Q", new Permutation(NAVALA.get("I"), UPPER));
+        catalogue.add("I", 'M', "Q",
+                      new Permutation(NAVALA.get("II"), UPPER));
+        Machine m = new Machine(UPPER, 3, 1, catalogue);
+        try {
+            m.insertRotors(new String[] { "B", "Beta", "I" });
+            fail("two rotors named I accepted");
+        } catch (EnigmaException excp) {
+            /* Ambiguous names are an error. */
+        }
+    }
+
+    @Test
+    public void checkDuplicateNameRejectedInList() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B",
+                                 new Permutation(NAVALA.get("B"), UPPER)));
+        rotors.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("I"), UPPER),
+                                   "Q"));
+        rotors.add(new MovingRotor("I",
+                                   new Permutation(NAVALA.get("II"), UPPER),
+                                   "E"));
+        Machine m = new Machine(UPPER, 2, 1, rotors);
+        try {
+            m.insertRotors(new String[] { "B", "I" });
+            fail("two rotors named I accepted");
+        } catch (EnigmaException excp) {
+            /* Ambiguous names are an error. */
+        }
+    }
+}
@@ -3,12 +3,19 @@ package enigma;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
 
@@ -25,7 +32,42 @@ public final class Main {
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  Options of the form --NAME or --NAME=VALUE
+     *  may appear anywhere among ARGS:
+     *    --cache=DIR  share precomputed keystreams for each settings line
+     *                 with other processes through directory DIR.
+     *    --pipeline   read, convert and write on separate threads.
+     *    --tier-stats report on the standard error how many messages
+     *                 were converted directly and how many compiled.
+     *    --settings-stats  report on the standard error how often
+     *                 settings lines were found in the settings cache.
+     *    --validate   parse every rotor in the configuration before
+     *                 reading the input, rather than just those used, so
+     *                 that errors in unused rotors are reported.
+     *    --build-index=FILE  write an index of the messages in the input
+     *                 file to FILE (see MessageIndex) for the machine of
+     *                 the configuration, converting nothing.
+     *    --messages=K or --messages=K-M  convert only message K (or
+     *                 messages K to M) of the input file, counting message
+     *                 lines from 1, by seeking to them with the index
+     *                 named by --index=FILE.  Messages whose ring
+     *                 settings were set by an earlier settings line than
+     *                 their own are refused.
+     *    --batch      convert many input files with one configuration
+     *                 (see FileBatch).  ARGS[1] is then a directory, all
+     *                 of whose files are converted, or a pattern such as
+     *                 in/*.txt; ARGS[2], if present, is the directory
+     *                 for the outputs, which are otherwise written beside
+     *                 the inputs.  Each output is named after its input,
+     *                 with .out appended.  An error in one file is
+     *                 reported and does not stop the others.
+     *    --jobs=N     with --batch, convert at most N files at a time.
+     *    --packed-output  write messages with their characters
+     *                 bit-packed (see PackedFormat) rather than as text in
+     *                 groups of five.  Settings lines are written too, so
+     *                 that the output can be converted back with
+     *                 --packed-input.
+     *    --packed-input  read input written with --packed-output. */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -38,22 +80,103 @@ public final class Main {
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        args = readOptions(args);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
+        _configBytes = configBytes();
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (_options.containsKey("batch")) {
+            if (args.length < 2) {
+                throw error("--batch needs an input directory or pattern");
+            }
+            _inputName = args[1];
+            _outputName = args.length > 2 ? args[2] : null;
         } else {
-            _input = new Scanner(System.in);
+            if (args.length > 1) {
+                _inputName = args[1];
+            }
+            if (!_options.containsKey("packed-input")) {
+                _input = _inputName != null ? getInput(_inputName)
+                    : new Scanner(System.in);
+            }
+
+            if (args.length > 2) {
+                _output = getOutput(args[2]);
+            } else {
+                _output = System.out;
+            }
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
-        } else {
-            _output = System.out;
+        if (_options.containsKey("cache")) {
+            _cache = new KeystreamCache(new File(_options.get("cache")));
+        }
+    }
+
+    /** A Main that has not opened any files. */
+    private Main() {
+    }
+
+    /** Return an Enigma machine configured from the configuration file
+     *  named NAME, with no rotors inserted. */
+    static Machine loadConfig(String name) {
+        Main main = new Main();
+        main._configName = name;
+        main._configBytes = main.configBytes();
+        return main.readConfig();
+    }
+
+    /** Set M according to the settings line SETTINGS, as for an input
+     *  file. */
+    static void applySettings(Machine m, String settings) {
+        Main main = new Main();
+        main._alphabet = m.alphabet();
+        main.setUp(m, settings);
+    }
+
+    /** Return the conversion of TEXT, the contents of an input file,
+     *  by M, as the contents of the output file. */
+    static String convertAll(Machine m, String text) {
+        Main main = new Main();
+        main._alphabet = m.alphabet();
+        StringBuilder result = new StringBuilder();
+        text.lines().forEach(line -> {
+            String msg = main.processLine(m, line);
+            if (msg != null) {
+                result.append(formatMessageLine(msg))
+                    .append(System.lineSeparator());
+            }
+        });
+        return result.toString();
+    }
+
+    /** Record the options (arguments starting with "--") among ARGS in
+     *  _options, and return the remaining arguments. */
+    private String[] readOptions(String[] args) {
+        ArrayList<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                rest.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            if (!Arrays.asList(OPTIONS).contains(name)) {
+                throw error("unknown option %s", arg);
+            }
+            _options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return rest.toArray(new String[0]);
+    }
+
+    /** Return the contents of the configuration file. */
+    private byte[] configBytes() {
+        try {
+            return Files.readAllBytes(new File(_configName).toPath());
+        } catch (IOException excp) {
+            throw error("could not read %s", _configName);
         }
     }
 
@@ -81,120 +204,329 @@ public final class Main {
      *  * B Beta I II III AAAA
      *  */
     private void process() {
+        if (_options.containsKey("build-index")) {
+            int slots = readConfig().numRotors();
+            MessageIndex.build(inputPath(),
+                               Path.of(_options.get("build-index")), slots,
+                               line -> ringSetting(line, slots) != null);
+            return;
+        }
         /** FIXME fixed */
         Machine m = readConfig();
+        if (_options.containsKey("validate")) {
+            _allRotors.validate();
+        }
 
-        while (_input.hasNextLine()) {
-            String convert = _input.nextLine();
-            if (convert.contains("*")) {
-                setUp(m, convert);
-            } else {
-                if (m.usedRotors().isEmpty()) {
+        if (_options.containsKey("batch")) {
+            processBatch(m);
+        } else if (_options.containsKey("messages")) {
+            processMessages(m);
+        } else if (_options.containsKey("packed-input")
+                   || _options.containsKey("packed-output")) {
+            processPacked(m);
+        } else if (_options.containsKey("pipeline")) {
+            processPipelined(m);
+        } else {
+            while (_input.hasNextLine()) {
+                String convert = _input.nextLine();
+                if (!convert.contains("*") && m.usedRotors().isEmpty()) {
                     System.exit(1);
                 }
-                printMessageLine(m.convert(convert.
-                        replaceAll(" ", "")));
+                String result = processLine(m, convert);
+                if (result != null) {
+                    printMessageLine(result);
+                }
             }
         }
+        if (_options.containsKey("tier-stats")) {
+            System.err.printf("Tiers: %s%n", Machine.tierStatistics());
+        }
+        if (_options.containsKey("settings-stats")) {
+            System.err.printf("Settings cache: %s%n",
+                              _settingsCache.statistics());
+        }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Convert the input with M through a Pipeline.  As when converting
+     *  line by line, a message before the first settings line ends the
+     *  output there, and the program exits with code 1 without printing
+     *  an error. */
+    private void processPipelined(Machine m) {
+        boolean[] unset = { false };
         try {
-            int numRotors;
-            int pawls;
-            String charater = _config.next().trim();
-            _alphabet = new Alphabet(charater);
-
-            if (_config.hasNextInt()) {
-                numRotors = _config.nextInt();
-            } else {
-                throw new EnigmaException("Config file error, couldn't "
-                        + "set the numRotors.");
+            new Pipeline(_input, _output, line -> {
+                if (!line.contains("*") && m.usedRotors().isEmpty()) {
+                    unset[0] = true;
+                }
+                return processLine(m, line);
+            }, Main::formatMessageLine).run();
+        } catch (EnigmaException excp) {
+            if (unset[0]) {
+                System.exit(1);
             }
+            throw excp;
+        }
+    }
 
-            if (_config.hasNextInt()) {
-                pawls = _config.nextInt();
-                _config.nextLine();
+    /** Convert the input with M, reading it in packed form if
+     *  --packed-input is given and writing packed output (settings lines
+     *  included) if --packed-output is. */
+    private void processPacked(Machine m) {
+        PackedFormat.Reader reader = null;
+        if (_options.containsKey("packed-input")) {
+            try {
+                InputStream in = _inputName == null ? System.in
+                    : Files.newInputStream(inputPath());
+                reader = new PackedFormat.Reader(in, _alphabet);
+            } catch (IOException excp) {
+                throw error("could not open %s", _inputName);
+            }
+        }
+        if (_options.containsKey("packed-output")) {
+            _packed = new PackedFormat.Writer(_output, _alphabet);
+        }
+        while (true) {
+            String line;
+            if (reader != null) {
+                line = reader.next();
             } else {
-                throw new EnigmaException("Cofig file error, "
-                        + "couldn't set the pawls.");
+                line = _input.hasNextLine() ? _input.nextLine() : null;
             }
-
-            while (_config.hasNextLine()) {
-                _configList.add(_config.nextLine().trim());
+            if (line == null) {
+                break;
             }
+            String result = processLine(m, line);
+            if (result != null) {
+                printMessageLine(result);
+            } else if (_packed != null) {
+                _packed.settings(line);
+            }
+        }
+        if (_packed != null) {
+            _packed.flush();
+        }
+        _output.flush();
+    }
 
-            for (int i = 0; i < _configList.size(); i++) {
-                if (_configList.get(i).startsWith("(")) {
-                    _configList.set(i - 1, _configList.get(i - 1)
-                            + _configList.get(i));
-                    _configList.remove(i);
-                }
+    /** Convert each input file named by the --batch arguments with a
+     *  machine configured like M. */
+    private void processBatch(Machine m) {
+        int jobs = FileBatch.DEFAULT_JOBS;
+        if (_options.containsKey("jobs")) {
+            try {
+                jobs = Integer.parseInt(_options.get("jobs"));
+            } catch (NumberFormatException excp) {
+                jobs = 0;
+            }
+            if (jobs < 1) {
+                throw error("bad number of jobs %s", _options.get("jobs"));
             }
+        }
+        Path outDir = _outputName == null ? null : Path.of(_outputName);
+        List<Path> inputs = FileBatch.inputs(_inputName, outDir);
+        int failed = new FileBatch(m, jobs).run(inputs, outDir);
+        if (failed > 0) {
+            throw error("%d of %d files failed", failed, inputs.size());
+        }
+    }
 
-            for (int i = 0; i < _configList.size(); i++) {
-                if (_configList.get(i).isBlank()) {
-                    continue;
+    /** Convert the messages given by the --messages option with M,
+     *  using the index given by --index.  Each settings line is applied
+     *  only where a message needs it, followed by enough steps to skip
+     *  the messages before.  Since ring settings carry over from one
+     *  settings line to the next when a line leaves them alone, it is an
+     *  error to ask for a message whose settings line does that after an
+     *  earlier line set them. */
+    private void processMessages(Machine m) {
+        if (!_options.containsKey("index")) {
+            throw error("--messages needs --index");
+        }
+        String range = _options.get("messages");
+        long first, last;
+        try {
+            int dash = range.indexOf('-');
+            first = Long.parseLong(dash < 0 ? range
+                                   : range.substring(0, dash));
+            last = Long.parseLong(range.substring(dash + 1));
+        } catch (NumberFormatException excp) {
+            throw error("bad message range %s", range);
+        }
+        if (first > last) {
+            throw error("bad message range %s", range);
+        }
+        try (MessageIndex index =
+                 new MessageIndex(Path.of(_options.get("index")),
+                                  inputPath(), m.numRotors())) {
+            long settings = -1;
+            for (long k = first; k <= last; k += 1) {
+                if (index.settingsOffset(k) < 0) {
+                    throw error("message before the first settings line");
                 }
-                String[] s = _configList.get(i).split(" ", 3);
-
-                // just for check which line is empty, for debugging.
-                if (s.length < 3) {
-                    throw new EnigmaException("\"" + _configList.get(i)
-                            + "\"" + i + " input is not correct. ");
+                if (index.ringsOffset(k) >= 0) {
+                    throw error("message %d may depend on ring settings "
+                                + "from an earlier settings line", k);
                 }
+                if (k == first || index.settingsOffset(k) != settings) {
+                    settings = index.settingsOffset(k);
+                    setUp(m, index.settings(k));
+                    m.skip(index.charsBefore(k));
+                }
+                printMessageLine(m.convert(index.message(k)
+                                           .replaceAll(" ", "")));
+            }
+        }
+    }
 
-                _rotorName = s[0];
-                _rotorConfig = s[1];
-                _cycles = s[2];
-                _allRotors.add(readRotor());
+    /** Return the path of the input file, which must have been named. */
+    private Path inputPath() {
+        if (_inputName == null) {
+            throw error("an input file is needed to use a message index");
+        }
+        return Path.of(_inputName);
+    }
+
+    /** Apply the input line LINE to M: set M up if LINE is a settings
+     *  line, and otherwise return the conversion of the message on LINE.
+     *  Returns null for settings lines. */
+    private String processLine(Machine m, String line) {
+        if (line.contains("*")) {
+            setUp(m, line);
+            if (_cache != null) {
+                _keystream = _cache.open(_configBytes, m);
             }
-            return new Machine(_alphabet, numRotors, pawls, _allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+            return null;
         }
+        if (m.usedRotors().isEmpty()) {
+            throw error("message before the first settings line");
+        }
+        String msg = line.replaceAll(" ", "");
+        if (_keystream != null) {
+            return _keystream.convert(msg);
+        }
+        return m.convert(msg);
     }
 
-    /** Return a rotor, reading its description from _config. */
-    private Rotor readRotor() {
-        try {
-            if (_rotorConfig.charAt(0) == 'M') {
-                String notch = _rotorConfig.substring(1);
-                return new MovingRotor(_rotorName,
-                        new Permutation(_cycles, _alphabet), notch);
-            } else if (_rotorConfig.charAt(0) == 'N') {
-                return new FixedRotor(_rotorName,
-                        new Permutation(_cycles, _alphabet));
-            } else if (_rotorConfig.charAt(0) == 'R') {
-                return new Reflector(_rotorName,
-                        new Permutation(_cycles, _alphabet));
+    /** Return an Enigma machine configured from the contents of the
+     *  configuration file, _configBytes.  Only the header is parsed in
+     *  full: each rotor is indexed by its name, type and place in the
+     *  text, and parsed by _allRotors when first used. */
+    private Machine readConfig() {
+        Events.ConfigLoaded event = new Events.ConfigLoaded();
+        event.begin();
+        String text = new String(_configBytes);
+        Matcher token = HEADER_TOKEN.matcher(text);
+        if (!token.lookingAt()) {
+            throw error("configuration file truncated");
+        }
+        _alphabet = new Alphabet(token.group(1));
+        _allRotors = new RotorCatalogue(_alphabet, text);
+        int numRotors = headerInt(token, "Config file error, couldn't "
+                                  + "set the numRotors.");
+        int pawls = headerInt(token, "Cofig file error, "
+                              + "couldn't set the pawls.");
+
+        int lineStart = text.indexOf('\n', token.end()) + 1;
+        if (lineStart == 0) {
+            lineStart = text.length();
+        }
+        int start = -1, end = -1;
+        while (lineStart < text.length()) {
+            int lineEnd = text.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = text.length();
+            }
+            if (RotorCatalogue.line(text, lineStart, lineEnd)
+                .startsWith("(")) {
+                if (start < 0) {
+                    throw error("cycles with no rotor in configuration");
+                }
             } else {
-                throw new EnigmaException("readRotor failed. debug me.");
+                if (start >= 0) {
+                    indexRotor(text, start, end);
+                }
+                start = lineStart;
             }
-        } catch (NoSuchElementException excp) {
+            end = lineEnd;
+            lineStart = lineEnd + 1;
+        }
+        if (start >= 0) {
+            indexRotor(text, start, end);
+        }
+        Machine result =
+            new Machine(_alphabet, numRotors, pawls, _allRotors);
+        event.rotors = _allRotors.size();
+        event.commit();
+        return result;
+    }
+
+    /** Return the next token matched by TOKEN, which must be an integer;
+     *  otherwise throw an error with message MSG. */
+    private static int headerInt(Matcher token, String msg) {
+        token.region(token.end(), token.regionEnd());
+        if (!token.lookingAt()) {
+            throw error(msg);
+        }
+        try {
+            return Integer.parseInt(token.group(1));
+        } catch (NumberFormatException excp) {
+            throw error(msg);
+        }
+    }
+
+    /** Add the rotor described by the logical line of TEXT from START to
+     *  END to _allRotors, unparsed.  Blank lines are skipped. */
+    private void indexRotor(String text, int start, int end) {
+        String line = RotorCatalogue.line(text, start, end);
+        if (line.isBlank()) {
+            return;
+        }
+        int nameEnd = line.indexOf(' ');
+        int typeEnd = nameEnd < 0 ? -1 : line.indexOf(' ', nameEnd + 1);
+        if (typeEnd < 0) {
+            throw error("\"%s\" input is not correct.", line);
+        }
+        if (typeEnd == nameEnd + 1) {
             throw error("bad rotor description");
         }
+        _allRotors.addUnparsed(line.substring(0, nameEnd),
+                               line.charAt(nameEnd + 1), start, end);
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
+        if (!Events.recording()) {
+            configure(M, settings);
+            return;
+        }
+        Events.SettingsApplied event = new Events.SettingsApplied();
+        event.begin();
+        event.settings = settings;
+        event.cached = configure(M, settings);
+        event.commit();
+    }
+
+    /** Set M according to SETTINGS, as for setUp, and return true iff
+     *  it was found in the settings cache. */
+    private boolean configure(Machine M, String settings) {
         if (settings.charAt(0) != '*') {
             throw error("Should start with '*'. ");
         }
 
+        String setting = settings.replace("*", "").trim();
+        if (_settingsCache.apply(setting, M)) {
+            return true;
+        }
         String cycle = "";
         int usedRotor = M.numRotors();
-        String setting = settings.replace("*", "").trim();
         String[] settingList = setting.split(" ");
         String[] rotorList = new String[usedRotor + 1];
+        String ringSetting = ringSetting(settings, usedRotor);
 
         for (int i = 0; i < settingList.length; i++) {
             if (i <= usedRotor) {
                 rotorList[i] = settingList[i];
-            } else if (i > usedRotor) {
+            } else if (i > usedRotor + 1 || ringSetting == null) {
                 cycle += settingList[i];
             }
         }
@@ -218,22 +550,59 @@ public final class Main {
         }
 
         M.setRotors(settingList[usedRotor]);
-        try {
-            if (!settingList[1 + usedRotor + 1].contains("(")) {
-                String ringSetting = settingList[1 + usedRotor + 1];
-                if (ringSetting.length() > 0) {
-                    M.setRings(ringSetting);
-                }
+        boolean rings = ringSetting != null;
+        if (rings) {
+            if (ringSetting.length() != usedRotor - 1) {
+                throw error("wrong number of ring settings in %s",
+                            settings);
             }
-            M.setPlugboard(new Permutation(cycle, _alphabet));
-        } catch (ArrayIndexOutOfBoundsException ignored) {
-            M.setPlugboard(new Permutation("", _alphabet));
+            M.setRings(ringSetting);
+        }
+        M.setPlugboard(Permutation.of(cycle, _alphabet));
+        _settingsCache.put(setting, M, rings);
+        return false;
+    }
+
+    /** Return the ring settings given by settings line SETTINGS for a
+     *  machine with SLOTS rotor slots, or null if it leaves them alone.
+     *  They are the word straight after the positions, unless that
+     *  begins the plugboard cycles. */
+    private static String ringSetting(String settings, int slots) {
+        String[] settingList = settings.replace("*", "").trim().split(" ");
+        if (settingList.length > slots + 1
+            && !settingList[slots + 1].contains("(")
+            && settingList[slots + 1].length() > 0) {
+            return settingList[slots + 1];
         }
+        return null;
     }
 
     /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
+     *  have fewer letters), or write it packed with --packed-output. */
     private void printMessageLine(String msg) {
+        if (!Events.recording()) {
+            writeMessageLine(msg);
+            return;
+        }
+        Events.MessageFormatted event = new Events.MessageFormatted();
+        event.begin();
+        writeMessageLine(msg);
+        event.characters = msg.length();
+        event.commit();
+    }
+
+    /** Write MSG as for printMessageLine. */
+    private void writeMessageLine(String msg) {
+        if (_packed != null) {
+            _packed.message(msg);
+        } else {
+            _output.println(formatMessageLine(msg));
+        }
+    }
+
+    /** Return MSG in groups of five (except that the last group may
+     *  have fewer letters), separated by blanks. */
+    static String formatMessageLine(String msg) {
         ArrayList<String> main = new ArrayList<>();
         int mlen = msg.length();
         for (int i = 0; i < mlen; i += 5) {
@@ -244,34 +613,58 @@ public final class Main {
         s = s.replaceAll("\\[", "");
         s = s.replaceAll(", ", " ");
         s = s.replaceAll("\\]", "");
-
-        _output.println(s);
+        return s;
     }
 
+    /** Names of the options accepted on the command line. */
+    private static final String[] OPTIONS = {
+        "cache", "pipeline", "tier-stats", "settings-stats", "validate",
+        "build-index", "index", "messages", "batch", "jobs",
+        "packed-input", "packed-output"
+    };
+
+    /** Matches a whitespace-delimited token of a configuration header. */
+    private static final Pattern HEADER_TOKEN =
+        Pattern.compile("\\s*(\\S+)");
+
+    /** Options given on the command line, mapped to their values ("" for
+     *  options without one). */
+    private HashMap<String, String> _options = new HashMap<>();
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** Contents of the configuration file. */
+    private byte[] _configBytes;
+
+    /** Shared keystream cache, or null if none is used. */
+    private KeystreamCache _cache;
+
+    /** Configurations of the settings lines seen recently. */
+    private final SettingsCache _settingsCache =
+        new SettingsCache(SettingsCache.DEFAULT_CAPACITY);
+
+    /** Keystream for the current settings line, when _cache is used. */
+    private CachedKeystream _keystream;
+
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
+    /** Name of the input file, or null for the standard input. */
+    private String _inputName;
+
+    /** Name of the output directory for --batch, or null. */
+    private String _outputName;
+
+    /** Writer of packed output, with --packed-output; else null. */
+    private PackedFormat.Writer _packed;
+
     /** Source of input messages. */
     private Scanner _input;
 
-    /** Source of machine configuration. */
-    private Scanner _config;
-
     /** File for encoded/decoded messages. */
     private PrintStream _output;
 
-    /** _configList. */
-    private ArrayList<String> _configList = new ArrayList<>();
-
-    /** _rotorName. */
-    private String _rotorName;
-
-    /** _rotorConfig. */
-    private String _rotorConfig;
-
-    /** _cycles. */
-    private String _cycles;
-
     /** _allRotors. */
-    private Collection<Rotor> _allRotors = new ArrayList<>();
+    private RotorCatalogue _allRotors;
 }
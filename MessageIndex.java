@@ -0,0 +1,415 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+import static enigma.EnigmaException.*;
+
+/** A side file locating each message of an input file, so that one
+ *  message or a range of them can be converted without reading the
+ *  messages before.  Message lines (those without a '*') are numbered
+ *  from 1, and lines end as a Scanner ends them.  After a header, the
+ *  file is an array of longs, four for each message: the byte offset of
+ *  its line, the byte offset of the settings line governing it (or -1 if
+ *  there is none), the number of characters converted between that
+ *  settings line and the message, and the byte offset of an earlier
+ *  settings line whose ring settings may still be in effect (or -1 if
+ *  there is none).  The header records the input's size and
+ *  modification time, so that an index is not used with an input that
+ *  has changed since, and the number of rotor slots of the machine the
+ *  index was built for.
+ *  @author Lei Hao
+ */
+class MessageIndex implements AutoCloseable {
+
+    /** Write an index of input file INPUT to file INDEX, replacing it,
+     *  for a machine with SLOTS rotor slots.  SETSRINGS tells which
+     *  settings lines set ring settings. */
+    static void build(Path input, Path index, int slots,
+                      Predicate<String> setsRings) {
+        Path dir = index.toAbsolutePath().getParent();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir, "messages", ".tmp");
+            Builder builder;
+            try (InputStream in = Files.newInputStream(input);
+                 DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.write(new byte[HEADER_BYTES]);
+                builder = new Builder(out, setsRings);
+                byte[] buf = new byte[READ_BUFFER_BYTES];
+                long position = 0;
+                for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                    builder.add(buf, n, position);
+                    position += n;
+                }
+                builder.finish();
+            }
+            try (FileChannel channel = FileChannel.open(temp,
+                     StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(RECORD_LONGS)
+                    .putLong(Files.size(input))
+                    .putLong(Files.getLastModifiedTime(input).toMillis())
+                    .putLong(builder.messages()).putInt(slots).flip();
+                channel.write(header, 0);
+            }
+            Files.move(temp, index, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not index %s in %s", input, index);
+        } finally {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+    }
+
+    /** The index in file INDEX of input file INPUT, which must not have
+     *  changed since the index was built for a machine with SLOTS rotor
+     *  slots. */
+    MessageIndex(Path index, Path input, int slots) {
+        try {
+            _index = FileChannel.open(index);
+            _input = FileChannel.open(input);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            if (_index.read(header, 0) != HEADER_BYTES
+                || header.getInt(0) != MAGIC
+                || header.getInt(4) != RECORD_LONGS) {
+                throw error("%s is not a message index", index);
+            }
+            if (header.getLong(8) != _input.size()
+                || header.getLong(16)
+                   != Files.getLastModifiedTime(input).toMillis()) {
+                throw error("index %s is out of date for %s", index, input);
+            }
+            if (header.getInt(32) != slots) {
+                throw error("index %s is for %d rotor slots, not %d",
+                            index, header.getInt(32), slots);
+            }
+            _count = header.getLong(24);
+        } catch (IOException excp) {
+            throw error("could not open index %s", index);
+        }
+    }
+
+    /** Return the number of messages. */
+    long count() {
+        return _count;
+    }
+
+    /** Return the line of message number K. */
+    String message(long k) {
+        return readLine(record(k)[0]);
+    }
+
+    /** Return the settings line governing message number K, or null if
+     *  there is none. */
+    String settings(long k) {
+        long offset = record(k)[1];
+        return offset < 0 ? null : readLine(offset);
+    }
+
+    /** Return the byte offset of the settings line governing message
+     *  number K, or -1 if there is none. */
+    long settingsOffset(long k) {
+        return record(k)[1];
+    }
+
+    /** Return the number of characters converted after the settings
+     *  line governing message number K and before the message. */
+    long charsBefore(long k) {
+        return record(k)[2];
+    }
+
+    /** Return the byte offset of a settings line before the one
+     *  governing message number K whose ring settings may still be in
+     *  effect for message K, or -1 if there is none. */
+    long ringsOffset(long k) {
+        return record(k)[3];
+    }
+
+    @Override
+    public void close() {
+        try {
+            _index.close();
+            _input.close();
+        } catch (IOException excp) {
+            throw error("could not close message index");
+        }
+    }
+
+    /** Return the record of message number K. */
+    private long[] record(long k) {
+        if (k < 1 || k > _count) {
+            throw error("no message %d (there are %d)", k, _count);
+        }
+        if (k != _recordNumber) {
+            ByteBuffer buf = ByteBuffer.allocate(8 * RECORD_LONGS);
+            try {
+                _index.read(buf, HEADER_BYTES + (k - 1) * 8 * RECORD_LONGS);
+            } catch (IOException excp) {
+                throw error("could not read message index");
+            }
+            for (int i = 0; i < RECORD_LONGS; i += 1) {
+                _record[i] = buf.getLong(8 * i);
+            }
+            _recordNumber = k;
+        }
+        return _record;
+    }
+
+    /** Return the line of the input starting at byte OFFSET, without its
+     *  line terminator. */
+    private String readLine(long offset) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        ByteBuffer buf = ByteBuffer.allocate(LINE_BUFFER_BYTES);
+        byte[] tail = new byte[MAX_SEPARATOR_BYTES];
+        int tailLength = 0;
+        try {
+            while (true) {
+                buf.clear();
+                int n = _input.read(buf, offset);
+                if (n <= 0) {
+                    break;
+                }
+                int end = 0, separator = 0;
+                while (end < n && separator == 0) {
+                    if (tailLength == tail.length) {
+                        System.arraycopy(tail, 1, tail, 0, tailLength - 1);
+                        tailLength -= 1;
+                    }
+                    tail[tailLength] = buf.get(end);
+                    tailLength += 1;
+                    end += 1;
+                    separator = separator(tail, tailLength);
+                }
+                line.write(buf.array(), 0, end);
+                if (separator > 0) {
+                    byte[] bytes = line.toByteArray();
+                    return decode(Arrays.copyOf(bytes,
+                                                bytes.length - separator));
+                }
+                offset += n;
+            }
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+        return decode(line.toByteArray());
+    }
+
+    /** Return BYTES, a line of input, as text in the default character
+     *  set, as a Scanner would read it. */
+    private static String decode(byte[] bytes) {
+        return new String(bytes, Charset.defaultCharset());
+    }
+
+    /** Return the length in bytes of the line separator with which the
+     *  first LENGTH bytes of BYTES end, or 0 if they do not end with
+     *  one.  A carriage return followed by a newline is two separators
+     *  here; Builder treats them as one. */
+    private static int separator(byte[] bytes, int length) {
+        if (length == 0 || !SEPARATOR_ENDS[bytes[length - 1] & 0xff]) {
+            return 0;
+        }
+        for (byte[] sep : SEPARATORS) {
+            if (sep.length <= length
+                && Arrays.equals(bytes, length - sep.length, length,
+                                 sep, 0, sep.length)) {
+                return sep.length;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the line separators that a Scanner recognizes, as encoded
+     *  in the default character set. */
+    private static byte[][] separators() {
+        Charset charset = Charset.defaultCharset();
+        ArrayList<byte[]> result = new ArrayList<>();
+        for (String sep : new String[] { "\n", "\r", "\u2028", "\u2029",
+                                         "\u0085" }) {
+            if (charset.newEncoder().canEncode(sep)) {
+                result.add(sep.getBytes(charset));
+            }
+        }
+        return result.toArray(new byte[0][]);
+    }
+
+    /** Return a table telling which bytes end one of SEPARATORS. */
+    private static boolean[] separatorEnds(byte[][] separators) {
+        boolean[] result = new boolean[256];
+        for (byte[] sep : separators) {
+            result[sep[sep.length - 1] & 0xff] = true;
+        }
+        return result;
+    }
+
+    /** Splits input into lines and writes the record of each message
+     *  line. */
+    private static class Builder {
+        /** A Builder writing records to OUT, where SETSRINGS tells
+         *  which settings lines set ring settings. */
+        Builder(DataOutputStream out, Predicate<String> setsRings) {
+            _out = out;
+            _setsRings = setsRings;
+        }
+
+        /** Add the first N bytes of BUF, which start at byte POSITION of
+         *  the input. */
+        void add(byte[] buf, int n, long position) throws IOException {
+            for (int i = 0; i < n; i += 1) {
+                if (_afterReturn && buf[i] == '\n') {
+                    _afterReturn = false;
+                    _lineStart = position + i + 1;
+                    continue;
+                }
+                _afterReturn = false;
+                if (_length == _line.length) {
+                    _line = Arrays.copyOf(_line, 2 * _length);
+                }
+                _line[_length] = buf[i];
+                _length += 1;
+                int separator = separator(_line, _length);
+                if (separator > 0) {
+                    _afterReturn = buf[i] == '\r';
+                    _length -= separator;
+                    line();
+                    _lineStart = position + i + 1;
+                }
+            }
+        }
+
+        /** Add the last line, if the input does not end with a line
+         *  separator. */
+        void finish() throws IOException {
+            if (_length > 0) {
+                line();
+            }
+        }
+
+        /** Return the number of messages added. */
+        long messages() {
+            return _messages;
+        }
+
+        /** Handle the line in _line, which starts at _lineStart. */
+        private void line() throws IOException {
+            boolean settings = false, ascii = true;
+            int chars = 0;
+            for (int i = 0; i < _length; i += 1) {
+                byte b = _line[i];
+                settings |= b == '*';
+                ascii &= b >= 0;
+                if (b != ' ') {
+                    chars += 1;
+                }
+            }
+            if (settings) {
+                _settings = _lineStart;
+                _chars = 0;
+                if (_setsRings.test(decode(Arrays.copyOf(_line, _length)))) {
+                    _ringsLine = _lineStart;
+                    _carriedRings = -1;
+                } else {
+                    _carriedRings = _ringsLine;
+                }
+            } else {
+                _out.writeLong(_lineStart);
+                _out.writeLong(_settings);
+                _out.writeLong(_chars);
+                _out.writeLong(_carriedRings);
+                _chars += ascii ? chars
+                    : decode(Arrays.copyOf(_line, _length))
+                      .replaceAll(" ", "").length();
+                _messages += 1;
+            }
+            _length = 0;
+        }
+
+        /** Destination of records. */
+        private final DataOutputStream _out;
+        /** Tells which settings lines set ring settings. */
+        private final Predicate<String> _setsRings;
+        /** The current line. */
+        private byte[] _line = new byte[INITIAL_LINE_BYTES];
+        /** Bytes in _line. */
+        private int _length;
+        /** Byte offset of the current line. */
+        private long _lineStart;
+        /** Byte offset of the last settings line, or -1. */
+        private long _settings = -1;
+        /** Characters of messages since the last settings line. */
+        private long _chars;
+        /** Byte offset of the last settings line that set ring settings,
+         *  or -1. */
+        private long _ringsLine = -1;
+        /** Byte offset of a settings line before the last whose ring
+         *  settings may still be in effect, or -1. */
+        private long _carriedRings = -1;
+        /** True iff the last line ended with a carriage return, which
+         *  forms one separator with a newline right after it. */
+        private boolean _afterReturn;
+        /** Number of messages so far. */
+        private long _messages;
+    }
+
+    /** Marks the start of an index file. */
+    static final int MAGIC = 0x454e4d49;
+
+    /** Longs in the record of each message. */
+    static final int RECORD_LONGS = 4;
+
+    /** Size of the header: magic, record size, input size, input
+     *  modification time, number of messages, number of rotor slots. */
+    static final int HEADER_BYTES = 36;
+
+    /** Line separators, as encoded in the default character set. */
+    private static final byte[][] SEPARATORS = separators();
+
+    /** Which bytes end one of SEPARATORS. */
+    private static final boolean[] SEPARATOR_ENDS =
+        separatorEnds(SEPARATORS);
+
+    /** Length in bytes of the longest of SEPARATORS. */
+    private static final int MAX_SEPARATOR_BYTES =
+        Arrays.stream(SEPARATORS).mapToInt(sep -> sep.length).max()
+        .orElse(1);
+
+    /** Bytes read at a time when building an index. */
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    /** Initial size of the line buffer when building an index. */
+    private static final int INITIAL_LINE_BYTES = 256;
+
+    /** Bytes read at a time when reading a line. */
+    private static final int LINE_BUFFER_BYTES = 4096;
+
+    /** The index file. */
+    private final FileChannel _index;
+
+    /** The input file. */
+    private final FileChannel _input;
+
+    /** Number of messages. */
+    private final long _count;
+
+    /** Number of the message whose record is in _record, or 0. */
+    private long _recordNumber;
+
+    /** The record most recently read. */
+    private final long[] _record = new long[RECORD_LONGS];
+}
@@ -13,8 +13,38 @@ class MovingRotor extends Rotor {
      *  alphabet).
      */
     MovingRotor(String name, Permutation perm, String notches) {
+        this(name, perm, notchSettings(perm.alphabet(), notches));
+    }
+
+    /** A rotor named NAME whose permutation in its default setting is
+     *  PERM, which is at a notch at each setting K for which NOTCHES[K]
+     *  is true.  NOTCHES is not copied. */
+    MovingRotor(String name, Permutation perm, boolean[] notches) {
         super(name, perm);
-        rotorNotch = notches.split("");
+        _notches = notches;
+    }
+
+    /** A moving rotor like ORIGINAL, sharing its lookup tables. */
+    MovingRotor(MovingRotor original) {
+        super(original);
+        _notches = original._notches;
+    }
+
+    /** Return, for each setting in ALPHA, whether its character is one
+     *  of NOTCHES. */
+    private static boolean[] notchSettings(Alphabet alpha, String notches) {
+        boolean[] result = new boolean[alpha.size()];
+        for (int i = 0; i < notches.length(); i += 1) {
+            if (alpha.contains(notches.charAt(i))) {
+                result[alpha.toInt(notches.charAt(i))] = true;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    Rotor copy() {
+        return new MovingRotor(this);
     }
 
     @Override
@@ -24,12 +54,12 @@ class MovingRotor extends Rotor {
 
     @Override
     boolean atNotch() {
-        for (String s : rotorNotch) {
-            if (permutation().alphabet().toChar(setting()) == s.charAt(0)) {
-                return true;
-            }
-        }
-        return false;
+        return notchAt(setting());
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notches[permutation().wrap(posn)];
     }
 
     @Override
@@ -37,7 +67,13 @@ class MovingRotor extends Rotor {
         set(setting() + 1);
     }
 
+    @Override
+    void retreat() {
+        set(setting() - 1);
+    }
+
     /** FIXME fixed : ADDITIONAL FIELDS HERE, AS NEEDED. */
-    private final String[] rotorNotch;
+    /** Whether I am at a notch at each setting. */
+    private final boolean[] _notches;
 
 }
@@ -71,4 +71,30 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkLargeAlphabetRotor() {
+        int n = Rotor.MAX_SQUARE_SIZE + 11;
+        StringBuilder chars = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            chars.append((char) ('\u0100' + i));
+        }
+        Alphabet big = new Alphabet(chars.toString());
+        StringBuilder cycle = new StringBuilder("(");
+        for (int i = 0; i < n; i += 2) {
+            cycle.append(big.toChar(i));
+        }
+        cycle.append(")");
+        Permutation perm = new Permutation(cycle.toString(), big);
+        rotor = new MovingRotor("big", perm, "");
+        rotor.set(7);
+        rotor.setRing(3);
+        for (int p = 0; p < n; p += 1) {
+            int e = perm.wrap(perm.permute(perm.wrap(p + 4)) - 4);
+            assertEquals(msg("big", "wrong translation of %d", p),
+                         e, rotor.convertForward(p));
+            assertEquals(msg("big", "wrong inverse of %d", e),
+                         p, rotor.convertBackward(e));
+        }
+    }
+
 }
@@ -0,0 +1,251 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.EnigmaException.*;
+
+/** A compact binary form of a stream of settings lines and messages,
+ *  storing each message character as its index in the alphabet in
+ *  bits() bits rather than as text in groups of five.  A stream starts
+ *  with a header: MAGIC (4 bytes), the bits per character (1 byte), the
+ *  size of the alphabet (4 bytes) and its fingerprint (8 bytes), so that
+ *  it is not read with another alphabet.  Records follow, each a kind
+ *  byte and a 4-byte length: a SETTINGS record is followed by that many
+ *  bytes of the settings line in UTF-8; a MESSAGE record holds that many
+ *  characters, packed most significant bit first and padded to a whole
+ *  byte.  Numbers are big-endian.  Settings lines are kept so that a
+ *  stream can be converted back, as a text input file can.
+ *  @author Lei Hao
+ */
+class PackedFormat {
+
+    /** Return the bits needed for an index into an alphabet of N
+     *  characters. */
+    static int bits(int n) {
+        return Math.max(1, Integer.SIZE
+                        - Integer.numberOfLeadingZeros(n - 1));
+    }
+
+    /** Return a hash of the characters of ALPHA, in order (64-bit
+     *  FNV-1a). */
+    static long fingerprint(Alphabet alpha) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < alpha.size(); i += 1) {
+            h = (h ^ alpha.toChar(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Writes settings lines and messages in packed form. */
+    static class Writer {
+
+        /** A Writer of characters of ALPHA to OUT, starting with the
+         *  header. */
+        Writer(OutputStream out, Alphabet alpha) {
+            _out = out;
+            _alphabet = alpha;
+            _bits = bits(alpha.size());
+            putInt(MAGIC);
+            putByte(_bits);
+            putInt(alpha.size());
+            putLong(fingerprint(alpha));
+        }
+
+        /** Write the settings line LINE. */
+        void settings(String line) {
+            byte[] text = line.getBytes(StandardCharsets.UTF_8);
+            putByte(SETTINGS);
+            putInt(text.length);
+            for (byte b : text) {
+                putByte(b);
+            }
+        }
+
+        /** Write MSG, whose characters are all in my alphabet. */
+        void message(String msg) {
+            putByte(MESSAGE);
+            putInt(msg.length());
+            long acc = 0;
+            int have = 0;
+            for (int i = 0; i < msg.length(); i += 1) {
+                acc = (acc << _bits) | _alphabet.toInt(msg.charAt(i));
+                have += _bits;
+                while (have >= Byte.SIZE) {
+                    have -= Byte.SIZE;
+                    putByte((int) (acc >>> have));
+                }
+            }
+            if (have > 0) {
+                putByte((int) (acc << (Byte.SIZE - have)));
+            }
+        }
+
+        /** Write out everything buffered. */
+        void flush() {
+            try {
+                _out.write(_buffer, 0, _length);
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write packed output");
+            }
+            _length = 0;
+        }
+
+        /** Buffer the low byte of B. */
+        private void putByte(int b) {
+            if (_length == _buffer.length) {
+                flush();
+            }
+            _buffer[_length] = (byte) b;
+            _length += 1;
+        }
+
+        /** Buffer X. */
+        private void putInt(int x) {
+            for (int s = Integer.SIZE - Byte.SIZE; s >= 0; s -= Byte.SIZE) {
+                putByte(x >>> s);
+            }
+        }
+
+        /** Buffer X. */
+        private void putLong(long x) {
+            putInt((int) (x >>> Integer.SIZE));
+            putInt((int) x);
+        }
+
+        /** Destination of the stream. */
+        private final OutputStream _out;
+        /** Alphabet of messages. */
+        private final Alphabet _alphabet;
+        /** Bits per character. */
+        private final int _bits;
+        /** Bytes not yet written. */
+        private final byte[] _buffer = new byte[BUFFER_BYTES];
+        /** Number of bytes in _buffer. */
+        private int _length;
+    }
+
+    /** Reads settings lines and messages in packed form. */
+    static class Reader {
+
+        /** A Reader of characters of ALPHA from IN, whose header must
+         *  match ALPHA. */
+        Reader(InputStream in, Alphabet alpha) {
+            _in = in;
+            _alphabet = alpha;
+            _bits = bits(alpha.size());
+            if (_limit == 0 && !fill() || getInt() != MAGIC) {
+                throw error("input is not in packed format");
+            }
+            if (getByte() != _bits || getInt() != alpha.size()
+                || getLong() != fingerprint(alpha)) {
+                throw error("packed input uses a different alphabet");
+            }
+        }
+
+        /** Return the next record: a settings line, or a message without
+         *  blanks.  Returns null at the end of the stream. */
+        String next() {
+            if (_next == _limit && !fill()) {
+                return null;
+            }
+            int kind = getByte();
+            int length = getInt();
+            if (length < 0) {
+                throw error("corrupt packed input");
+            }
+            if (kind == SETTINGS) {
+                byte[] text = new byte[length];
+                for (int i = 0; i < length; i += 1) {
+                    text[i] = (byte) getByte();
+                }
+                return new String(text, StandardCharsets.UTF_8);
+            }
+            if (kind != MESSAGE) {
+                throw error("corrupt packed input");
+            }
+            char[] msg = new char[length];
+            int mask = (1 << _bits) - 1;
+            long acc = 0;
+            int have = 0;
+            for (int i = 0; i < length; i += 1) {
+                while (have < _bits) {
+                    acc = (acc << Byte.SIZE) | getByte();
+                    have += Byte.SIZE;
+                }
+                have -= _bits;
+                int c = (int) (acc >>> have) & mask;
+                if (c >= _alphabet.size()) {
+                    throw error("corrupt packed input");
+                }
+                msg[i] = _alphabet.toChar(c);
+            }
+            return new String(msg);
+        }
+
+        /** Refill _buffer from the stream.  Returns false at its end. */
+        private boolean fill() {
+            try {
+                int n = _in.read(_buffer);
+                _next = 0;
+                _limit = Math.max(n, 0);
+                return n > 0;
+            } catch (IOException excp) {
+                throw error("could not read packed input");
+            }
+        }
+
+        /** Return the next byte, from 0 to 255. */
+        private int getByte() {
+            if (_next == _limit && !fill()) {
+                throw error("packed input truncated");
+            }
+            int result = _buffer[_next] & 0xff;
+            _next += 1;
+            return result;
+        }
+
+        /** Return the next int. */
+        private int getInt() {
+            int result = 0;
+            for (int i = 0; i < Integer.BYTES; i += 1) {
+                result = (result << Byte.SIZE) | getByte();
+            }
+            return result;
+        }
+
+        /** Return the next long. */
+        private long getLong() {
+            long high = getInt();
+            return (high << Integer.SIZE) | (getInt() & 0xffffffffL);
+        }
+
+        /** Source of the stream. */
+        private final InputStream _in;
+        /** Alphabet of messages. */
+        private final Alphabet _alphabet;
+        /** Bits per character. */
+        private final int _bits;
+        /** Bytes read from _in. */
+        private final byte[] _buffer = new byte[BUFFER_BYTES];
+        /** Position of the next byte in _buffer. */
+        private int _next;
+        /** Number of bytes in _buffer. */
+        private int _limit;
+    }
+
+    /** Marks the start of a packed stream. */
+    static final int MAGIC = 0x454e504b;
+
+    /** Kind of a record holding a settings line. */
+    static final int SETTINGS = 'S';
+
+    /** Kind of a record holding a message. */
+    static final int MESSAGE = 'M';
+
+    /** Size of the buffers of Readers and Writers. */
+    private static final int BUFFER_BYTES = 1 << 16;
+}
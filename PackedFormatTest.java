@@ -0,0 +1,193 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the PackedFormat class.
+ *  @author Lei Hao
+ */
+public class PackedFormatTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return RECORDS, settings lines (starting with '*') and messages
+     *  over ALPHA, in packed form. */
+    private byte[] pack(Alphabet alpha, List<String> records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PackedFormat.Writer writer = new PackedFormat.Writer(out, alpha);
+        for (String record : records) {
+            if (record.startsWith("*")) {
+                writer.settings(record);
+            } else {
+                writer.message(record);
+            }
+        }
+        writer.flush();
+        return out.toByteArray();
+    }
+
+    /** Return the records in BYTES, a packed stream over ALPHA. */
+    private List<String> unpack(Alphabet alpha, byte[] bytes) {
+        PackedFormat.Reader reader =
+            new PackedFormat.Reader(new ByteArrayInputStream(bytes), alpha);
+        ArrayList<String> result = new ArrayList<>();
+        for (String record = reader.next(); record != null;
+             record = reader.next()) {
+            result.add(record);
+        }
+        return result;
+    }
+
+    /** Return a random message of LENGTH characters of ALPHA, chosen by
+     *  RANDOM. */
+    private String message(Alphabet alpha, int length, Random random) {
+        char[] result = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(result);
+    }
+
+    /** Return an alphabet of the first N printable ASCII characters
+     *  from '!' on that may appear in one. */
+    private Alphabet alphabet(int n) {
+        StringBuilder chars = new StringBuilder();
+        for (char c = '!'; chars.length() < n; c += 1) {
+            if ("*,/()".indexOf(c) < 0) {
+                chars.append(c);
+            }
+        }
+        return new Alphabet(chars.toString());
+    }
+
+    /** Settings lines and messages over UPPER. */
+    private static final List<String> RECORDS =
+        Arrays.asList("* B Beta III IV I AXLE (HQ) (EX)",
+                      "HELLOWORLD", "", "* B Beta I II III ZZZZ \u00c4\u00d8",
+                      "A", "QWERTYUIOPASDFGHJKLZXCVBNM");
+
+    /** Header bytes of a packed stream. */
+    private static final int HEADER = 17;
+
+    /** Bytes of a record kind and length. */
+    private static final int RECORD = 5;
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkBits() {
+        int[][] cases = { { 2, 1 }, { 3, 2 }, { 4, 2 }, { 5, 3 },
+                          { 26, 5 }, { 32, 5 }, { 33, 6 }, { 89, 7 } };
+        for (int[] c : cases) {
+            assertEquals(msg("bits", "%d characters", c[0]), c[1],
+                         PackedFormat.bits(c[0]));
+        }
+    }
+
+    @Test
+    public void checkRoundTrip() {
+        assertEquals("upper", RECORDS, unpack(UPPER, pack(UPPER, RECORDS)));
+        Random random = new Random(47);
+        for (int n : new int[] { 2, 3, 7, 8, 9, 26, 64, 89 }) {
+            Alphabet alpha = alphabet(n);
+            ArrayList<String> records = new ArrayList<>();
+            for (int i = 0; i < 20; i += 1) {
+                records.add("* settings " + i);
+                records.add(message(alpha, random.nextInt(40), random));
+            }
+            records.add(message(alpha, 200000, random));
+            byte[] packed = pack(alpha, records);
+            assertEquals(msg("round trip", "%d characters", n), records,
+                         unpack(alpha, packed));
+            long expected = HEADER;
+            for (String record : records) {
+                expected += RECORD + (record.startsWith("*")
+                                      ? record.length()
+                                      : (record.length()
+                                         * PackedFormat.bits(n) + 7) / 8);
+            }
+            assertEquals(msg("size", "%d characters", n), expected,
+                         packed.length);
+        }
+    }
+
+    @Test
+    public void checkOtherAlphabet() {
+        byte[] packed = pack(UPPER, RECORDS);
+        Alphabet[] others = {
+            new Alphabet("BACDEFGHIJKLMNOPQRSTUVWXYZ"),
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXY"),
+            new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ0"),
+            alphabet(26),
+        };
+        for (Alphabet other : others) {
+            try {
+                unpack(other, packed);
+                fail(msg("other alphabet", "%d characters", other.size()));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void checkTruncated() {
+        byte[] packed = pack(UPPER, RECORDS);
+        ArrayList<Integer> boundaries = new ArrayList<>();
+        int end = HEADER;
+        boundaries.add(end);
+        for (String record : RECORDS) {
+            end += RECORD + (record.startsWith("*")
+                             ? record.getBytes(StandardCharsets.UTF_8).length
+                             : (record.length() * 5 + 7) / 8);
+            boundaries.add(end);
+        }
+        assertEquals("length", end, packed.length);
+        for (int cut = 0; cut < packed.length; cut += 1) {
+            byte[] part = Arrays.copyOf(packed, cut);
+            int whole = boundaries.indexOf(cut);
+            try {
+                List<String> records = unpack(UPPER, part);
+                assertTrue(msg("truncated", "at byte %d", cut), whole >= 0);
+                assertEquals(msg("records", "cut at byte %d", cut),
+                             RECORDS.subList(0, whole), records);
+            } catch (EnigmaException excp) {
+                assertTrue(msg("record boundary", "at byte %d", cut),
+                           whole < 0);
+            }
+        }
+    }
+
+    @Test
+    public void checkNotPacked() {
+        byte[][] inputs = {
+            "* B Beta III IV I AXLE\nHELLO WORLD\n"
+                .getBytes(StandardCharsets.UTF_8),
+            new byte[0],
+        };
+        for (byte[] input : inputs) {
+            try {
+                unpack(UPPER, input);
+                fail(msg("not packed", "%d bytes", input.length));
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package enigma;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.WeakHashMap;
 
 import static enigma.EnigmaException.*;
 
@@ -18,6 +19,7 @@ class Permutation {
      *  Whitespace is ignored. */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
+        int[] map = identity(alphabet.size());
         cycles = cycles.replace(" ", "");
         cycles = cycles.replace("(", "");
         String[] cycleArray = cycles.split("\\)");
@@ -30,20 +32,89 @@ class Permutation {
                                 + " is not in the alphabet.");
                     }
                 }
-                addCycle(a);
+                addCycle(map, a);
             }
         }
+        _table = new Table(map);
+        shareTable();
     }
 
-    /** Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
+    /** Set this Permutation to the one taking each index i of ALPHABET to
+     *  MAP[i]. */
+    Permutation(int[] map, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (map.length != alphabet.size()) {
+            throw error("permutation of %d characters for an alphabet of %d",
+                        map.length, alphabet.size());
+        }
+        for (int c : map) {
+            if (c < 0 || c >= map.length) {
+                throw error("character index %d out of range", c);
+            }
+        }
+        _table = new Table(map.clone());
+        shareTable();
+    }
+
+    /** Return the canonical permutation of ALPHABET given by CYCLES (see
+     *  Permutation(String, Alphabet)). */
+    static Permutation of(String cycles, Alphabet alphabet) {
+        return new Permutation(cycles, alphabet).intern();
+    }
+
+    /** Return the canonical permutation taking each index i of ALPHABET
+     *  to MAP[i]. */
+    static Permutation of(int[] map, Alphabet alphabet) {
+        return new Permutation(map, alphabet).intern();
+    }
+
+    /** Return the canonical permutation equal to me: the same object for
+     *  all equal permutations that are reachable, so that canonical
+     *  permutations may be compared with ==. */
+    Permutation intern() {
+        synchronized (POOL) {
+            WeakReference<Permutation> ref = POOL.get(this);
+            Permutation result = ref == null ? null : ref.get();
+            if (result == null) {
+                result = this;
+                POOL.put(this, new WeakReference<>(this));
+            }
+            return result;
+        }
+    }
+
+    /** Use the tables of an equal canonical permutation of my alphabet,
+     *  if there is one, so that equal wirings share theirs. */
+    private void shareTable() {
+        synchronized (POOL) {
+            WeakReference<Permutation> ref = POOL.get(this);
+            Permutation canonical = ref == null ? null : ref.get();
+            if (canonical != null) {
+                _table = canonical._table;
+            }
+        }
+    }
+
+    /** Return the identity map on 0 .. N-1. */
+    private static int[] identity(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** Add the cycle c0->c1->...->cm->c0 to MAP, where CYCLE is
      *  c0c1...cm.
      * @param cycle = "AELTPHQXRU". */
-    private void addCycle(String cycle) {
+    private void addCycle(int[] map, String cycle) {
         cycle = cycle.replace(" ", "");
         for (int i = 0; i < cycle.length() - 1; i++) {
-            cycleMap.put(cycle.charAt(i), cycle.charAt(i + 1));
+            map[alphabet().toInt(cycle.charAt(i))] =
+                alphabet().toInt(cycle.charAt(i + 1));
         }
-        cycleMap.put(cycle.charAt(cycle.length() - 1), cycle.charAt(0));
+        map[alphabet().toInt(cycle.charAt(cycle.length() - 1))] =
+            alphabet().toInt(cycle.charAt(0));
     }
 
     /** Return the value of P modulo the size of this permutation. */
@@ -63,12 +134,7 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        int index = wrap(p);
-        char a = permute(alphabet().toChar(index));
-        if (!alphabet().contains(a)) {
-            throw new EnigmaException(a + " is not in the alphabet. ");
-        }
-        return alphabet().toInt(a);
+        return _table.map[wrap(p)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -77,16 +143,13 @@ class Permutation {
         if (!alphabet().contains(p)) {
             throw new EnigmaException(p + " is not in the alphabet.");
         }
-        return cycleMap.getOrDefault(p, p);
+        return alphabet().toChar(_table.map[alphabet().toInt(p)]);
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        int index = wrap(c);
-        char a = alphabet().toChar(index);
-        char invertA = invert(a);
-        return alphabet().toInt(invertA);
+        return _table.inverse[wrap(c)];
     }
 
     /** Return the result of applying the inverse of this permutation to C. */
@@ -94,12 +157,7 @@ class Permutation {
         if (!alphabet().contains(c)) {
             throw new EnigmaException(c + " is not in the alphabet. ");
         }
-        for (Map.Entry<Character, Character> element : cycleMap.entrySet()) {
-            if (element.getValue() == c) {
-                return element.getKey();
-            }
-        }
-        return c;
+        return alphabet().toChar(_table.inverse[alphabet().toInt(c)]);
     }
 
     /** Return the alphabet used to initialize this Permutation. */
@@ -110,19 +168,76 @@ class Permutation {
     /** Return true iff this permutation is a derangement (i.e., a
      *  permutation for which no value maps to itself). */
     boolean derangement() {
-        for (Character s : cycleMap.keySet()) {
-            if (cycleMap.getOrDefault(s, s) == s) {
-                return true;
+        for (int i = 0; i < size(); i += 1) {
+            if (_table.map[i] == i) {
+                return false;
             }
         }
-        return false;
+        return true;
+    }
+
+    /** Return true iff I have the same table as OTHER: always true of
+     *  equal permutations made while a canonical one was reachable. */
+    boolean sharesTable(Permutation other) {
+        return _table == other._table;
+    }
+
+    /** Permutations are equal iff they have the same alphabet (the same
+     *  object) and the same mapping. */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Permutation)) {
+            return false;
+        }
+        Permutation other = (Permutation) obj;
+        return _alphabet == other._alphabet
+            && (_table == other._table
+                || _table.hash == other._table.hash
+                   && Arrays.equals(_table.map, other._table.map));
     }
 
+    @Override
+    public int hashCode() {
+        return _table.hash;
+    }
+
+    /** The immutable tables of a mapping, shared by all permutations
+     *  with the same mapping made while a canonical one is reachable. */
+    private static class Table {
+        /** Tables for the mapping MAP, which is not copied. */
+        Table(int[] map) {
+            this.map = map;
+            inverse = identity(map.length);
+            for (int i = 0; i < map.length; i += 1) {
+                if (map[i] != i) {
+                    inverse[map[i]] = i;
+                }
+            }
+            hash = Arrays.hashCode(map);
+        }
+
+        /** The image of each index. */
+        final int[] map;
+        /** The preimage of each index. */
+        final int[] inverse;
+        /** Hash of map. */
+        final int hash;
+    }
+
+    /** Canonical permutations, each mapped to a weak reference to
+     *  itself, so that an entry goes once nothing else refers to it. */
+    private static final WeakHashMap<Permutation,
+                                      WeakReference<Permutation>> POOL =
+        new WeakHashMap<>();
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
-    /** cycleMap of this permutation. */
-    private HashMap<Character, Character> cycleMap = new HashMap<>();
+    /** My mapping and its inverse. */
+    private Table _table;
 
 
     /** FIXME fixed : ADDITIONAL FIELDS HERE, AS NEEDED */
@@ -51,4 +51,40 @@ public class PermutationTest {
         checkPerm("identity", UPPER_STRING, UPPER_STRING);
     }
 
+    @Test
+    public void checkDerangement() {
+        assertFalse("identity", new Permutation("", UPPER).derangement());
+        assertTrue("naval B",
+                   new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse("fixed point",
+                    new Permutation("(AB) (S)", UPPER).derangement());
+    }
+
+    @Test
+    public void checkInterning() {
+        Permutation a = Permutation.of("(AELTPHQXRU) (BKNW)", UPPER);
+        Permutation b = new Permutation("(BKNW) (LTPHQXRUAE)", UPPER);
+        assertTrue("equal wirings", a.equals(b));
+        assertTrue("shared table", a.sharesTable(b));
+        assertTrue("canonical", a == b.intern());
+        assertTrue("canonical from table",
+                   a == Permutation.of(new int[] {
+                       4, 10, 2, 3, 11, 5, 6, 16, 8, 9, 13, 19, 12,
+                       22, 14, 7, 23, 20, 18, 15, 0, 21, 1, 17, 24, 25
+                   }, UPPER));
+        assertFalse("different wirings",
+                    a.equals(Permutation.of("(AE)", UPPER)));
+        checkPermFrom(b, "AELTPHQXRUBKNW", "ELTPHQXRUAKNWB");
+    }
+
+    /** Check that P maps each character of FROM to the corresponding
+     *  character of TO. */
+    private void checkPermFrom(Permutation p, String from, String to) {
+        for (int i = 0; i < from.length(); i += 1) {
+            assertEquals(msg("interned", "translation of '%c'",
+                             from.charAt(i)),
+                         to.charAt(i), p.permute(from.charAt(i)));
+        }
+    }
+
 }
@@ -0,0 +1,181 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.Scanner;
+import java.util.function.UnaryOperator;
+
+/** Three-stage processing of input lines: a reader thread fills batches
+ *  of lines from the input, the calling thread converts them, and a
+ *  writer thread prints the results.  The stages pass batches through
+ *  single-producer, single-consumer RingBuffers, and emptied batches go
+ *  back to the reader for reuse, so throughput is limited by the
+ *  slowest stage rather than by the sum of all three.
+ *  @author Lei Hao
+ */
+class Pipeline {
+
+    /** A pipeline reading lines from INPUT, converting each with CONVERT
+     *  (which returns null for lines that produce no output) and
+     *  printing the results, after applying FORMAT, to OUTPUT. */
+    Pipeline(Scanner input, PrintStream output,
+             UnaryOperator<String> convert, UnaryOperator<String> format) {
+        _input = input;
+        _output = output;
+        _convert = convert;
+        _format = format;
+        for (int i = 0; i < BATCHES; i += 1) {
+            _free.offer(new Batch());
+        }
+    }
+
+    /** Process all of the input.  If converting a line throws an
+     *  exception, the output for the preceding lines is still written,
+     *  and then the exception is rethrown. */
+    void run() {
+        Thread reader = new Thread(this::read, "enigma-reader");
+        Thread writer = new Thread(this::write, "enigma-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        RuntimeException failure = null;
+        try {
+            compute();
+        } catch (RuntimeException excp) {
+            failure = excp;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        _stop.set();
+        if (failure == null) {
+            failure = _failure;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /** The reader stage: fill free batches with input lines. */
+    private void read() {
+        try {
+            boolean more = true;
+            while (more) {
+                Batch batch = _free.take(_stop);
+                if (batch == null) {
+                    return;
+                }
+                batch.size = 0;
+                while (batch.size < BATCH_LINES
+                       && (more = _input.hasNextLine())) {
+                    batch.lines[batch.size] = _input.nextLine();
+                    batch.size += 1;
+                }
+                batch.last = !more;
+                if (!_read.put(batch, _stop)) {
+                    return;
+                }
+            }
+        } catch (RuntimeException excp) {
+            _failure = excp;
+            _stop.set();
+        }
+    }
+
+    /** The compute stage: convert each line of each batch in place.  A
+     *  batch whose conversion fails is truncated before the failing line
+     *  and marked last. */
+    private void compute() {
+        while (true) {
+            Batch batch = _read.take(_stop);
+            if (batch == null) {
+                return;
+            }
+            for (int i = 0; i < batch.size; i += 1) {
+                try {
+                    batch.lines[i] = _convert.apply(batch.lines[i]);
+                } catch (RuntimeException excp) {
+                    batch.size = i;
+                    batch.last = true;
+                    _converted.put(batch, _stop);
+                    throw excp;
+                }
+            }
+            if (!_converted.put(batch, _stop) || batch.last) {
+                return;
+            }
+        }
+    }
+
+    /** The writer stage: print the converted lines of each batch and
+     *  return the batch to the reader. */
+    private void write() {
+        try {
+            while (true) {
+                Batch batch = _converted.take(_stop);
+                if (batch == null) {
+                    return;
+                }
+                for (int i = 0; i < batch.size; i += 1) {
+                    if (batch.lines[i] != null) {
+                        _output.println(_format.apply(batch.lines[i]));
+                    }
+                    batch.lines[i] = null;
+                }
+                if (batch.last) {
+                    _output.flush();
+                    return;
+                }
+                _free.put(batch, _stop);
+            }
+        } catch (RuntimeException excp) {
+            _failure = excp;
+            _stop.set();
+        }
+    }
+
+    /** A reusable batch of lines. */
+    private static class Batch {
+        /** The lines of the batch. */
+        private final String[] lines = new String[BATCH_LINES];
+        /** Number of lines in use. */
+        private int size;
+        /** True iff no batches follow this one. */
+        private boolean last;
+    }
+
+    /** Number of batches in circulation; a power of 2. */
+    static final int BATCHES = 16;
+
+    /** Largest number of lines in one batch. */
+    static final int BATCH_LINES = 256;
+
+    /** Source of input lines. */
+    private final Scanner _input;
+
+    /** Destination of converted lines. */
+    private final PrintStream _output;
+
+    /** The conversion applied to each line. */
+    private final UnaryOperator<String> _convert;
+
+    /** The formatting applied to each converted line. */
+    private final UnaryOperator<String> _format;
+
+    /** Empty batches, from the writer to the reader. */
+    private final RingBuffer<Batch> _free = new RingBuffer<>(BATCHES);
+
+    /** Filled batches, from the reader to the compute stage. */
+    private final RingBuffer<Batch> _read = new RingBuffer<>(BATCHES);
+
+    /** Converted batches, from the compute stage to the writer. */
+    private final RingBuffer<Batch> _converted = new RingBuffer<>(BATCHES);
+
+    /** Set when the stages should give up. */
+    private final RingBuffer.Flag _stop = new RingBuffer.Flag();
+
+    /** Failure in the reader or writer stage, if any. */
+    private volatile RuntimeException _failure;
+}
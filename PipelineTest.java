@@ -0,0 +1,123 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Pipeline class, which check that
+ *  Main gives the same output, errors and exit code with --pipeline as
+ *  without it.
+ *  @author Lei Hao
+ */
+public class PipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with the naval reflector B, rotor Beta and rotors
+     *  I to III. */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + "5 3\n"
+        + "I MQ " + NAVALA.get("I") + "\n"
+        + "II ME " + NAVALA.get("II") + "\n"
+        + "III MV " + NAVALA.get("III") + "\n"
+        + "Beta N " + NAVALA.get("Beta") + "\n"
+        + "B R " + NAVALA.get("B") + "\n";
+
+    /** Return the exit code, standard output and standard error, in that
+     *  order, of Main run in a new process with the configuration CONFIG,
+     *  the input INPUT and the options OPTIONS. */
+    private String run(String input, String... options) throws IOException {
+        Path dir = Files.createTempDirectory("pipeline");
+        File config = dir.resolve("conf").toFile();
+        File in = dir.resolve("in").toFile();
+        File out = dir.resolve("out").toFile();
+        File err = dir.resolve("err").toFile();
+        try {
+            Files.writeString(config.toPath(), CONFIG);
+            Files.writeString(in.toPath(), input);
+            String[] command = new String[options.length + 6];
+            command[0] = Path.of(System.getProperty("java.home"), "bin",
+                                 "java").toString();
+            command[1] = "-cp";
+            command[2] = System.getProperty("java.class.path");
+            command[3] = "enigma.Main";
+            command[4] = config.toString();
+            command[5] = in.toString();
+            System.arraycopy(options, 0, command, 6, options.length);
+            Process p = new ProcessBuilder(command)
+                .redirectOutput(out).redirectError(err).start();
+            int code = p.waitFor();
+            return "exit " + code + "\n" + Files.readString(out.toPath())
+                + "stderr\n" + Files.readString(err.toPath());
+        } catch (InterruptedException excp) {
+            throw new IOException(excp);
+        } finally {
+            config.delete();
+            in.delete();
+            out.delete();
+            err.delete();
+            dir.toFile().delete();
+        }
+    }
+
+    /** Check that Main gives the same results for INPUT with --pipeline
+     *  as without it, and that it exits with code EXIT. */
+    private void check(String name, String input, int exit)
+        throws IOException {
+        String plain = run(input);
+        assertTrue(msg(name, "exit code in %s", plain),
+                   plain.startsWith("exit " + exit + "\n"));
+        assertEquals(msg(name, "pipeline"), plain, run(input, "--pipeline"));
+    }
+
+    /** Return INPUT repeated until there are more than LINES lines. */
+    private String repeat(String input, int lines) {
+        StringBuilder result = new StringBuilder();
+        long each = input.lines().count();
+        for (long i = 0; i <= lines; i += each) {
+            result.append(input);
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSameOutput() throws IOException {
+        check("messages",
+              repeat("* B Beta III II I AXLE (YF) (ZH)\n"
+                     + "FROM HIS SHOULDER HIAWATHA\n"
+                     + "* B Beta I II III QWER BCDE (AQ)\n"
+                     + "TOOK THE CAMERA OF ROSEWOOD\n",
+                     3 * Pipeline.BATCH_LINES), 0);
+    }
+
+    @Test
+    public void checkMessageBeforeSettings() throws IOException {
+        check("no settings", "HELLO WORLD\n* B Beta III II I AXLE\nAB\n",
+              1);
+        check("blank line", "\n* B Beta III II I AXLE\nAB\n", 1);
+    }
+
+    @Test
+    public void checkBadSettings() throws IOException {
+        check("bad settings",
+              repeat("* B Beta III II I AXLE (YF) (ZH)\n"
+                     + "FROM HIS SHOULDER HIAWATHA\n",
+                     Pipeline.BATCH_LINES)
+              + "* Beta B III II I AXLE\nAB\n", 1);
+    }
+}
@@ -0,0 +1,235 @@
+package enigma;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A plain Enigma machine kept as the reference that the fast engines
+ *  (Machine with its lookup tables and inner stack, CompiledMachine,
+ *  BatchMachine, StreamCodec, Machine.skip, Main) must agree with.  It
+ *  shares no code with them: it reads configurations and settings
+ *  lines itself, keeps each wiring as a map between characters, as
+ *  Permutation once did, and converts one character at a time by
+ *  walking the rotors, doing its arithmetic on positions in the
+ *  alphabet string.  It is slow on purpose, and should change only
+ *  when the behaviour of the machine is meant to change.
+ *  @author Lei Hao
+ */
+class ReferenceMachine {
+
+    /** A machine configured by the text of configuration file CONFIG,
+     *  with no rotors inserted. */
+    ReferenceMachine(String config) {
+        String[] tokens = config.trim().split("\\s+");
+        if (tokens.length < 3) {
+            throw error("configuration file truncated");
+        }
+        _alphabet = tokens[0];
+        try {
+            _numRotors = Integer.parseInt(tokens[1]);
+            _pawls = Integer.parseInt(tokens[2]);
+        } catch (NumberFormatException excp) {
+            throw error("bad rotor or pawl count");
+        }
+        int i = 3;
+        while (i < tokens.length) {
+            if (i + 1 >= tokens.length) {
+                throw error("rotor %s has no type", tokens[i]);
+            }
+            String name = tokens[i], type = tokens[i + 1];
+            StringBuilder cycles = new StringBuilder();
+            i += 2;
+            while (i < tokens.length && tokens[i].startsWith("(")) {
+                cycles.append(tokens[i]);
+                i += 1;
+            }
+            _rotors.put(name, new Wheel(type.charAt(0), type.substring(1),
+                                        cycles(cycles.toString())));
+        }
+        _slots = new Wheel[_numRotors];
+        _settings = new int[_numRotors];
+        _rings = new int[_numRotors];
+    }
+
+    /** Set me up according to the settings line SETTINGS: "*", the
+     *  names of the rotors, their positions, optionally their ring
+     *  settings, and plugboard cycles. */
+    void setUp(String settings) {
+        String[] tokens = settings.substring(settings.indexOf('*') + 1)
+            .trim().split("\\s+");
+        if (tokens.length <= _numRotors) {
+            throw error("too few settings in %s", settings);
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            _slots[k] = _rotors.get(tokens[k]);
+            if (_slots[k] == null) {
+                throw error("no rotor %s", tokens[k]);
+            }
+            _rings[k] = 0;
+        }
+        setPositions(tokens[_numRotors]);
+        int next = _numRotors + 1;
+        if (next < tokens.length && !tokens[next].startsWith("(")) {
+            setRings(tokens[next]);
+            next += 1;
+        }
+        StringBuilder plugs = new StringBuilder();
+        for (; next < tokens.length; next += 1) {
+            plugs.append(tokens[next]);
+        }
+        _plugboard = cycles(plugs.toString());
+    }
+
+    /** Set the positions of the rotors after the reflector to the
+     *  characters of POSITIONS. */
+    void setPositions(String positions) {
+        for (int k = 1; k < _numRotors; k += 1) {
+            _settings[k] = _alphabet.indexOf(positions.charAt(k - 1));
+        }
+    }
+
+    /** Set the ring settings of the rotors after the reflector to the
+     *  characters of RINGS. */
+    void setRings(String rings) {
+        for (int k = 1; k < _numRotors; k += 1) {
+            _rings[k] = _alphabet.indexOf(rings.charAt(k - 1));
+        }
+    }
+
+    /** Return the setting of each slot, as indices, 0 for the
+     *  reflector. */
+    int[] positions() {
+        return _settings.clone();
+    }
+
+    /** Advance the rotors and return the conversion of C. */
+    char convert(char c) {
+        step();
+        c = _plugboard.getOrDefault(c, c);
+        for (int k = _numRotors - 1; k > 0; k -= 1) {
+            c = through(k, c, _slots[k].forward);
+        }
+        c = _slots[0].forward.getOrDefault(c, c);
+        for (int k = 1; k < _numRotors; k += 1) {
+            c = through(k, c, _slots[k].backward);
+        }
+        return _plugboard.getOrDefault(c, c);
+    }
+
+    /** Return the conversion of MSG, one character at a time. */
+    String convert(String msg) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < msg.length(); i += 1) {
+            result.append(convert(msg.charAt(i)));
+        }
+        return result.toString();
+    }
+
+    /** Advance the rotors with pawls: the rightmost always, and any
+     *  rotor that rotates together with its right neighbour when that
+     *  neighbour is at a notch. */
+    private void step() {
+        boolean[] advance = new boolean[_numRotors];
+        for (int k = _numRotors - _pawls; k < _numRotors; k += 1) {
+            if (k == _numRotors - 1) {
+                advance[k] = true;
+            } else if (_slots[k].moving() && atNotch(k + 1)) {
+                advance[k] = true;
+                advance[k + 1] = true;
+            }
+        }
+        for (int k = 0; k < _numRotors; k += 1) {
+            if (advance[k] && _slots[k].moving()) {
+                _settings[k] = (_settings[k] + 1) % _alphabet.length();
+            }
+        }
+    }
+
+    /** Return true iff the rotor in slot K is at one of its notches. */
+    private boolean atNotch(int k) {
+        return _slots[k].moving()
+            && _slots[k].notches.indexOf(_alphabet.charAt(_settings[k])) >= 0;
+    }
+
+    /** Return the character that C becomes passing through WIRING of
+     *  the rotor in slot K at its present setting and ring setting. */
+    private char through(int k, char c, Map<Character, Character> wiring) {
+        int n = _alphabet.length();
+        int shift = _settings[k] - _rings[k];
+        char in = _alphabet.charAt(Math.floorMod(_alphabet.indexOf(c)
+                                                 + shift, n));
+        char out = wiring.getOrDefault(in, in);
+        return _alphabet.charAt(Math.floorMod(_alphabet.indexOf(out)
+                                              - shift, n));
+    }
+
+    /** Return the map from each character to the next in the cycles
+     *  CYCLES, such as "(AB)(CDE)". */
+    private Map<Character, Character> cycles(String cycles) {
+        HashMap<Character, Character> result = new HashMap<>();
+        for (String cycle : cycles.replace("(", "").split("\\)")) {
+            for (int i = 0; i < cycle.length(); i += 1) {
+                char c = cycle.charAt(i);
+                if (_alphabet.indexOf(c) < 0) {
+                    throw error("%c is not in the alphabet", c);
+                }
+                result.put(c, cycle.charAt((i + 1) % cycle.length()));
+            }
+        }
+        return result;
+    }
+
+    /** A rotor: its type, notches and wiring in each direction. */
+    private static class Wheel {
+        /** A rotor of type TYPE ('M', 'N' or 'R') with NOTCHES and
+         *  wiring FORWARD. */
+        Wheel(char type, String notches, Map<Character, Character> forward) {
+            this.type = type;
+            this.notches = notches;
+            this.forward = forward;
+            backward = new HashMap<>();
+            for (Map.Entry<Character, Character> e : forward.entrySet()) {
+                backward.put(e.getValue(), e.getKey());
+            }
+        }
+
+        /** Return true iff I rotate. */
+        boolean moving() {
+            return type == 'M';
+        }
+
+        /** My type. */
+        final char type;
+        /** Characters at which I am at a notch. */
+        final String notches;
+        /** My wiring from right to left. */
+        final Map<Character, Character> forward;
+        /** My wiring from left to right. */
+        final Map<Character, Character> backward;
+    }
+
+    /** The characters of my alphabet, in order. */
+    private final String _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Available rotors, by name. */
+    private final HashMap<String, Wheel> _rotors = new HashMap<>();
+
+    /** The rotor in each slot. */
+    private final Wheel[] _slots;
+
+    /** The setting of the rotor in each slot, as an index. */
+    private final int[] _settings;
+
+    /** The ring setting of the rotor in each slot, as an index. */
+    private final int[] _rings;
+
+    /** The plugboard. */
+    private Map<Character, Character> _plugboard = new HashMap<>();
+}
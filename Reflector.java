@@ -13,6 +13,16 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    /** A reflector like ORIGINAL, sharing its lookup tables. */
+    Reflector(Reflector original) {
+        super(original);
+    }
+
+    @Override
+    Rotor copy() {
+        return new Reflector(this);
+    }
+
     @Override
     boolean reflecting() {
         return true;
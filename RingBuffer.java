@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** A bounded, lock-free queue for exactly one producer thread and one
+ *  consumer thread.  The producer only writes _tail and the consumer
+ *  only writes _head, so no compare-and-set is needed; each side caches
+ *  the other's index and rereads it only when the queue looks full or
+ *  empty.
+ *  @author Lei Hao
+ */
+class RingBuffer<T> {
+
+    /** An empty queue holding up to CAPACITY items, which must be a
+     *  power of 2. */
+    RingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new EnigmaException("Ring buffer capacity " + capacity
+                    + " is not a power of 2.");
+        }
+        _items = new Object[capacity];
+        _mask = capacity - 1;
+    }
+
+    /** Add ITEM if there is room, returning true iff it was added.
+     *  Producer only. */
+    boolean offer(T item) {
+        long tail = _tail.get();
+        if (tail - _headCache >= _items.length) {
+            _headCache = _head.get();
+            if (tail - _headCache >= _items.length) {
+                return false;
+            }
+        }
+        _items[(int) tail & _mask] = item;
+        _tail.lazySet(tail + 1);
+        return true;
+    }
+
+    /** Remove and return the oldest item, or null if there is none.
+     *  Consumer only. */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long head = _head.get();
+        if (head >= _tailCache) {
+            _tailCache = _tail.get();
+            if (head >= _tailCache) {
+                return null;
+            }
+        }
+        int index = (int) head & _mask;
+        T item = (T) _items[index];
+        _items[index] = null;
+        _head.lazySet(head + 1);
+        return item;
+    }
+
+    /** Add ITEM, waiting for room.  Gives up and returns false if STOP
+     *  is set while waiting.  Producer only. */
+    boolean put(T item, Flag stop) {
+        for (int spins = 0; !offer(item); spins += 1) {
+            if (stop.isSet()) {
+                return false;
+            }
+            pause(spins);
+        }
+        return true;
+    }
+
+    /** Remove and return the oldest item, waiting for one.  Returns null
+     *  if STOP is set while waiting.  Consumer only. */
+    T take(Flag stop) {
+        T item;
+        for (int spins = 0; (item = poll()) == null; spins += 1) {
+            if (stop.isSet()) {
+                return null;
+            }
+            pause(spins);
+        }
+        return item;
+    }
+
+    /** Wait briefly after SPINS unsuccessful attempts: spin at first,
+     *  then park so that an idle stage does not hog a core. */
+    private static void pause(int spins) {
+        if (spins < MAX_SPINS) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** A flag that tells waiting threads to give up. */
+    static class Flag {
+        /** Return true iff I have been set. */
+        boolean isSet() {
+            return _set;
+        }
+
+        /** Set me. */
+        void set() {
+            _set = true;
+        }
+
+        /** True iff set() has been called. */
+        private volatile boolean _set;
+    }
+
+    /** Attempts spent spinning before parking. */
+    private static final int MAX_SPINS = 1000;
+
+    /** Time parked per attempt once spinning has not helped. */
+    private static final long PARK_NANOS = 50_000;
+
+    /** The items, at their index modulo the capacity. */
+    private final Object[] _items;
+
+    /** Capacity - 1. */
+    private final int _mask;
+
+    /** Index of the next item to remove. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Index of the next item to add. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** The producer's last reading of _head. */
+    private long _headCache;
+
+    /** The consumer's last reading of _tail. */
+    private long _tailCache;
+}
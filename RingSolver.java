@@ -0,0 +1,304 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.ToDoubleFunction;
+
+import static enigma.EnigmaException.*;
+
+/** Recovers ring settings once the rotor order and the offsets of the
+ *  rotors (their settings relative to their rings, which is what a
+ *  search with all rings at 0 finds) are known.  Changing a rotor's
+ *  ring while keeping its offset changes only when its notch is
+ *  reached, so the rings of the slow rotors, which that cannot affect
+ *  within the message, are left at 0.  For the fast rotors, the steps
+ *  at which each rotor moves and turns over are worked out from its
+ *  ring and from when its right neighbour turns over, from right to
+ *  left, so that the rings of a rotor are tried once for each distinct
+ *  way in which the rotors to its right turn over, not once for every
+ *  combination of their rings.  Only one combination of rings per
+ *  distinct stepping pattern is scored.
+ *  @author Lei Hao
+ */
+class RingSolver {
+
+    /** Run the solver with ARGS: the name of a configuration file, a
+     *  settings line giving the rotor order, approximate positions and
+     *  plugboard, the ciphertext, and a crib for its start.  Prints the
+     *  best settings line found, with ring settings. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 4) {
+                throw error("Usage: java enigma.RingSolver CONFIG SETTINGS "
+                            + "CIPHERTEXT CRIB");
+            }
+            Machine m = Main.loadConfig(args[0]);
+            Main.applySettings(m, args[1]);
+            RingSolver solver = new RingSolver(m, args[2].replaceAll(" ", ""),
+                                               cribScore(args[3]));
+            solver.solve(DEFAULT_FAST);
+            System.out.printf("%s (score %.3f, %d of %d ring settings "
+                              + "scored)%n", solver.settings(args[1]),
+                              solver.score(), solver.scored(),
+                              solver.combinations());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A solver for the rotors and plugboard currently in M, at the
+     *  offsets they now have, that ranks ring settings by the SCORE of
+     *  the decryption of CIPHER. */
+    RingSolver(Machine m, String cipher, ToDoubleFunction<String> score) {
+        _machine = m;
+        _cipher = cipher;
+        _score = score;
+        _slots = m.numRotors();
+        _offsets = new int[_slots];
+        for (int k = 1; k < _slots; k += 1) {
+            _offsets[k] = m.usedRotors().get(k).offset();
+        }
+        _rings = new int[_slots];
+        _best = new int[_slots];
+    }
+
+    /** Return a scoring function: the fraction of the characters of CRIB
+     *  that match the start of a decryption. */
+    static ToDoubleFunction<String> cribScore(String crib) {
+        String target = crib.replaceAll(" ", "");
+        return text -> {
+            int matches = 0;
+            int n = Math.min(target.length(), text.length());
+            for (int i = 0; i < n; i += 1) {
+                if (target.charAt(i) == text.charAt(i)) {
+                    matches += 1;
+                }
+            }
+            return (double) matches / Math.max(1, target.length());
+        };
+    }
+
+    /** Search the ring settings of the FAST rightmost moving rotors,
+     *  leaving the others at 0, and leave the machine set to the best
+     *  ring settings found. */
+    void solve(int fast) {
+        int n = _machine.alphabet().size();
+        _first = Math.max(_slots - Math.min(fast, _machine.numPawls()), 1);
+        _moves = new boolean[_slots][];
+        _notches = new boolean[_slots][];
+        _patterns = new HashSet<>();
+        _bestScore = Double.NEGATIVE_INFINITY;
+        _scored = 0;
+        _combinations = 1;
+        for (int k = _first; k < _slots; k += 1) {
+            _combinations *= n;
+        }
+        Arrays.fill(_rings, 0);
+        Arrays.fill(_best, 0);
+        search(_slots - 1, null);
+        reset(_best);
+        _moves = null;
+        _notches = null;
+        _patterns = null;
+    }
+
+    /** Try every ring setting of the rotor in slot K, whose right
+     *  neighbour is at a notch before step T iff RIGHT[T] (RIGHT is null
+     *  for the fastest rotor), and, for each distinct way in which it
+     *  then moves and carries, the ring settings of the searched rotors
+     *  to its left.  Ring settings of the rotors to the right of K are
+     *  those in _rings. */
+    private void search(int k, boolean[] right) {
+        if (k < _first) {
+            score(right);
+            return;
+        }
+        int n = _machine.alphabet().size();
+        HashSet<String> seen = new HashSet<>();
+        for (int ring = 0; ring < n; ring += 1) {
+            turnovers(k, ring, right);
+            if (seen.add(key(k))) {
+                _rings[k] = ring;
+                search(k - 1, _notches[k]);
+            }
+        }
+        _rings[k] = 0;
+    }
+
+    /** Score the decryption with ring settings _rings, unless its
+     *  stepping pattern has been scored already.  The searched rotors'
+     *  moves are in _moves; the leftmost of them is at a notch before
+     *  step T iff RIGHT[T]. */
+    private void score(boolean[] right) {
+        int lowest = _slots - _machine.numPawls();
+        for (int k = _first - 1; k >= lowest && k >= 1; k -= 1) {
+            turnovers(k, 0, right);
+            right = _notches[k];
+        }
+        StringBuilder pattern = new StringBuilder();
+        for (int k = Math.max(lowest, 1); k < _slots; k += 1) {
+            pattern.append(key(k, false));
+        }
+        if (!_patterns.add(pattern.toString())) {
+            return;
+        }
+        _scored += 1;
+        reset(_rings);
+        double score = _score.applyAsDouble(_machine.convert(_cipher));
+        if (score > _bestScore) {
+            _bestScore = score;
+            System.arraycopy(_rings, 0, _best, 0, _slots);
+        }
+    }
+
+    /** Set _moves[K][T] to whether the rotor in slot K, at its original
+     *  offset with ring setting RING, moves at step T of the message,
+     *  and _notches[K][T] to whether it is at a notch before that step,
+     *  given that its right neighbour is at a notch before step T iff
+     *  RIGHT[T] (RIGHT is null for the fastest rotor).  This follows the
+     *  rule of Machine.doubleStepping one rotor at a time: a rotor
+     *  moves if it is the fastest, if it rotates and its right neighbour
+     *  is at a notch, or if it is at a notch and its left neighbour
+     *  rotates and has a pawl.  Which of these happen depends only on
+     *  the rotors to its right, so the rotors can be taken from right to
+     *  left. */
+    private void turnovers(int k, int ring, boolean[] right) {
+        int length = _cipher.length();
+        Rotor rotor = _machine.usedRotors().get(k);
+        boolean pushes = k - 1 >= _slots - _machine.numPawls()
+            && _machine.usedRotors().get(k - 1).rotates();
+        boolean[] moves = new boolean[length];
+        boolean[] notches = new boolean[length];
+        int setting = _offsets[k] + ring;
+        for (int t = 0; t < length; t += 1) {
+            notches[t] = rotor.notchAt(setting);
+            moves[t] = rotor.rotates()
+                && (right == null || right[t] || (pushes && notches[t]));
+            if (moves[t]) {
+                setting += 1;
+            }
+        }
+        _moves[k] = moves;
+        _notches[k] = notches;
+    }
+
+    /** Return a string that is equal for two ring settings of the rotor
+     *  in slot K iff they give it the same moves and, if it can push its
+     *  left neighbour, the same notches, as last found by turnovers. */
+    private String key(int k) {
+        boolean pushes = k - 1 >= _slots - _machine.numPawls()
+            && _machine.usedRotors().get(k - 1).rotates();
+        return key(k, pushes);
+    }
+
+    /** Return the moves of the rotor in slot K, and its notches as well
+     *  if NOTCHES, as a string. */
+    private String key(int k, boolean notches) {
+        int length = _cipher.length();
+        char[] result = new char[notches ? 2 * length : length];
+        for (int t = 0; t < length; t += 1) {
+            result[t] = _moves[k][t] ? '1' : '0';
+            if (notches) {
+                result[length + t] = _notches[k][t] ? '1' : '0';
+            }
+        }
+        return new String(result);
+    }
+
+    /** Set each rotor to ring setting RINGS[k] at its original offset. */
+    private void reset(int[] rings) {
+        for (int k = 1; k < _slots; k += 1) {
+            _machine.setSlot(k, _offsets[k] + rings[k], rings[k]);
+        }
+    }
+
+    /** Return the score of the best ring settings found. */
+    double score() {
+        return _bestScore;
+    }
+
+    /** Return the number of ring settings scored in the last search. */
+    int scored() {
+        return _scored;
+    }
+
+    /** Return the number of ring settings considered in the last
+     *  search. */
+    int combinations() {
+        return _combinations;
+    }
+
+    /** Return the settings line SETTINGS with its positions replaced by
+     *  those found, followed by the ring settings found. */
+    String settings(String settings) {
+        Alphabet alpha = _machine.alphabet();
+        StringBuilder positions = new StringBuilder();
+        StringBuilder rings = new StringBuilder();
+        for (int k = 1; k < _slots; k += 1) {
+            positions.append(alpha.toChar((_offsets[k] + _best[k])
+                                          % alpha.size()));
+            rings.append(alpha.toChar(_best[k]));
+        }
+        StringBuilder result = new StringBuilder("*");
+        for (Rotor r : _machine.usedRotors()) {
+            result.append(' ').append(r.name());
+        }
+        result.append(' ').append(positions).append(' ').append(rings);
+        for (String word : settings.trim().split("\\s+")) {
+            if (word.startsWith("(")) {
+                result.append(' ').append(word);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Number of rightmost moving rotors whose rings are searched by
+     *  default. */
+    static final int DEFAULT_FAST = 2;
+
+    /** The machine being solved. */
+    private final Machine _machine;
+
+    /** The ciphertext. */
+    private final String _cipher;
+
+    /** Scores decryptions; higher is better. */
+    private final ToDoubleFunction<String> _score;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Offset of the rotor in each slot. */
+    private final int[] _offsets;
+
+    /** Ring settings being considered. */
+    private final int[] _rings;
+
+    /** Best ring settings found. */
+    private final int[] _best;
+
+    /** Leftmost slot whose ring setting is searched. */
+    private int _first;
+
+    /** During a search, whether the rotor in each slot moves at each
+     *  step of the message. */
+    private boolean[][] _moves;
+
+    /** During a search, whether the rotor in each slot is at a notch
+     *  before each step of the message. */
+    private boolean[][] _notches;
+
+    /** During a search, the stepping patterns already scored. */
+    private HashSet<String> _patterns;
+
+    /** Score of _best. */
+    private double _bestScore;
+
+    /** Number of ring settings scored. */
+    private int _scored;
+
+    /** Number of ring settings considered. */
+    private int _combinations;
+}
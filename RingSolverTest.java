@@ -0,0 +1,131 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the RingSolver class.
+ *  @author Lei Hao
+ */
+public class RingSolverTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(30);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with 5 slots and 3 pawls and the reflector
+     *  B, rotor Beta and rotors I to V available, set up by the settings
+     *  line SETTINGS. */
+    private Machine machine(String settings) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[] moving = { "I", "Q", "II", "E", "III", "V", "IV", "J",
+                            "V", "Z" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        Machine m = new Machine(UPPER, 5, 3, rotors);
+        Main.applySettings(m, settings);
+        return m;
+    }
+
+    /** Return the number of distinct stepping patterns of M, over LENGTH
+     *  characters, among all ring settings of its FAST rightmost rotors
+     *  with the others at 0, keeping its rotors' offsets, found by
+     *  stepping the machine for each combination of ring settings. */
+    private int patterns(Machine m, int fast, int length) {
+        int slots = m.numRotors();
+        int[] offsets = new int[slots];
+        for (int k = 1; k < slots; k += 1) {
+            offsets[k] = m.usedRotors().get(k).offset();
+        }
+        HashSet<String> patterns = new HashSet<>();
+        int[] rings = new int[slots];
+        int combinations = (int) Math.pow(26, fast);
+        for (int c = 0; c < combinations; c += 1) {
+            for (int k = slots - 1, rest = c; k >= slots - fast; k -= 1) {
+                rings[k] = rest % 26;
+                rest /= 26;
+            }
+            for (int k = 1; k < slots; k += 1) {
+                m.setSlot(k, offsets[k] + rings[k], rings[k]);
+            }
+            StringBuilder pattern = new StringBuilder();
+            for (int i = 0; i < length; i += 1) {
+                m.doubleStepping();
+                for (int k = 1; k < slots; k += 1) {
+                    pattern.append(UPPER.toChar(m.usedRotors().get(k)
+                                                .offset()));
+                }
+            }
+            patterns.add(pattern.toString());
+        }
+        return patterns.size();
+    }
+
+    /** A plaintext. */
+    private static final String PLAIN =
+        "ANYTHINGTHATCANGOWRONGWILLGOWRONGATTHEWORSTPOSSIBLEMOMENT";
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFindsRings() {
+        String key = "* B Beta III IV I QEVJ AAKF (AZ) (QR)";
+        String cipher = machine(key).convert(PLAIN);
+        String start = "* B Beta III IV I QELE (AZ) (QR)";
+        Machine m = machine(start);
+        RingSolver solver = new RingSolver(m, cipher,
+                                           RingSolver.cribScore(PLAIN));
+        solver.solve(RingSolver.DEFAULT_FAST);
+        assertEquals("score", 1.0, solver.score(), 1e-9);
+        assertEquals("combinations", 26 * 26, solver.combinations());
+        assertTrue("fewer scored", solver.scored() < 26 * 26);
+        assertEquals("solved machine", PLAIN, m.convert(cipher));
+        String settings = solver.settings(start);
+        assertEquals("settings line", PLAIN,
+                     machine(settings).convert(cipher));
+        Machine fresh = machine(key);
+        Main.applySettings(fresh, settings);
+        assertEquals("settings line after other rings", PLAIN,
+                     fresh.convert(cipher));
+    }
+
+    @Test
+    public void checkPatternsCounted() {
+        Random random = new Random(31);
+        for (int trial = 0; trial < 40; trial += 1) {
+            char[] positions = new char[4];
+            for (int i = 0; i < positions.length; i += 1) {
+                positions[i] = UPPER.toChar(random.nextInt(26));
+            }
+            String settings = "* B Beta I II III " + new String(positions);
+            int fast = 1 + trial % 3;
+            int length = 5 + random.nextInt(60);
+            String cipher = PLAIN.repeat(2).substring(0, length);
+            RingSolver solver = new RingSolver(machine(settings), cipher,
+                                               text -> 0);
+            solver.solve(fast);
+            assertEquals(msg("patterns", "%s, %d fast rotors, length %d",
+                             settings, fast, length),
+                         patterns(machine(settings), fast, length),
+                         solver.scored());
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.WeakHashMap;
+
 import static enigma.EnigmaException.*;
 
 /** Superclass that represents a rotor in the enigma machine.
@@ -7,12 +9,130 @@ import static enigma.EnigmaException.*;
  */
 class Rotor {
 
-    /** A rotor named NAME whose permutation is given by PERM. */
+    /** A rotor named NAME whose permutation is given by PERM, or rather
+     *  by the canonical permutation equal to it. */
     Rotor(String name, Permutation perm) {
         _name = name;
-        _permutation = perm;
+        _permutation = perm.intern();
         _setting = 0;
         _ringSetting = 0;
+        buildTables();
+        updateOffset();
+    }
+
+    /** A rotor with the same name, wiring and settings as ORIGINAL,
+     *  sharing its lookup tables. */
+    Rotor(Rotor original) {
+        _name = original._name;
+        _permutation = original._permutation;
+        _setting = original._setting;
+        _ringSetting = original._ringSetting;
+        _square = original._square;
+        _forward = original._forward;
+        _backward = original._backward;
+        _wrapped = original._wrapped;
+        updateOffset();
+    }
+
+    /** Return a new rotor like me whose settings may be changed
+     *  independently of mine. */
+    Rotor copy() {
+        return new Rotor(this);
+    }
+
+    /** Fill in my lookup tables, sharing those of other rotors with the
+     *  same permutation.  For alphabets of at most MAX_SQUARE_SIZE
+     *  characters, the tables are size() x size(), indexed by offset and
+     *  input, so that a conversion is a single load.  Larger alphabets
+     *  fall back to doubled-length tables, which take two loads but only
+     *  linear space. */
+    private void buildTables() {
+        int[][] tables;
+        synchronized (TABLES) {
+            tables = TABLES.get(_permutation);
+            if (tables == null) {
+                tables = makeTables(_permutation);
+                TABLES.put(_permutation, tables);
+            }
+        }
+        _square = tables.length == 2;
+        _forward = tables[0];
+        _backward = tables[1];
+        _wrapped = _square ? null : tables[2];
+    }
+
+    /** Return the lookup tables for PERM: forward and backward tables,
+     *  followed, for doubled-length tables, by the wrapping table. */
+    private static int[][] makeTables(Permutation perm) {
+        int n = perm.size();
+        int[] map = new int[n];
+        int[] inverse = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            map[i] = perm.permute(i);
+            inverse[map[i]] = i;
+        }
+        if (n <= MAX_SQUARE_SIZE) {
+            int[] forward = new int[n * n];
+            int[] backward = new int[n * n];
+            for (int o = 0; o < n; o += 1) {
+                for (int p = 0; p < n; p += 1) {
+                    int k = (p + o) % n;
+                    forward[o * n + p] = (map[k] - o + n) % n;
+                    backward[o * n + p] = (inverse[k] - o + n) % n;
+                }
+            }
+            return new int[][] { forward, backward };
+        } else {
+            int[] forward = new int[2 * n];
+            int[] backward = new int[2 * n];
+            int[] wrapped = new int[2 * n];
+            for (int i = 0; i < 2 * n; i += 1) {
+                forward[i] = map[i % n] + n;
+                backward[i] = inverse[i % n] + n;
+                wrapped[i] = i % n;
+            }
+            return new int[][] { forward, backward, wrapped };
+        }
+    }
+
+    /** Return my forward lookup table, indexed by offset() * size() plus
+     *  input, or null if my alphabet is too large for one. */
+    int[] forwardTable() {
+        return _square ? _forward : null;
+    }
+
+    /** Return my backward lookup table, indexed by offset() * size() plus
+     *  input, or null if my alphabet is too large for one. */
+    int[] backwardTable() {
+        return _square ? _backward : null;
+    }
+
+    /** Return my doubled-length forward table, indexed by offset() plus
+     *  input, whose entries less offset() are reduced modulo size() by
+     *  wrappingTable(); or null if I have square tables. */
+    int[] doubledForwardTable() {
+        return _square ? null : _forward;
+    }
+
+    /** Return my doubled-length backward table, used as for
+     *  doubledForwardTable(), or null if I have square tables. */
+    int[] doubledBackwardTable() {
+        return _square ? null : _backward;
+    }
+
+    /** Return the table mapping 0 .. 2 * size() - 1 modulo size() for my
+     *  doubled-length tables, or null if I have square tables. */
+    int[] wrappingTable() {
+        return _wrapped;
+    }
+
+    /** Return the number of bytes used by my lookup tables. */
+    long tableBytes() {
+        long entries = _forward.length + _backward.length;
+        if (_wrapped != null) {
+            entries += _wrapped.length;
+        }
+        return entries * Integer.BYTES;
     }
 
     /** Return my name. */
@@ -55,9 +175,16 @@ class Rotor {
         return _ringSetting;
     }
 
+    /** Return my setting relative to my ring setting, which together
+     *  with my wiring determines how I convert. */
+    int offset() {
+        return _offset;
+    }
+
     /** Set setting() to POSN.  */
     void set(int posn) {
         _setting = _permutation.wrap(posn);
+        updateOffset();
     }
 
     /** Set setting() to character CPOSN. */
@@ -68,6 +195,7 @@ class Rotor {
     /** Set ring setting() to POSN.  */
     void setRing(int posn) {
         _ringSetting = _permutation.wrap(posn);
+        updateOffset();
     }
 
     /** Set ring setting() to POSN.
@@ -77,20 +205,29 @@ class Rotor {
     }
 
 
+    /** Recompute _offset and _row after a change of setting or ring
+     *  setting. */
+    private void updateOffset() {
+        _offset = _permutation.wrap(_setting - _ringSetting);
+        _row = _offset * size();
+    }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int ring = _permutation.wrap(_setting - ringSetting());
-        int forwardIndex = _permutation.permute(_permutation.wrap(p + ring));
-        return _permutation.wrap(forwardIndex - ring);
+        if (_square) {
+            return _forward[_row + p];
+        }
+        return _wrapped[_forward[p + _offset] - _offset];
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int ring = _permutation.wrap(_setting - _ringSetting);
-        int backwardIndex = _permutation.invert(_permutation.wrap(e + ring));
-        return _permutation.wrap(backwardIndex - ring);
+        if (_square) {
+            return _backward[_row + e];
+        }
+        return _wrapped[_backward[e + _offset] - _offset];
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -99,10 +236,21 @@ class Rotor {
         return false;
     }
 
+    /** Returns true iff I would be at a notch at setting POSN (taken
+     *  modulo size()). */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /** Advance me one position, if possible. By default, does nothing. */
     void advance() {
     }
 
+    /** Move me back one position, undoing advance(), if possible. By
+     *  default, does nothing. */
+    void retreat() {
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -120,6 +268,33 @@ class Rotor {
     /** The permutation implemented by this _ringSetting. */
     private int _ringSetting;
 
+    /** Lookup tables (see makeTables) of each canonical permutation in
+     *  use by a rotor. */
+    private static final WeakHashMap<Permutation, int[][]> TABLES =
+        new WeakHashMap<>();
+
+    /** Alphabet sizes up to this use size() x size() lookup tables. */
+    static final int MAX_SQUARE_SIZE = 64;
+
+    /** My setting relative to my ring setting, modulo size(). */
+    private int _offset;
+
+    /** Start of the row for _offset in the square tables. */
+    private int _row;
+
+    /** True iff _forward and _backward are size() x size() tables. */
+    private boolean _square;
+
+    /** Forward conversions, indexed by offset and input. */
+    private int[] _forward;
+
+    /** Backward conversions, indexed by offset and input. */
+    private int[] _backward;
+
+    /** For doubled-length tables, maps 0 .. 2 * size() - 1 modulo
+     *  size(); null for square tables. */
+    private int[] _wrapped;
+
     /** FIXME fixed : ADDITIONAL FIELDS HERE, AS NEEDED */
 
 }
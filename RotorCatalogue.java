@@ -0,0 +1,406 @@
+package enigma;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors available to a machine, stored compactly.  The wirings of
+ *  parsed rotors are packed into one char[] arena, each occupying n
+ *  consecutive entries of an arena slot for an alphabet of size n;
+ *  notches are bitsets in one long[]; names are kept in one char[]
+ *  string table with an open-addressed hash index of the first rotor of
+ *  each name, the others of the same name being chained from it.  A
+ *  rotor may also be added unparsed, as the place of its description in
+ *  the text of a configuration file; its wiring and notches are parsed,
+ *  and given an arena slot, the first time it is needed.  The Rotor
+ *  objects (with their lookup tables) are views made the first time a
+ *  rotor is asked for by get and kept from then on, so only the rotors
+ *  actually used cost more than a few dozen bytes.
+ *  @author Lei Hao
+ */
+class RotorCatalogue extends AbstractCollection<Rotor> {
+
+    /** An empty catalogue of rotors with alphabet ALPHABET. */
+    RotorCatalogue(Alphabet alphabet) {
+        this(alphabet, null);
+    }
+
+    /** An empty catalogue of rotors with alphabet ALPHABET, whose
+     *  unparsed rotors are described in the configuration text SOURCE. */
+    RotorCatalogue(Alphabet alphabet, String source) {
+        _alphabet = alphabet;
+        _source = source;
+        _n = alphabet.size();
+        _notchWords = (_n + Long.SIZE - 1) / Long.SIZE;
+        _wirings = new char[INITIAL_CAPACITY * _n];
+        _notches = new long[INITIAL_CAPACITY * _notchWords];
+        _types = new byte[INITIAL_CAPACITY];
+        _nameEnds = new int[INITIAL_CAPACITY];
+        _slots = new int[INITIAL_CAPACITY];
+        _nextNamed = new int[INITIAL_CAPACITY];
+        _starts = new int[INITIAL_CAPACITY];
+        _ends = new int[INITIAL_CAPACITY];
+        _names = new char[INITIAL_CAPACITY * 4];
+        _index = new int[2 * INITIAL_CAPACITY];
+    }
+
+    /** Add a rotor named NAME of type TYPE ('M' for moving, 'N' for
+     *  non-moving, 'R' for a reflector) with wiring PERM and, if moving,
+     *  notches at the characters of NOTCHES. */
+    synchronized void add(String name, char type, String notches,
+                          Permutation perm) {
+        fill(entry(name, type), notches, perm);
+    }
+
+    /** Add a rotor named NAME of type TYPE, described by the logical line
+     *  of my source text from START to END (see line), to be parsed when
+     *  first needed. */
+    synchronized void addUnparsed(String name, char type, int start,
+                                  int end) {
+        int i = entry(name, type);
+        _starts[i] = start;
+        _ends[i] = end;
+    }
+
+    /** Parse every rotor not parsed yet, so that any error in the
+     *  description of a rotor, used or not, is reported now. */
+    synchronized void validate() {
+        for (int i = 0; i < _size; i += 1) {
+            parse(i);
+        }
+    }
+
+    /** Return the number of rotors parsed so far. */
+    synchronized int parsed() {
+        return _filled;
+    }
+
+    /** Return the logical line of configuration text TEXT from START to
+     *  END: its physical lines, each trimmed, run together. */
+    static String line(String text, int start, int end) {
+        int newline = text.indexOf('\n', start);
+        if (newline < 0 || newline >= end) {
+            return text.substring(start, end).trim();
+        }
+        StringBuilder result = new StringBuilder();
+        while (start < end) {
+            newline = text.indexOf('\n', start);
+            if (newline < 0 || newline > end) {
+                newline = end;
+            }
+            result.append(text.substring(start, newline).trim());
+            start = newline + 1;
+        }
+        return result.toString();
+    }
+
+    /** Add an entry for a rotor named NAME of type TYPE, with no wiring
+     *  yet, and return its number. */
+    private int entry(String name, char type) {
+        if (type != MOVING && type != FIXED && type != REFLECTOR) {
+            throw error("unknown rotor type %c", type);
+        }
+        if (_size == _types.length) {
+            grow();
+        }
+        int i = _size;
+        _slots[i] = -1;
+        _types[i] = (byte) type;
+        int start = i == 0 ? 0 : _nameEnds[i - 1];
+        if (start + name.length() > _names.length) {
+            _names = Arrays.copyOf(_names,
+                                   Math.max(2 * _names.length,
+                                            start + name.length()));
+        }
+        name.getChars(0, name.length(), _names, start);
+        _nameEnds[i] = start + name.length();
+        _size += 1;
+        _nextNamed[i] = -1;
+        int same = indexOf(name);
+        if (same >= 0) {
+            while (_nextNamed[same] >= 0) {
+                same = _nextNamed[same];
+            }
+            _nextNamed[same] = i;
+        } else {
+            insert(i);
+        }
+        return i;
+    }
+
+    /** Give rotor number I an arena slot holding wiring PERM and notches
+     *  at the characters of NOTCHES. */
+    private void fill(int i, String notches, Permutation perm) {
+        if (_filled * _n == _wirings.length) {
+            int capacity = 2 * _filled;
+            _wirings = Arrays.copyOf(_wirings, capacity * _n);
+            _notches = Arrays.copyOf(_notches, capacity * _notchWords);
+        }
+        int slot = _filled;
+        for (int c = 0; c < _n; c += 1) {
+            _wirings[slot * _n + c] = (char) perm.permute(c);
+        }
+        for (int k = 0; k < notches.length(); k += 1) {
+            if (_alphabet.contains(notches.charAt(k))) {
+                int c = _alphabet.toInt(notches.charAt(k));
+                _notches[slot * _notchWords + c / Long.SIZE] |= bit(c);
+            }
+        }
+        _slots[i] = slot;
+        _filled += 1;
+    }
+
+    /** Parse the description of rotor number I if that has not been
+     *  done. */
+    private void parse(int i) {
+        if (_slots[i] >= 0) {
+            return;
+        }
+        String line = line(_source, _starts[i], _ends[i]);
+        int typeStart = line.indexOf(' ') + 1;
+        int cyclesStart = line.indexOf(' ', typeStart) + 1;
+        String notches =
+            _types[i] == MOVING ? line.substring(typeStart + 1,
+                                                 cyclesStart - 1) : "";
+        Permutation perm;
+        try {
+            perm = new Permutation(line.substring(cyclesStart), _alphabet);
+        } catch (EnigmaException excp) {
+            throw error("rotor %s: %s", name(i), excp.getMessage());
+        }
+        fill(i, notches, perm);
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /** Return the position of the first rotor named NAME, or -1 if
+     *  there is none. */
+    int indexOf(String name) {
+        int mask = _index.length - 1;
+        for (int h = name.hashCode() & mask; _index[h] != 0;
+             h = (h + 1) & mask) {
+            if (nameEquals(_index[h] - 1, name)) {
+                return _index[h] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Return the position of the next rotor after rotor number I with
+     *  the same name, or -1 if there is none. */
+    int nextNamed(int i) {
+        return _nextNamed[i];
+    }
+
+    /** Return the first rotor named NAME, or null if there is none. */
+    Rotor get(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : get(i);
+    }
+
+    /** Return rotor number I, making it the first time it is asked
+     *  for. */
+    synchronized Rotor get(int i) {
+        Rotor result = _views.get(i);
+        if (result == null) {
+            result = view(i);
+            _views.put(i, result);
+        }
+        return result;
+    }
+
+    /** Return the name of rotor number I. */
+    String name(int i) {
+        int start = i == 0 ? 0 : _nameEnds[i - 1];
+        return new String(_names, start, _nameEnds[i] - start);
+    }
+
+    /** Return the number of bytes in my arenas and index. */
+    synchronized long arenaBytes() {
+        return 2L * _wirings.length + 8L * _notches.length + _types.length
+            + 4L * (_nameEnds.length + _slots.length + _nextNamed.length
+                    + _starts.length + _ends.length + _index.length)
+            + 2L * _names.length;
+    }
+
+    /** Iterates over all rotors, parsing any not parsed yet.  Rotors
+     *  that have not been made yet are made afresh and not kept, so that
+     *  iterating over a large catalogue does not fill the heap. */
+    @Override
+    public Iterator<Rotor> iterator() {
+        return new Iterator<Rotor>() {
+            @Override
+            public boolean hasNext() {
+                return _next < _size;
+            }
+
+            @Override
+            public Rotor next() {
+                if (_next >= _size) {
+                    throw new NoSuchElementException();
+                }
+                Rotor result;
+                synchronized (RotorCatalogue.this) {
+                    result = _views.get(_next);
+                }
+                if (result == null) {
+                    result = view(_next);
+                }
+                _next += 1;
+                return result;
+            }
+
+            /** Position of the next rotor. */
+            private int _next;
+        };
+    }
+
+    /** Return a new Rotor for rotor number I, parsing it if need be. */
+    private synchronized Rotor view(int i) {
+        parse(i);
+        int slot = _slots[i];
+        int[] map = new int[_n];
+        boolean[] notches = new boolean[_n];
+        for (int c = 0; c < _n; c += 1) {
+            map[c] = _wirings[slot * _n + c];
+            long word = _notches[slot * _notchWords + c / Long.SIZE];
+            notches[c] = (word & bit(c)) != 0;
+        }
+        Permutation perm = Permutation.of(map, _alphabet);
+        switch (_types[i]) {
+        case MOVING:
+            return new MovingRotor(name(i), perm, notches);
+        case FIXED:
+            return new FixedRotor(name(i), perm);
+        default:
+            return new Reflector(name(i), perm);
+        }
+    }
+
+    /** Return the bit for index C in its word of a notch bitset. */
+    private static long bit(int c) {
+        return 1L << (c % Long.SIZE);
+    }
+
+    /** Return true iff rotor number I is named NAME. */
+    private boolean nameEquals(int i, String name) {
+        int start = i == 0 ? 0 : _nameEnds[i - 1];
+        if (_nameEnds[i] - start != name.length()) {
+            return false;
+        }
+        for (int k = 0; k < name.length(); k += 1) {
+            if (_names[start + k] != name.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Add rotor number I to the name index. */
+    private void insert(int i) {
+        if (2 * _size > _index.length) {
+            int[] old = _index;
+            _index = new int[2 * old.length];
+            for (int entry : old) {
+                if (entry != 0) {
+                    place(entry - 1);
+                }
+            }
+        }
+        place(i);
+    }
+
+    /** Put rotor number I in the first free slot of the name index for
+     *  its name. */
+    private void place(int i) {
+        int mask = _index.length - 1;
+        int h = name(i).hashCode() & mask;
+        while (_index[h] != 0) {
+            h = (h + 1) & mask;
+        }
+        _index[h] = i + 1;
+    }
+
+    /** Double the capacity of the per-rotor arrays. */
+    private void grow() {
+        int capacity = 2 * _types.length;
+        _types = Arrays.copyOf(_types, capacity);
+        _nameEnds = Arrays.copyOf(_nameEnds, capacity);
+        _slots = Arrays.copyOf(_slots, capacity);
+        _nextNamed = Arrays.copyOf(_nextNamed, capacity);
+        _starts = Arrays.copyOf(_starts, capacity);
+        _ends = Arrays.copyOf(_ends, capacity);
+    }
+
+    /** Type code of a moving rotor. */
+    static final char MOVING = 'M';
+
+    /** Type code of a non-moving rotor. */
+    static final char FIXED = 'N';
+
+    /** Type code of a reflector. */
+    static final char REFLECTOR = 'R';
+
+    /** Initial number of rotors with room in the arenas; a power of 2. */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _n;
+
+    /** Number of longs in the notch bitset of each rotor. */
+    private final int _notchWords;
+
+    /** Configuration text describing the unparsed rotors, or null. */
+    private final String _source;
+
+    /** Number of rotors. */
+    private int _size;
+
+    /** Number of arena slots in use. */
+    private int _filled;
+
+    /** Wirings of the parsed rotors, _n entries per slot. */
+    private char[] _wirings;
+
+    /** Notch bitsets of the parsed rotors, _notchWords longs per slot. */
+    private long[] _notches;
+
+    /** The arena slot of each rotor, or -1 if it is not parsed yet. */
+    private int[] _slots;
+
+    /** The next rotor with the same name as each, or -1. */
+    private int[] _nextNamed;
+
+    /** Where the description of each unparsed rotor starts in _source. */
+    private int[] _starts;
+
+    /** Where the description of each unparsed rotor ends in _source. */
+    private int[] _ends;
+
+    /** Type code of each rotor. */
+    private byte[] _types;
+
+    /** The end of each rotor's name in _names. */
+    private int[] _nameEnds;
+
+    /** The names of all rotors, end to end. */
+    private char[] _names;
+
+    /** Open-addressed hash index of names: 1 + the number of the first
+     *  rotor with each name, or 0 for an empty slot.  Its length is a
+     *  power of 2 at least twice _size. */
+    private int[] _index;
+
+    /** The rotors made so far, by number. */
+    private final HashMap<Integer, Rotor> _views = new HashMap<>();
+}
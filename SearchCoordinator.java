@@ -0,0 +1,545 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** The coordinator of a key search spread over several SearchWorker
+ *  processes on this host.  The keyspace of the configuration (as
+ *  numbered by KeyspaceSpliterator) is cut into units of consecutive
+ *  candidates, which are handed to the workers over loopback sockets.
+ *  If a worker dies, or takes longer than the unit timeout over a unit,
+ *  its unit is given to another, a worker that has hung is killed, and
+ *  a replacement is started.  Progress is periodically written to a
+ *  checkpoint file, replaced atomically, from which an interrupted
+ *  search resumes.
+ *  @author Lei Hao
+ */
+class SearchCoordinator {
+
+    /** Run a search with ARGS: optionally --rings (to search ring
+     *  settings as well), --unit=SIZE (candidates per unit) and
+     *  --timeout=SECONDS (the longest a worker may take over a unit,
+     *  DEFAULT_UNIT_MILLIS by default), then the
+     *  name of a configuration file, the ciphertext, the number of
+     *  workers, the name of the checkpoint file and, optionally, a crib
+     *  for the start of the message.  Prints the best settings found. */
+    public static void main(String... args) {
+        try {
+            boolean rings = false;
+            long unitSize = DEFAULT_UNIT_SIZE;
+            long timeout = DEFAULT_UNIT_MILLIS;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("--");
+                 first += 1) {
+                if (args[first].equals("--rings")) {
+                    rings = true;
+                } else if (args[first].startsWith("--unit=")) {
+                    unitSize = Long.parseLong(args[first].substring(7));
+                } else if (args[first].startsWith("--timeout=")) {
+                    timeout = 1000
+                        * Long.parseLong(args[first].substring(10));
+                } else {
+                    throw error("unknown option %s", args[first]);
+                }
+            }
+            int count = args.length - first;
+            if (count < 4 || count > 5 || unitSize <= 0 || timeout <= 0) {
+                throw error("Usage: java enigma.SearchCoordinator [--rings] "
+                            + "[--unit=SIZE] [--timeout=SECONDS] CONFIG "
+                            + "CIPHERTEXT WORKERS CHECKPOINT [CRIB]");
+            }
+            SearchCoordinator search =
+                new SearchCoordinator(args[first],
+                                      args[first + 1].replaceAll(" ", ""),
+                                      count > 4 ? args[first + 4] : null,
+                                      rings, unitSize,
+                                      new File(args[first + 3]).toPath());
+            search.setUnitTimeout(timeout);
+            search.run(Integer.parseInt(args[first + 2]));
+            System.out.printf("%s (score %.4f)%n", search.bestSettings(),
+                              search.bestScore());
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number%n");
+        }
+        System.exit(1);
+    }
+
+    /** A search of the keyspace of the configuration file CONFIG, with
+     *  ring settings iff RINGS, in units of UNITSIZE candidates, for the
+     *  decryption of CIPHER that best matches CRIB (or, if CRIB is null,
+     *  that has the highest index of coincidence).  Progress is kept in
+     *  CHECKPOINT and resumed from it if it exists. */
+    SearchCoordinator(String config, String cipher, String crib,
+                      boolean rings, long unitSize, Path checkpoint) {
+        Machine prototype = Main.loadConfig(config);
+        Alphabet alpha = prototype.alphabet();
+        for (int i = 0; i < cipher.length(); i += 1) {
+            if (!alpha.contains(cipher.charAt(i))) {
+                throw error("ciphertext character not in the alphabet");
+            }
+        }
+        _worker = new ArrayList<>();
+        _worker.add(config);
+        _worker.add(Boolean.toString(rings));
+        _worker.add(cipher);
+        if (crib != null) {
+            _worker.add(crib);
+        }
+        _job = String.join("\t", config, Boolean.toString(rings),
+                           Long.toString(unitSize), cipher,
+                           crib == null ? "" : crib);
+        _size = new KeyspaceSpliterator(prototype, rings).keyspaceSize();
+        _unitSize = unitSize;
+        _units = (_size + unitSize - 1) / unitSize;
+        _checkpoint = checkpoint;
+        resume();
+    }
+
+    /** Allow a worker at most MILLIS milliseconds to search a unit (or to
+     *  identify itself) before it is taken to have hung. */
+    void setUnitTimeout(long millis) {
+        if (millis <= 0) {
+            throw error("unit timeout must be positive");
+        }
+        _unitMillis = millis;
+    }
+
+    /** Return the port on which workers connect, or 0 if the search is
+     *  not yet listening. */
+    synchronized int port() {
+        return _port;
+    }
+
+    /** Run the search with WORKERS worker processes, returning when all
+     *  units are done.  None are started if all are done already. */
+    void run(int workers) {
+        if (workers <= 0) {
+            throw error("need at least one worker");
+        }
+        try (ServerSocket server =
+                 new ServerSocket(0, workers,
+                                  InetAddress.getLoopbackAddress())) {
+            synchronized (this) {
+                _port = server.getLocalPort();
+            }
+            Thread acceptor = new Thread(() -> accept(server),
+                                         "enigma-accept");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            Runtime.getRuntime().addShutdownHook(_onInterrupt);
+            synchronized (this) {
+                _restarts = workers * MAX_RESTARTS_PER_WORKER;
+                for (int i = 0; i < workers && !finished(); i += 1) {
+                    launch();
+                }
+                while (!finished() && _live > 0) {
+                    try {
+                        wait(CHECKPOINT_MILLIS);
+                    } catch (InterruptedException excp) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                checkpoint();
+                if (!finished()) {
+                    throw error("search stopped with %d of %d units done; "
+                                + "progress is in %s", done(), _units,
+                                _checkpoint);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not run search: %s", excp.getMessage());
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(_onInterrupt);
+            stopWorkers();
+        }
+    }
+
+    /** Accept connections from workers on SERVER, serving each on its own
+     *  thread, until SERVER is closed. */
+    private void accept(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> serve(socket),
+                                            "enigma-worker-" + _port);
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+    /** Hand units to the worker connected by SOCKET and record its
+     *  results until no units remain.  If the worker fails, its current
+     *  unit is returned for another worker, and if it does not answer
+     *  within the unit timeout, its process is killed as well. */
+    private void serve(Socket socket) {
+        long unit = -1;
+        Process worker = null;
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               false,
+                                               StandardCharsets.UTF_8)) {
+            socket.setSoTimeout((int) Math.min(_unitMillis,
+                                               Integer.MAX_VALUE));
+            String hello = in.readLine();
+            String[] words =
+                hello == null ? new String[0] : hello.split(" ");
+            if (words.length != 2 || !words[0].equals("HELLO")) {
+                throw new IOException("bad greeting from worker");
+            }
+            worker = process(Long.parseLong(words[1]));
+            while ((unit = take()) >= 0) {
+                long start = unit * _unitSize;
+                long end = Math.min(start + _unitSize, _size);
+                out.printf("UNIT %d %d %d%n", unit, start, end);
+                out.flush();
+                String reply = in.readLine();
+                words = reply == null ? new String[0] : reply.split(" ", 4);
+                if (words.length != 4 || !words[0].equals("DONE")
+                    || Long.parseLong(words[1]) != unit) {
+                    throw new IOException("bad reply from worker");
+                }
+                complete(unit, Double.parseDouble(words[2]), words[3]);
+                unit = -1;
+            }
+            out.println("QUIT");
+            out.flush();
+        } catch (IOException | NumberFormatException excp) {
+            if (unit >= 0) {
+                giveBack(unit);
+            }
+            if (excp instanceof SocketTimeoutException && worker != null) {
+                worker.destroyForcibly();
+            }
+        }
+    }
+
+    /** Return the worker process I started whose process id is PID, or
+     *  null if there is none. */
+    private synchronized Process process(long pid) {
+        for (Process worker : _processes) {
+            if (worker.pid() == pid) {
+                return worker;
+            }
+        }
+        return null;
+    }
+
+    /** Start a worker process, arranging for a replacement to be started
+     *  if it exits before the search is done. */
+    private synchronized void launch() {
+        ArrayList<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator
+                    + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(SearchWorker.class.getName());
+        command.add(Integer.toString(_port));
+        command.addAll(_worker);
+        try {
+            Process worker = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            _processes.add(worker);
+            _live += 1;
+            worker.onExit().thenRun(this::exited);
+        } catch (IOException excp) {
+            throw error("could not start worker: %s", excp.getMessage());
+        }
+    }
+
+    /** Note that a worker process has exited, and replace it if the
+     *  search is not done and replacements remain. */
+    private synchronized void exited() {
+        _live -= 1;
+        if (!_stopping && !finished() && _restarts > 0) {
+            _restarts -= 1;
+            launch();
+        }
+        notifyAll();
+    }
+
+    /** Stop all worker processes, giving each a moment to exit after
+     *  being told to quit. */
+    private void stopWorkers() {
+        ArrayList<Process> processes;
+        synchronized (this) {
+            _stopping = true;
+            processes = new ArrayList<>(_processes);
+            notifyAll();
+        }
+        for (Process worker : processes) {
+            try {
+                if (!worker.waitFor(QUIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    worker.destroyForcibly();
+                }
+            } catch (InterruptedException excp) {
+                worker.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Return the next unit to search, waiting while all units are
+     *  handed out but some may yet be returned, or -1 if none remain. */
+    private synchronized long take() {
+        while (!_stopping) {
+            if (!_returned.isEmpty()) {
+                long unit = _returned.poll();
+                _inFlight.add(unit);
+                return unit;
+            }
+            if (_next < _units) {
+                _inFlight.add(_next);
+                _next += 1;
+                return _next - 1;
+            }
+            if (_inFlight.isEmpty()) {
+                break;
+            }
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /** Return UNIT, whose worker failed, to be searched again. */
+    private synchronized void giveBack(long unit) {
+        _inFlight.remove(unit);
+        _returned.add(unit);
+        notifyAll();
+    }
+
+    /** Record that UNIT is done, its best candidate being SETTINGS with
+     *  score SCORE.  A checkpoint that cannot be written is reported and
+     *  tried again after the usual interval (run() writes one at the
+     *  end in any case), and waiters are always woken, so that finishing
+     *  the last unit cannot leave run() waiting. */
+    private synchronized void complete(long unit, double score,
+                                       String settings) {
+        _inFlight.remove(unit);
+        if (score > _bestScore) {
+            _bestScore = score;
+            _bestSettings = settings;
+        }
+        try {
+            if (finished() || System.currentTimeMillis() - _lastCheckpoint
+                >= CHECKPOINT_MILLIS) {
+                checkpoint();
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            _lastCheckpoint = System.currentTimeMillis();
+        } finally {
+            notifyAll();
+        }
+    }
+
+    /** Return true iff every unit is done. */
+    private synchronized boolean finished() {
+        return _next >= _units && _returned.isEmpty() && _inFlight.isEmpty();
+    }
+
+    /** Return the number of units done. */
+    synchronized long done() {
+        return _next - _returned.size() - _inFlight.size();
+    }
+
+    /** Return the total number of units. */
+    long units() {
+        return _units;
+    }
+
+    /** Return the score of the best candidate found. */
+    synchronized double bestScore() {
+        return _bestScore;
+    }
+
+    /** Return the settings line of the best candidate found, or null if
+     *  none has been. */
+    synchronized String bestSettings() {
+        return _bestSettings;
+    }
+
+    /** Restore progress from the checkpoint file, if it exists. */
+    private void resume() {
+        if (!Files.exists(_checkpoint)) {
+            return;
+        }
+        Properties saved = new Properties();
+        try (Reader in = Files.newBufferedReader(_checkpoint,
+                             StandardCharsets.UTF_8)) {
+            saved.load(in);
+            if (!_job.equals(saved.getProperty("job"))) {
+                throw error("checkpoint %s is for a different search",
+                            _checkpoint);
+            }
+            _next = Long.parseLong(saved.getProperty("next"));
+            for (String unit : saved.getProperty("pending").split(" ")) {
+                if (!unit.isEmpty()) {
+                    _returned.add(Long.parseLong(unit));
+                }
+            }
+            if (saved.getProperty("settings") != null) {
+                _bestScore = Double.parseDouble(saved.getProperty("score"));
+                _bestSettings = saved.getProperty("settings");
+            }
+        } catch (IOException | RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw (EnigmaException) excp;
+            }
+            throw error("could not read checkpoint %s", _checkpoint);
+        }
+    }
+
+    /** Write the current progress to the checkpoint file, replacing it
+     *  atomically.  Units handed out but not done are recorded as
+     *  pending, to be searched again on resumption. */
+    private synchronized void checkpoint() {
+        Properties saved = new Properties();
+        saved.setProperty("job", _job);
+        saved.setProperty("next", Long.toString(_next));
+        StringBuilder pending = new StringBuilder();
+        for (long unit : _returned) {
+            pending.append(unit).append(' ');
+        }
+        for (long unit : _inFlight) {
+            pending.append(unit).append(' ');
+        }
+        saved.setProperty("pending", pending.toString().trim());
+        if (_bestSettings != null) {
+            saved.setProperty("score", Double.toString(_bestScore));
+            saved.setProperty("settings", _bestSettings);
+        }
+        Path dir = _checkpoint.toAbsolutePath().getParent();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(dir, "checkpoint", TEMP_SUFFIX);
+            try (Writer out = Files.newBufferedWriter(temp,
+                                  StandardCharsets.UTF_8)) {
+                saved.store(out, String.format("enigma search: %d of %d "
+                                               + "units done", done(),
+                                               _units));
+            }
+            Files.move(temp, _checkpoint, StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s", _checkpoint);
+        } finally {
+            if (temp != null) {
+                temp.toFile().delete();
+            }
+        }
+        _lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /** Default longest time a worker may take over one unit, in
+     *  milliseconds. */
+    static final long DEFAULT_UNIT_MILLIS = 600_000;
+
+    /** Default number of candidates per unit. */
+    static final long DEFAULT_UNIT_SIZE = 1 << 16;
+
+    /** Number of replacement workers allowed per worker requested. */
+    static final int MAX_RESTARTS_PER_WORKER = 3;
+
+    /** Longest time between checkpoints, in milliseconds. */
+    static final long CHECKPOINT_MILLIS = 10_000;
+
+    /** Time allowed for each worker to exit when the search is over, in
+     *  milliseconds. */
+    static final long QUIT_MILLIS = 2_000;
+
+    /** Suffix of checkpoint files being written. */
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /** Arguments for workers after the port. */
+    private final ArrayList<String> _worker;
+
+    /** Description of the search, to check checkpoints against. */
+    private final String _job;
+
+    /** Number of candidates in the keyspace. */
+    private final long _size;
+
+    /** Number of candidates per unit. */
+    private final long _unitSize;
+
+    /** Number of units. */
+    private final long _units;
+
+    /** The checkpoint file. */
+    private final Path _checkpoint;
+
+    /** Writes a last checkpoint if the coordinator is interrupted. */
+    private final Thread _onInterrupt = new Thread(this::checkpoint);
+
+    /** Longest time a worker may take over one unit, in milliseconds. */
+    private long _unitMillis = DEFAULT_UNIT_MILLIS;
+
+    /** Port on which workers connect. */
+    private int _port;
+
+    /** First unit never handed out. */
+    private long _next;
+
+    /** Units to be handed out again. */
+    private final ArrayDeque<Long> _returned = new ArrayDeque<>();
+
+    /** Units handed out and not yet done. */
+    private final HashSet<Long> _inFlight = new HashSet<>();
+
+    /** Score of the best candidate found. */
+    private double _bestScore = Double.NEGATIVE_INFINITY;
+
+    /** Settings of the best candidate found. */
+    private String _bestSettings;
+
+    /** Worker processes started. */
+    private final ArrayList<Process> _processes = new ArrayList<>();
+
+    /** Number of worker processes running. */
+    private int _live;
+
+    /** Number of replacement workers that may still be started. */
+    private int _restarts;
+
+    /** True once the search is over. */
+    private boolean _stopping;
+
+    /** Time of the last checkpoint. */
+    private long _lastCheckpoint;
+}
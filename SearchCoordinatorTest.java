@@ -0,0 +1,278 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SearchCoordinator and
+ *  SearchWorker classes.
+ *  @author Lei Hao
+ */
+public class SearchCoordinatorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration over ABCD with 4 slots and 2 pawls, two
+     *  reflectors, two non-moving rotors and three moving rotors. */
+    private static final String CONFIG =
+        "ABCD\n"
+        + "4 2\n"
+        + "R1 R (AB) (CD)\n"
+        + "R2 R (AC) (BD)\n"
+        + "F1 N (ABDC)\n"
+        + "F2 N (AD) (BC)\n"
+        + "M1 MB (ACBD)\n"
+        + "M2 MCD (ABC)\n"
+        + "M3 MA (AD) (B)\n";
+
+    /** The plaintext, which is also the crib. */
+    private static final String PLAIN = "ABCDDCBAABCDDCBAACACBDBDAB";
+
+    /** The key under which PLAIN is enciphered. */
+    private static final String KEY = "* R2 F1 M3 M1 BCA DAB";
+
+    /** Candidates per unit in searches with ring settings. */
+    private static final long UNIT = 5000;
+
+    /** Return a new temporary directory holding the configuration file
+     *  "conf", with CONFIG in it. */
+    private Path directory() throws IOException {
+        Path dir = Files.createTempDirectory("search");
+        Files.writeString(dir.resolve("conf"), CONFIG);
+        return dir;
+    }
+
+    /** Remove directory DIR and the files in it. */
+    private void delete(Path dir) {
+        File[] files = dir.toFile().listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.toFile().delete();
+    }
+
+    /** Return the encipherment of PLAIN under KEY by the machine of the
+     *  configuration in DIR. */
+    private String cipher(Path dir) {
+        Machine m = Main.loadConfig(dir.resolve("conf").toString());
+        Main.applySettings(m, KEY);
+        return m.convert(PLAIN);
+    }
+
+    /** Check that the settings line SETTINGS, applied after a line with
+     *  other ring settings, deciphers CIPHER to PLAIN with the machine of
+     *  the configuration in DIR. */
+    private void checkSettings(Path dir, String cipher, String settings) {
+        Machine m = Main.loadConfig(dir.resolve("conf").toString());
+        Main.applySettings(m, "* R1 F2 M1 M2 AAA BCD");
+        Main.applySettings(m, settings);
+        assertEquals(msg("settings", "%s", settings), PLAIN,
+                     m.convert(cipher));
+    }
+
+    /** Return a search of the configuration in DIR, with ring settings,
+     *  for CIPHER, with PLAIN as the crib, in units of UNIT candidates,
+     *  whose checkpoint is the file "checkpoint" in DIR. */
+    private SearchCoordinator search(Path dir, String cipher) {
+        return new SearchCoordinator(dir.resolve("conf").toString(), cipher,
+                                     PLAIN, true, UNIT,
+                                     dir.resolve("checkpoint"));
+    }
+
+    /** Write a checkpoint for the search of DIR for CIPHER by search()
+     *  in which all NEXT units are handed out and done but those in
+     *  PENDING, and the best candidate found so far is SETTINGS, with
+     *  score SCORE. */
+    private void checkpoint(Path dir, String cipher, long next,
+                            String pending, double score, String settings)
+        throws IOException {
+        Properties saved = new Properties();
+        saved.setProperty("job",
+                          String.join("\t", dir.resolve("conf").toString(),
+                                      "true", Long.toString(UNIT), cipher,
+                                      PLAIN));
+        saved.setProperty("next", Long.toString(next));
+        saved.setProperty("pending", pending);
+        saved.setProperty("score", Double.toString(score));
+        saved.setProperty("settings", settings);
+        try (Writer out = Files.newBufferedWriter(dir.resolve("checkpoint"),
+                                                  StandardCharsets.UTF_8)) {
+            saved.store(out, null);
+        }
+    }
+
+    /** Return the units, of UNIT candidates, of the keyspace of the
+     *  configuration in DIR, with ring settings, holding a candidate
+     *  that deciphers CIPHER to PLAIN.  (Ring settings and positions
+     *  of a rotor that does not move are equivalent for the same
+     *  offset, so there are several.) */
+    private TreeSet<Long> keyUnits(Path dir, String cipher) {
+        KeyspaceSpliterator keys =
+            new KeyspaceSpliterator(Main.loadConfig(dir.resolve("conf")
+                                                    .toString()), true);
+        TreeSet<Long> result = new TreeSet<>();
+        keys.forEachRemaining(m -> {
+            if (m.convert(cipher).equals(PLAIN)) {
+                result.add(keys.index() / UNIT);
+            }
+        });
+        assertFalse("key in keyspace", result.isEmpty());
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkWorker() throws IOException {
+        Path dir = directory();
+        try {
+            String cipher = cipher(dir);
+            Machine prototype = Main.loadConfig(dir.resolve("conf")
+                                                .toString());
+            SearchWorker worker =
+                new SearchWorker(prototype, true, cipher,
+                                 RingSolver.cribScore(PLAIN));
+            worker.search(0, new KeyspaceSpliterator(prototype, true)
+                          .keyspaceSize());
+            assertEquals("score", 1.0, worker.bestScore(), 1e-9);
+            checkSettings(dir, cipher, worker.bestSettings());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkSearch() throws IOException {
+        Path dir = directory();
+        try {
+            String cipher = cipher(dir);
+            SearchCoordinator search = search(dir, cipher);
+            assertEquals("nothing done", 0, search.done());
+            search.run(2);
+            assertEquals("all done", search.units(), search.done());
+            assertEquals("score", 1.0, search.bestScore(), 1e-9);
+            checkSettings(dir, cipher, search.bestSettings());
+
+            SearchCoordinator again = search(dir, cipher);
+            assertEquals("resumed done", again.units(), again.done());
+            assertEquals("resumed best", search.bestSettings(),
+                         again.bestSettings());
+            again.run(1);
+            assertEquals("resumed best after run", search.bestSettings(),
+                         again.bestSettings());
+
+            try {
+                new SearchCoordinator(dir.resolve("conf").toString(),
+                                      cipher, "AB", true, UNIT,
+                                      dir.resolve("checkpoint"));
+                fail("checkpoint of another search");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkResume() throws IOException {
+        Path dir = directory();
+        try {
+            String cipher = cipher(dir);
+            long units = search(dir, cipher).units();
+            TreeSet<Long> keys = keyUnits(dir, cipher);
+            long key = keys.first();
+            long other = 0;
+            while (keys.contains(other)) {
+                other += 1;
+            }
+            String stale = "* R1 F1 M1 M2 AAA AAA";
+
+            checkpoint(dir, cipher, units, Long.toString(other), 0.95,
+                       stale);
+            SearchCoordinator search = search(dir, cipher);
+            assertEquals("done before", units - 1, search.done());
+            search.run(1);
+            assertEquals("done after", units, search.done());
+            assertEquals("done units not searched again", stale,
+                         search.bestSettings());
+
+            checkpoint(dir, cipher, units, other + " " + key, 0.95,
+                       stale);
+            search = search(dir, cipher);
+            assertEquals("done before", units - 2, search.done());
+            search.run(1);
+            assertEquals("score", 1.0, search.bestScore(), 1e-9);
+            checkSettings(dir, cipher, search.bestSettings());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void checkHungWorker() throws Exception {
+        Path dir = directory();
+        try {
+            String cipher = cipher(dir);
+            SearchCoordinator search = search(dir, cipher);
+            search.setUnitTimeout(500);
+            RuntimeException[] failure = { null };
+            Thread runner = new Thread(() -> {
+                try {
+                    search.run(1);
+                } catch (RuntimeException excp) {
+                    failure[0] = excp;
+                }
+            });
+            runner.start();
+            while (search.port() == 0) {
+                Thread.sleep(1);
+            }
+            try (Socket socket =
+                     new Socket(InetAddress.getLoopbackAddress(),
+                                search.port());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8));
+                 PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                                   true,
+                                                   StandardCharsets.UTF_8)) {
+                out.println("HELLO 1");
+                String unit = in.readLine();
+                assertTrue(msg("hung worker", "given %s", unit),
+                           unit.startsWith("UNIT "));
+                assertTrue("connection closed after the timeout",
+                           in.readLine() == null);
+            }
+            runner.join();
+            assertTrue("search finished", failure[0] == null);
+            assertEquals("all done", search.units(), search.done());
+            assertEquals("score", 1.0, search.bestScore(), 1e-9);
+            checkSettings(dir, cipher, search.bestSettings());
+        } finally {
+            delete(dir);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.function.ToDoubleFunction;
+
+import static enigma.EnigmaException.*;
+
+/** One worker process of a distributed key search.  It connects to a
+ *  SearchCoordinator on this host, identifies itself with a line
+ *
+ *      HELLO pid
+ *
+ *  giving its process id, and then repeatedly receives a line
+ *
+ *      UNIT id start end
+ *
+ *  searches candidates start .. end-1 of the keyspace (as numbered by
+ *  KeyspaceSpliterator), and replies
+ *
+ *      DONE id score settings
+ *
+ *  giving the best candidate of the unit, until it receives QUIT or the
+ *  connection closes.
+ *  @author Lei Hao
+ */
+class SearchWorker {
+
+    /** Run a worker with ARGS: the coordinator's port, the name of a
+     *  configuration file, whether to search ring settings ("true" or
+     *  "false"), the ciphertext and, optionally, a crib for its start.
+     *  Without a crib, decryptions are ranked by index of coincidence. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4 || args.length > 5) {
+                throw error("Usage: java enigma.SearchWorker PORT CONFIG "
+                            + "RINGS CIPHERTEXT [CRIB]");
+            }
+            Machine prototype = Main.loadConfig(args[1]);
+            SearchWorker worker =
+                new SearchWorker(prototype, Boolean.parseBoolean(args[2]),
+                                 args[3].replaceAll(" ", ""),
+                                 args.length > 4
+                                 ? RingSolver.cribScore(args[4]) : null);
+            worker.serve(Integer.parseInt(args[0]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad port%n");
+        }
+        System.exit(1);
+    }
+
+    /** A worker searching the keyspace of machines like PROTOTYPE, with
+     *  ring settings iff RINGS, for the decryption of CIPHER with the
+     *  highest SCORE or, if SCORE is null, the highest index of
+     *  coincidence. */
+    SearchWorker(Machine prototype, boolean rings, String cipher,
+                 ToDoubleFunction<String> score) {
+        _prototype = prototype;
+        _rings = rings;
+        _cipher = cipher;
+        _score = score;
+        if (score == null) {
+            Alphabet alpha = prototype.alphabet();
+            _symbols = new int[cipher.length()];
+            for (int i = 0; i < _symbols.length; i += 1) {
+                if (!alpha.contains(cipher.charAt(i))) {
+                    throw error("%c is not in the alphabet",
+                                cipher.charAt(i));
+                }
+                _symbols[i] = alpha.toInt(cipher.charAt(i));
+            }
+            _statistics = new Statistics(alpha.size());
+        } else {
+            _symbols = null;
+            _statistics = null;
+        }
+    }
+
+    /** Return the index of coincidence of the decryption of the cipher
+     *  by M, or negative infinity as soon as it is clear that it cannot
+     *  reach BEST. */
+    private double coincidence(Machine m, double best) {
+        _statistics.clear();
+        for (int c : _symbols) {
+            _statistics.add(m.convert(c));
+            if (!_statistics.canReach(best, _symbols.length)) {
+                _abandoned += 1;
+                return Double.NEGATIVE_INFINITY;
+            }
+        }
+        return _statistics.indexOfCoincidence();
+    }
+
+    /** Connect to the coordinator on PORT of this host and process units
+     *  until told to stop. */
+    void serve(int port) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               false,
+                                               StandardCharsets.UTF_8)) {
+            out.printf("HELLO %d%n", ProcessHandle.current().pid());
+            out.flush();
+            while (true) {
+                String line = in.readLine();
+                if (line == null || line.equals("QUIT")) {
+                    return;
+                }
+                String[] words = line.split(" ");
+                if (words.length != 4 || !words[0].equals("UNIT")) {
+                    throw error("bad request from coordinator: %s", line);
+                }
+                search(Long.parseLong(words[2]), Long.parseLong(words[3]));
+                out.printf("DONE %s %s %s%n", words[1], _bestScore,
+                           _bestSettings);
+                out.flush();
+            }
+        } catch (IOException excp) {
+            throw error("lost connection to coordinator: %s",
+                        excp.getMessage());
+        }
+    }
+
+    /** Search candidates START .. END-1, leaving the best in _bestScore
+     *  and _bestSettings. */
+    void search(long start, long end) {
+        KeyspaceSpliterator keys =
+            new KeyspaceSpliterator(_prototype, _rings, start, end);
+        _bestScore = Double.NEGATIVE_INFINITY;
+        _bestSettings = null;
+        _abandoned = 0;
+        keys.forEachRemaining(m -> {
+            double score = _score == null ? coincidence(m, _bestScore)
+                : _score.applyAsDouble(m.convert(_cipher));
+            if (score > _bestScore) {
+                _bestScore = score;
+                _bestSettings = keys.settings();
+            }
+        });
+    }
+
+    /** Return the score of the best candidate of the last unit. */
+    double bestScore() {
+        return _bestScore;
+    }
+
+    /** Return the number of candidates of the last unit whose scoring
+     *  stopped early. */
+    long abandoned() {
+        return _abandoned;
+    }
+
+    /** Return the settings line of the best candidate of the last
+     *  unit. */
+    String bestSettings() {
+        return _bestSettings;
+    }
+
+    /** Machine whose keyspace is searched. */
+    private final Machine _prototype;
+
+    /** True iff ring settings are searched. */
+    private final boolean _rings;
+
+    /** The ciphertext. */
+    private final String _cipher;
+
+    /** Scores decryptions; higher is better.  Null for the index of
+     *  coincidence. */
+    private final ToDoubleFunction<String> _score;
+
+    /** The ciphertext as character indices, when _score is null. */
+    private final int[] _symbols;
+
+    /** Statistics of the decryption being scored, when _score is
+     *  null. */
+    private final Statistics _statistics;
+
+    /** Number of candidates of the last unit whose scoring stopped
+     *  early. */
+    private long _abandoned;
+
+    /** Score of the best candidate of the last unit. */
+    private double _bestScore;
+
+    /** Settings of the best candidate of the last unit. */
+    private String _bestSettings;
+}
@@ -0,0 +1,114 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A bounded cache of the machine configurations produced by settings
+ *  lines, so that a settings line seen before is applied by putting
+ *  back its rotors, settings, ring settings and plugboard, rather than
+ *  by parsing and validating it again.  The least recently used entry
+ *  is dropped when the cache is full.  Entries hold the rotors of one
+ *  machine and may only be applied to it.
+ *  @author Lei Hao
+ */
+class SettingsCache {
+
+    /** A cache holding at most CAPACITY settings lines. */
+    SettingsCache(int capacity) {
+        _capacity = capacity;
+        _entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,
+                                                Configuration> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** If the settings line LINE has been recorded, configure M as it
+     *  was then and return true; otherwise return false. */
+    boolean apply(String line, Machine m) {
+        Configuration config = _entries.get(line);
+        if (config == null) {
+            _misses += 1;
+            return false;
+        }
+        _hits += 1;
+        m.insertRotors(config.rotors);
+        if (config.rings == null) {
+            m.setPositions(config.positions);
+        } else {
+            for (int k = 1; k < config.positions.length; k += 1) {
+                m.setSlot(k, config.positions[k], config.rings[k]);
+            }
+        }
+        m.setPlugboard(config.plugboard);
+        return true;
+    }
+
+    /** Record the configuration of M as the result of the settings line
+     *  LINE, which set ring settings iff RINGS. */
+    void put(String line, Machine m, boolean rings) {
+        Configuration config = new Configuration();
+        config.rotors = new ArrayList<>(m.usedRotors());
+        config.positions = m.positions();
+        if (rings) {
+            config.rings = new int[config.positions.length];
+            for (int k = 1; k < config.rings.length; k += 1) {
+                config.rings[k] = config.rotors.get(k).ringSetting();
+            }
+        }
+        config.plugboard = m.plugboard();
+        _entries.put(line, config);
+    }
+
+    /** Return the number of settings lines found in the cache. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Return the number of settings lines not found in the cache. */
+    long misses() {
+        return _misses;
+    }
+
+    /** Return a description of the hits and misses so far. */
+    String statistics() {
+        long total = _hits + _misses;
+        return String.format("%d hits, %d misses (%.1f%% hits)", _hits,
+                             _misses, total == 0 ? 0.0
+                             : 100.0 * _hits / total);
+    }
+
+    /** A machine configuration produced by a settings line. */
+    private static class Configuration {
+        /** The rotors in each slot. */
+        private List<Rotor> rotors;
+        /** The setting of the rotor in each slot. */
+        private int[] positions;
+        /** The ring setting of the rotor in each slot, or null if the line
+         *  left ring settings alone. */
+        private int[] rings;
+        /** The plugboard. */
+        private Permutation plugboard;
+    }
+
+    /** Default capacity, overridden by the system property
+     *  enigma.settings.cache. */
+    static final int DEFAULT_CAPACITY =
+        Integer.getInteger("enigma.settings.cache", 1024);
+
+    /** Largest number of entries. */
+    private final int _capacity;
+
+    /** Configurations by settings line, least recently used first. */
+    private final LinkedHashMap<String, Configuration> _entries;
+
+    /** Number of lines found. */
+    private long _hits;
+
+    /** Number of lines not found. */
+    private long _misses;
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the SettingsCache class, which check
+ *  that settings lines applied from the cache leave a machine as
+ *  applying them again would.
+ *  @author Lei Hao
+ */
+public class SettingsCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a naval machine with 5 slots and 3 pawls and the reflector
+     *  B, rotor Beta and rotors I to V available. */
+    private Machine machine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                                                      UPPER)));
+        rotors.add(new FixedRotor("Beta",
+                                  new Permutation(NAVALA.get("Beta"),
+                                                  UPPER)));
+        String[] moving = { "I", "Q", "II", "E", "III", "V", "IV", "J",
+                            "V", "Z" };
+        for (int i = 0; i < moving.length; i += 2) {
+            rotors.add(new MovingRotor(moving[i],
+                                       new Permutation(NAVALA.get(moving[i]),
+                                                       UPPER),
+                                       moving[i + 1]));
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** A message. */
+    private static final String MSG =
+        "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD";
+
+    /** Settings lines, each with "R" after it if it sets ring settings
+     *  and "-" if it carries over those of the lines before it. */
+    private static final String[] LINES = {
+        "* B Beta III IV I AXLE BCDE (AZ)", "R",
+        "* B Beta III IV I AXLE (AZ)", "-",
+        "* B Beta III IV I AXLE QRST", "R",
+        "* B Beta III IV I AXLE (AZ)", "-",
+        "* B Beta II V I BQMA (YF) (ZH)", "-",
+        "* B Beta III IV I AXLE BCDE (AZ)", "R",
+        "* B Beta II V I BQMA (YF) (ZH)", "-",
+        "* B Beta III IV I AXLE (AZ)", "-",
+    };
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkCarriedOverRings() {
+        Machine expected = machine();
+        Machine cached = machine();
+        SettingsCache cache = new SettingsCache(16);
+        for (int i = 0; i < LINES.length; i += 2) {
+            String line = LINES[i];
+            Main.applySettings(expected, line);
+            if (!cache.apply(line.substring(1).trim(), cached)) {
+                Main.applySettings(cached, line);
+                cache.put(line.substring(1).trim(), cached,
+                          LINES[i + 1].equals("R"));
+            }
+            assertEquals(msg("line", "%d: %s", i / 2, line),
+                         expected.convert(MSG), cached.convert(MSG));
+        }
+        assertEquals("hits", 4, cache.hits());
+        assertEquals("misses", 4, cache.misses());
+    }
+
+    @Test
+    public void checkLeastRecentlyUsedDropped() {
+        Machine m = machine();
+        SettingsCache cache = new SettingsCache(2);
+        String[] lines = { "B Beta III IV I AXLE", "B Beta I II III AAAA",
+                           "B Beta V IV II QQQQ" };
+        boolean[] hits = { false, false, true, false, true, false, false };
+        int[] order = { 0, 1, 0, 2, 0, 1, 2 };
+        for (int i = 0; i < order.length; i += 1) {
+            String line = lines[order[i]];
+            boolean hit = cache.apply(line, m);
+            assertEquals(msg("hit", "%d: %s", i, line), hits[i], hit);
+            if (!hit) {
+                Main.applySettings(m, "* " + line);
+                cache.put(line, m, false);
+            }
+        }
+        assertEquals("hits", 2, cache.hits());
+        assertEquals("misses", 5, cache.misses());
+    }
+}
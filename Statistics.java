@@ -0,0 +1,279 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** Letter statistics of a stream of character indices, kept up to date
+ *  as each index is added: letter counts, the index of coincidence, the
+ *  chi-squared statistic against expected letter frequencies and,
+ *  optionally, bigram counts.  Each addition takes constant time.  With
+ *  a window, only the last window() indices are counted, the oldest
+ *  being removed as each new one is added.  Without one, statistics of
+ *  consecutive parts of a text may be gathered separately (in parallel,
+ *  say) and merged, as by
+ *      symbols.parallel().collect(() -> new Statistics(n),
+ *                                 Statistics::add, Statistics::merge)
+ *  @author Lei Hao
+ */
+class Statistics {
+
+    /** Letter statistics of indices into an alphabet of N characters,
+     *  with no window, no bigrams, and all letters equally likely. */
+    Statistics(int n) {
+        this(uniform(n), 0, false);
+    }
+
+    /** Statistics with letter I expected with probability EXPECTED[I],
+     *  over the last WINDOW indices added (all of them if WINDOW is 0),
+     *  counting bigrams iff BIGRAMS. */
+    Statistics(double[] expected, int window, boolean bigrams) {
+        _n = expected.length;
+        if (_n < 1 || window < 0) {
+            throw error("bad statistics size");
+        }
+        _expected = expected;
+        _weights = new double[_n];
+        for (int c = 0; c < _n; c += 1) {
+            if (!(expected[c] > 0)) {
+                throw error("expected frequency of %d is not positive", c);
+            }
+            _weights[c] = 1 / expected[c];
+        }
+        _counts = new long[_n];
+        _bigrams = bigrams ? new long[_n * _n] : null;
+        _window = window > 0 ? new int[window] : null;
+    }
+
+    /** Return the probabilities of N equally likely letters. */
+    static double[] uniform(int n) {
+        double[] result = new double[n];
+        Arrays.fill(result, 1.0 / n);
+        return result;
+    }
+
+    /** Add character index C, removing the oldest index first if my
+     *  window is full. */
+    void add(int c) {
+        if (c < 0 || c >= _n) {
+            throw error("character index %d out of range", c);
+        }
+        if (_window != null && _total == _window.length) {
+            removeOldest();
+        }
+        _coincidences += _counts[c];
+        _weightedSquares += (2 * _counts[c] + 1) * _weights[c];
+        _counts[c] += 1;
+        _max = Math.max(_max, _counts[c]);
+        if (_total == 0) {
+            _first = c;
+        } else if (_bigrams != null) {
+            _bigrams[_last * _n + c] += 1;
+        }
+        _last = c;
+        _total += 1;
+        if (_window != null) {
+            _window[(_start + (int) _total - 1) % _window.length] = c;
+        }
+    }
+
+    /** Add the index of each character of TEXT in ALPHA. */
+    void addAll(CharSequence text, Alphabet alpha) {
+        for (int i = 0; i < text.length(); i += 1) {
+            add(alpha.toInt(text.charAt(i)));
+        }
+    }
+
+    /** Add the statistics of OTHER, which has no window and the same
+     *  expected frequencies as I, and counts the indices that follow
+     *  mine. */
+    void merge(Statistics other) {
+        if (_window != null || other._window != null
+            || !Arrays.equals(_expected, other._expected)
+            || (_bigrams == null) != (other._bigrams == null)) {
+            throw error("statistics cannot be merged");
+        }
+        if (other._total == 0) {
+            return;
+        }
+        for (int c = 0; c < _n; c += 1) {
+            _counts[c] += other._counts[c];
+        }
+        if (_bigrams != null) {
+            for (int i = 0; i < _bigrams.length; i += 1) {
+                _bigrams[i] += other._bigrams[i];
+            }
+            if (_total > 0) {
+                _bigrams[_last * _n + other._first] += 1;
+            }
+        }
+        if (_total == 0) {
+            _first = other._first;
+        }
+        _last = other._last;
+        _total += other._total;
+        recompute();
+    }
+
+    /** Forget all indices added. */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        if (_bigrams != null) {
+            Arrays.fill(_bigrams, 0);
+        }
+        _total = _start = 0;
+        _coincidences = _max = 0;
+        _weightedSquares = 0;
+        _removals = 0;
+    }
+
+    /** Return the number of indices counted. */
+    long total() {
+        return _total;
+    }
+
+    /** Return my window size, or 0 if I have none. */
+    int window() {
+        return _window == null ? 0 : _window.length;
+    }
+
+    /** Return the number of times C is counted. */
+    long count(int c) {
+        return _counts[c];
+    }
+
+    /** Return the number of times C is counted immediately followed by
+     *  D.  Bigrams must be counted. */
+    long bigram(int c, int d) {
+        if (_bigrams == null) {
+            throw error("bigrams are not counted");
+        }
+        return _bigrams[c * _n + d];
+    }
+
+    /** Return the number of pairs of equal indices counted. */
+    long coincidences() {
+        return _coincidences;
+    }
+
+    /** Return the index of coincidence: the probability that two of the
+     *  indices counted, chosen at random, are equal.  It is 0 for fewer
+     *  than two. */
+    double indexOfCoincidence() {
+        return indexOfCoincidence(_coincidences, _total);
+    }
+
+    /** Return the chi-squared statistic of the counts against the
+     *  expected frequencies: the sum over letters c of
+     *  (count(c) - E) ** 2 / E, where E is total() times the expected
+     *  frequency of c.  It is 0 if nothing is counted. */
+    double chiSquared() {
+        return _total == 0 ? 0.0 : _weightedSquares / _total - _total;
+    }
+
+    /** Return the largest index of coincidence that a text of LENGTH
+     *  indices starting with those counted can have, which is reached
+     *  if all the rest equal the commonest so far.  Not for windows. */
+    double maxIndexOfCoincidence(long length) {
+        if (_window != null) {
+            throw error("no bound for a sliding window");
+        }
+        long rest = Math.max(0, length - _total);
+        long most = _coincidences + rest * _max + rest * (rest - 1) / 2;
+        return indexOfCoincidence(most, Math.max(length, _total));
+    }
+
+    /** Return true iff a text of LENGTH indices starting with those
+     *  counted could have an index of coincidence of at least
+     *  THRESHOLD, so that scoring a candidate may stop as soon as this
+     *  is false. */
+    boolean canReach(double threshold, long length) {
+        return maxIndexOfCoincidence(length) >= threshold;
+    }
+
+    /** Return the index of coincidence of N indices with COINCIDENCES
+     *  equal pairs. */
+    private static double indexOfCoincidence(long coincidences, long n) {
+        if (n < 2) {
+            return 0.0;
+        }
+        return (double) coincidences / (n * (n - 1) / 2);
+    }
+
+    /** Remove the oldest index in my window. */
+    private void removeOldest() {
+        int c = _window[_start];
+        _counts[c] -= 1;
+        _coincidences -= _counts[c];
+        _weightedSquares -= (2 * _counts[c] + 1) * _weights[c];
+        if (_bigrams != null && _total > 1) {
+            _bigrams[c * _n + _window[(_start + 1) % _window.length]] -= 1;
+        }
+        _start = (_start + 1) % _window.length;
+        _total -= 1;
+        _first = _window[_start];
+        _removals += 1;
+        if (_removals >= RECOMPUTE_INTERVAL) {
+            recompute();
+        }
+    }
+
+    /** Recompute my running sums from the counts, which also clears the
+     *  rounding error that removals accumulate. */
+    private void recompute() {
+        _coincidences = _max = 0;
+        _weightedSquares = 0;
+        for (int c = 0; c < _n; c += 1) {
+            _coincidences += _counts[c] * (_counts[c] - 1) / 2;
+            _weightedSquares += (double) _counts[c] * _counts[c]
+                * _weights[c];
+            _max = Math.max(_max, _counts[c]);
+        }
+        _removals = 0;
+    }
+
+    /** Removals between recomputations of the running sums. */
+    private static final int RECOMPUTE_INTERVAL = 1 << 16;
+
+    /** Size of the alphabet. */
+    private final int _n;
+
+    /** Expected frequency of each letter. */
+    private final double[] _expected;
+
+    /** Reciprocal of the expected frequency of each letter. */
+    private final double[] _weights;
+
+    /** Number of times each letter is counted. */
+    private final long[] _counts;
+
+    /** Number of times each bigram c, d is counted, at c * _n + d, or
+     *  null if bigrams are not counted. */
+    private final long[] _bigrams;
+
+    /** The indices in my window, oldest at _start, or null if I have no
+     *  window. */
+    private final int[] _window;
+
+    /** Position of the oldest index in _window. */
+    private int _start;
+
+    /** Number of indices counted. */
+    private long _total;
+
+    /** Sum over letters of count * (count - 1) / 2. */
+    private long _coincidences;
+
+    /** Sum over letters of count ** 2 / expected frequency. */
+    private double _weightedSquares;
+
+    /** Largest count of a letter since the last recomputation: exact
+     *  without a window, and otherwise only an upper bound. */
+    private long _max;
+
+    /** First and last indices counted, when _total > 0. */
+    private int _first, _last;
+
+    /** Removals since the running sums were last recomputed. */
+    private int _removals;
+}
@@ -0,0 +1,153 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Statistics class.
+ *  @author Lei Hao
+ */
+public class StatisticsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /** Allowed error in floating-point results. */
+    private static final double EPSILON = 1e-9;
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return LENGTH random indices into an alphabet of N characters,
+     *  skewed toward small ones, from seed SEED. */
+    private int[] text(int n, int length, long seed) {
+        Random random = new Random(seed);
+        int[] result = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = Math.min(random.nextInt(n), random.nextInt(n));
+        }
+        return result;
+    }
+
+    /** Check that S has the statistics of TEXT[START .. END-1], computed
+     *  afresh, with expected frequencies EXPECTED.  TESTID is used in
+     *  error messages. */
+    private void checkStatistics(String testId, Statistics s, int[] text,
+                                 int start, int end, double[] expected) {
+        int n = expected.length;
+        long[] counts = new long[n];
+        for (int i = start; i < end; i += 1) {
+            counts[text[i]] += 1;
+        }
+        long total = end - start, pairs = 0;
+        double chi = 0;
+        for (int c = 0; c < n; c += 1) {
+            assertEquals(msg(testId, "count of %d", c), counts[c],
+                         s.count(c));
+            pairs += counts[c] * (counts[c] - 1) / 2;
+            double e = total * expected[c];
+            chi += (counts[c] - e) * (counts[c] - e) / e;
+        }
+        assertEquals(msg(testId, "total"), total, s.total());
+        assertEquals(msg(testId, "coincidences"), pairs, s.coincidences());
+        assertEquals(msg(testId, "index of coincidence"),
+                     total < 2 ? 0.0 : (double) pairs
+                     / (total * (total - 1) / 2),
+                     s.indexOfCoincidence(), EPSILON);
+        assertEquals(msg(testId, "chi-squared"), chi, s.chiSquared(),
+                     EPSILON * Math.max(1, chi));
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRunningStatistics() {
+        int[] text = text(26, 2000, 1);
+        Statistics s = new Statistics(26);
+        for (int i = 0; i < text.length; i += 1) {
+            s.add(text[i]);
+            if (i % 97 == 0) {
+                checkStatistics("running", s, text, 0, i + 1,
+                                Statistics.uniform(26));
+            }
+        }
+        s.clear();
+        checkStatistics("cleared", s, text, 0, 0, Statistics.uniform(26));
+    }
+
+    @Test
+    public void checkSlidingWindow() {
+        int[] text = text(26, 3000, 2);
+        double[] expected = new double[26];
+        for (int c = 0; c < 26; c += 1) {
+            expected[c] = (c + 1) / 351.0;
+        }
+        int window = 100;
+        Statistics s = new Statistics(expected, window, true);
+        for (int i = 0; i < text.length; i += 1) {
+            s.add(text[i]);
+            int start = Math.max(0, i + 1 - window);
+            if (i % 89 == 0 || i == text.length - 1) {
+                checkStatistics("window", s, text, start, i + 1, expected);
+                long[] bigrams = new long[26 * 26];
+                for (int k = start; k < i; k += 1) {
+                    bigrams[text[k] * 26 + text[k + 1]] += 1;
+                }
+                for (int c = 0; c < 26; c += 1) {
+                    for (int d = 0; d < 26; d += 1) {
+                        assertEquals(msg("window", "bigram %d %d", c, d),
+                                     bigrams[c * 26 + d], s.bigram(c, d));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void checkMergedChunks() {
+        int[] text = text(26, 5000, 3);
+        Statistics whole = new Statistics(Statistics.uniform(26), 0, true);
+        for (int c : text) {
+            whole.add(c);
+        }
+        Statistics merged = IntStream.of(text).parallel()
+            .collect(() -> new Statistics(Statistics.uniform(26), 0, true),
+                     Statistics::add, Statistics::merge);
+        checkStatistics("merged", merged, text, 0, text.length,
+                        Statistics.uniform(26));
+        for (int c = 0; c < 26; c += 1) {
+            for (int d = 0; d < 26; d += 1) {
+                assertEquals(msg("merged", "bigram %d %d", c, d),
+                             whole.bigram(c, d), merged.bigram(c, d));
+            }
+        }
+    }
+
+    @Test
+    public void checkCoincidenceBound() {
+        for (long seed = 0; seed < 20; seed += 1) {
+            int[] text = text(26, 300, seed);
+            Statistics s = new Statistics(26);
+            double[] bounds = new double[text.length + 1];
+            for (int i = 0; i < text.length; i += 1) {
+                bounds[i] = s.maxIndexOfCoincidence(text.length);
+                s.add(text[i]);
+            }
+            double last = s.indexOfCoincidence();
+            for (int i = 0; i < text.length; i += 1) {
+                assertTrue(msg("bound", "seed %d, after %d", seed, i),
+                           bounds[i] >= last);
+                assertTrue(msg("bound", "seed %d, after %d", seed, i),
+                           i == 0 || bounds[i] <= bounds[i - 1]);
+            }
+            assertEquals(msg("bound", "seed %d at end", seed), last,
+                         s.maxIndexOfCoincidence(text.length), 0.0);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package enigma;
+
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/** Conversion with java.util.stream.  A StreamCodec starts from the
+ *  state of a machine at the time it is made, and produces keystreams
+ *  and conversions as streams of character indices.  Their
+ *  Spliterators split a range of positions by handing the first half
+ *  to a new Spliterator with a copy of the machine, and skipping their
+ *  own machine ahead to the start of the second half (see
+ *  Machine.skip), so parallel streams need not replay the first half and
+ *  give the same results as sequential ones.
+ *  @author Lei Hao
+ */
+class StreamCodec {
+
+    /** A codec starting from the present state of M, which is copied and
+     *  not changed. */
+    StreamCodec(Machine m) {
+        _origin = m.copy();
+        _alphabet = m.alphabet();
+    }
+
+    /** Return the substitutions made at the next POSITIONS keystrokes,
+     *  plugboard included: element i * n + c, for an alphabet of size n,
+     *  is the conversion of character index c at keystroke i. */
+    IntStream keystream(long positions) {
+        return StreamSupport.intStream(new Keystream(_origin.copy(), null,
+                                                     0, positions),
+                                       false);
+    }
+
+    /** Return the conversion of the character indices SYMBOLS, which are
+     *  collected first.  The result is parallel iff SYMBOLS is. */
+    IntStream encode(IntStream symbols) {
+        boolean parallel = symbols.isParallel();
+        int[] input = symbols.toArray();
+        for (int c : input) {
+            if (c < 0 || c >= _alphabet.size()) {
+                throw error("character index %d out of range", c);
+            }
+        }
+        return StreamSupport.intStream(new Keystream(_origin.copy(), input,
+                                                     0, input.length),
+                                       parallel);
+    }
+
+    /** Return the conversion of TEXT, converting its parts in
+     *  parallel. */
+    String encode(CharSequence text) {
+        IntStream symbols = text.chars().map(c -> {
+            if (!_alphabet.contains((char) c)) {
+                throw error("%c is not in the alphabet", (char) c);
+            }
+            return _alphabet.toInt((char) c);
+        });
+        int[] output = encode(symbols.parallel()).toArray();
+        char[] result = new char[output.length];
+        for (int i = 0; i < output.length; i += 1) {
+            result[i] = _alphabet.toChar(output[i]);
+        }
+        return new String(result);
+    }
+
+    /** A Spliterator over keystrokes ORIGIN .. FENCE-1 from the state of
+     *  a machine.  With an input, it delivers the conversion of each
+     *  input character; without, the whole substitution at each
+     *  keystroke. */
+    private static class Keystream implements Spliterator.OfInt {
+
+        /** Keystrokes ORIGIN .. FENCE-1 of MACHINE, which is in its state
+         *  before keystroke ORIGIN, converting INPUT (indexed by
+         *  keystroke) or, if INPUT is null, delivering substitutions. */
+        Keystream(Machine machine, int[] input, long origin, long fence) {
+            _machine = machine;
+            _input = input;
+            _n = machine.alphabet().size();
+            _position = origin;
+            _fence = fence;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (_position >= _fence) {
+                return false;
+            }
+            if (_input != null) {
+                action.accept(_machine.convert(_input[(int) _position]));
+                _position += 1;
+                return true;
+            }
+            if (_c == 0) {
+                _machine.doubleStepping();
+            }
+            action.accept(_machine.translate(_c));
+            _c += 1;
+            if (_c == _n) {
+                _c = 0;
+                _position += 1;
+            }
+            return true;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            long mid = _position + (_fence - _position) / 2;
+            if (_c != 0 || mid - _position < MIN_SPLIT) {
+                return null;
+            }
+            Keystream prefix =
+                new Keystream(_machine.copy(), _input, _position, mid);
+            _machine.skip(mid - _position);
+            _position = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            long positions = _fence - _position;
+            return _input != null ? positions : positions * _n - _c;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+        }
+
+        /** The machine, in its state before keystroke _position (or
+         *  during it, if _c is not 0). */
+        private final Machine _machine;
+
+        /** Characters to convert, or null. */
+        private final int[] _input;
+
+        /** Size of the alphabet. */
+        private final int _n;
+
+        /** Next keystroke. */
+        private long _position;
+
+        /** Keystroke at which I stop. */
+        private final long _fence;
+
+        /** Next character index of the substitution at _position, when
+         *  there is no input. */
+        private int _c;
+    }
+
+    /** Fewest keystrokes in a split-off part. */
+    static final long MIN_SPLIT = 1 << 10;
+
+    /** The machine in its starting state. */
+    private final Machine _origin;
+
+    /** Alphabet of _origin. */
+    private final Alphabet _alphabet;
+}
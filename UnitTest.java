@@ -11,7 +11,22 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         System.exit(textui.runClasses(PermutationTest.class,
-                                      MovingRotorTest.class));
+                                      MovingRotorTest.class,
+                                      MachineTest.class,
+                                      StatisticsTest.class,
+                                      KeystreamCacheTest.class,
+                                      KeyspaceSpliteratorTest.class,
+                                      BombeTest.class,
+                                      PipelineTest.class,
+                                      RingSolverTest.class,
+                                      CompiledMachineTest.class,
+                                      BatchMachineTest.class,
+                                      SearchCoordinatorTest.class,
+                                      SettingsCacheTest.class,
+                                      WorkloadGeneratorTest.class,
+                                      JfrReportTest.class,
+                                      CycleIndexTest.class,
+                                      PackedFormatTest.class));
     }
 
 }
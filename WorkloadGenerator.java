@@ -0,0 +1,365 @@
+package enigma;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+import static enigma.EnigmaException.*;
+
+/** Writes synthetic configuration and input files for load and scaling
+ *  tests.  The output depends only on the options and the seed, and is
+ *  streamed to disk, so messages may be far larger than the heap.
+ *  Settings lines give rotors, positions and plugboard, and ring
+ *  settings only if asked for.
+ *  @author Lei Hao
+ */
+class WorkloadGenerator {
+
+    /** Write a configuration file and an input file, as specified by
+     *  ARGS: options of the form --NAME=VALUE, followed by the names of
+     *  the two files.  The options (with their defaults) are
+     *    --seed=1             seed for all random choices.
+     *    --alphabet=26        alphabet size, at most 89.
+     *    --slots=5            number of rotor slots.
+     *    --pawls=3            number of pawls.
+     *    --rotors=8           number of moving rotors.
+     *    --fixed=2            number of non-moving rotors.
+     *    --reflectors=2       number of reflectors.
+     *    --notch-density=0.04 chance of a notch at each position of a
+     *                         moving rotor, which always has one notch.
+     *    --cycle-length=0     length of the cycles of each rotor's
+     *                         wiring, or 0 for random permutations.
+     *    --settings=100       number of settings lines.
+     *    --message-length=1000  characters of message after each
+     *                         settings line.
+     *    --line-length=100    largest number of message characters on
+     *                         one line.
+     *    --plugboard=10       pairs of plugboard leads, at most half the
+     *                         alphabet size.
+     *    --rings=0            chance that a settings line gives ring
+     *                         settings; otherwise it carries over those
+     *                         of the line before. */
+    public static void main(String... args) {
+        try {
+            WorkloadGenerator generator = new WorkloadGenerator(args);
+            generator.writeConfig(generator._files[0]);
+            generator.writeInput(generator._files[1]);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A generator for the options and file names in ARGS (see main). */
+    WorkloadGenerator(String... args) {
+        HashMap<String, String> options = new HashMap<>(DEFAULTS);
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            int eq = args[first].indexOf('=');
+            String name = eq < 0 ? "" : args[first].substring(2, eq);
+            if (!DEFAULTS.containsKey(name)) {
+                throw error("unknown option %s", args[first]);
+            }
+            options.put(name, args[first].substring(eq + 1));
+        }
+        if (args.length - first != 2) {
+            throw error("Usage: java enigma.WorkloadGenerator [--NAME=VALUE "
+                        + "...] CONFIG INPUT");
+        }
+        _files = Arrays.copyOfRange(args, first, args.length);
+        try {
+            _seed = Long.parseLong(options.get("seed"));
+            _alphabet = alphabet(Integer.parseInt(options.get("alphabet")));
+            _slots = Integer.parseInt(options.get("slots"));
+            _pawls = Integer.parseInt(options.get("pawls"));
+            _moving = Integer.parseInt(options.get("rotors"));
+            _fixed = Integer.parseInt(options.get("fixed"));
+            _reflectors = Integer.parseInt(options.get("reflectors"));
+            _notchDensity =
+                Double.parseDouble(options.get("notch-density"));
+            _cycleLength = Integer.parseInt(options.get("cycle-length"));
+            _settings = Long.parseLong(options.get("settings"));
+            _messageLength = Long.parseLong(options.get("message-length"));
+            _lineLength = Integer.parseInt(options.get("line-length"));
+            _plugboard = Integer.parseInt(options.get("plugboard"));
+            _rings = Double.parseDouble(options.get("rings"));
+        } catch (NumberFormatException excp) {
+            throw error("bad option value: %s", excp.getMessage());
+        }
+        if (_slots < 2 || _pawls < 0 || _pawls >= _slots
+            || _reflectors < 1 || _fixed < _slots - 1 - _pawls
+            || _moving < _pawls || _cycleLength < 0 || _lineLength < 1
+            || _plugboard < 0 || 2 * _plugboard > _alphabet.length
+            || _settings < 0 || _messageLength < 0 || _rings < 0
+            || _rings > 1) {
+            throw error("inconsistent options");
+        }
+    }
+
+    /** Return an alphabet of N distinct printable ASCII characters that
+     *  may appear in a configuration, preferring letters and digits. */
+    private static char[] alphabet(int n) {
+        StringBuilder chars = new StringBuilder(LETTERS);
+        for (char c = '!'; c <= '~'; c += 1) {
+            if (LETTERS.indexOf(c) < 0 && FORBIDDEN.indexOf(c) < 0) {
+                chars.append(c);
+            }
+        }
+        if (n < 2 || n > chars.length()) {
+            throw error("alphabet size must be between 2 and %d",
+                        chars.length());
+        }
+        return chars.substring(0, n).toCharArray();
+    }
+
+    /** Write the configuration file named NAME. */
+    void writeConfig(String name) {
+        SplittableRandom random = new SplittableRandom(_seed);
+        try (Writer out = open(name)) {
+            out.write(_alphabet);
+            out.write(String.format("\n%d %d\n", _slots, _pawls));
+            for (int i = 0; i < _reflectors; i += 1) {
+                out.write(rotorName('R', i) + " R "
+                          + reflectorCycles(random) + "\n");
+            }
+            for (int i = 0; i < _fixed; i += 1) {
+                out.write(rotorName('N', i) + " N "
+                          + rotorCycles(random) + "\n");
+            }
+            for (int i = 0; i < _moving; i += 1) {
+                out.write(rotorName('M', i) + " M" + notches(random) + " "
+                          + rotorCycles(random) + "\n");
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Write the input file named NAME. */
+    void writeInput(String name) {
+        SplittableRandom random = new SplittableRandom(_seed + 1);
+        char[] line = new char[_lineLength];
+        int n = _alphabet.length;
+        try (Writer out = open(name)) {
+            for (long s = 0; s < _settings; s += 1) {
+                out.write(settingsLine(random));
+                out.write('\n');
+                for (long left = _messageLength; left > 0;
+                     left -= _lineLength) {
+                    int length = (int) Math.min(left, _lineLength);
+                    for (int i = 0; i < length; i += 1) {
+                        line[i] = _alphabet[random.nextInt(n)];
+                    }
+                    out.write(line, 0, length);
+                    out.write('\n');
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** Return a buffered writer to a new file named NAME. */
+    private static Writer open(String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(name), StandardCharsets.US_ASCII),
+            BUFFER_SIZE);
+    }
+
+    /** Return the name of rotor number I of kind KIND, which never has
+     *  the length of a positions word, so that Main cannot mistake one
+     *  for the other. */
+    private String rotorName(char kind, int i) {
+        String name = String.valueOf(kind) + i;
+        return name.length() == _slots - 1 ? name + "_" : name;
+    }
+
+    /** Return a random settings line, using RANDOM. */
+    private String settingsLine(SplittableRandom random) {
+        StringBuilder line = new StringBuilder("*");
+        line.append(' ').append(rotorName('R', random.nextInt(_reflectors)));
+        int[] fixed = choose(random, _fixed, _slots - 1 - _pawls);
+        for (int i : fixed) {
+            line.append(' ').append(rotorName('N', i));
+        }
+        for (int i : choose(random, _moving, _pawls)) {
+            line.append(' ').append(rotorName('M', i));
+        }
+        line.append(' ');
+        for (int k = 1; k < _slots; k += 1) {
+            line.append(_alphabet[random.nextInt(_alphabet.length)]);
+        }
+        if (_rings > 0 && random.nextDouble() < _rings) {
+            line.append(' ');
+            for (int k = 1; k < _slots; k += 1) {
+                line.append(_alphabet[random.nextInt(_alphabet.length)]);
+            }
+        }
+        int[] leads = choose(random, _alphabet.length, 2 * _plugboard);
+        for (int i = 0; i < leads.length; i += 2) {
+            line.append(" (").append(_alphabet[leads[i]])
+                .append(_alphabet[leads[i + 1]]).append(')');
+        }
+        return line.toString();
+    }
+
+    /** Return K distinct numbers chosen from 0 .. N-1, in random order,
+     *  using RANDOM. */
+    private static int[] choose(SplittableRandom random, int n, int k) {
+        int[] all = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            all[i] = i;
+        }
+        for (int i = 0; i < k; i += 1) {
+            int j = i + random.nextInt(n - i);
+            int t = all[i];
+            all[i] = all[j];
+            all[j] = t;
+        }
+        return Arrays.copyOf(all, k);
+    }
+
+    /** Return the notches of a moving rotor, using RANDOM. */
+    private String notches(SplittableRandom random) {
+        StringBuilder result = new StringBuilder();
+        for (char c : _alphabet) {
+            if (random.nextDouble() < _notchDensity) {
+                result.append(c);
+            }
+        }
+        if (result.length() == 0) {
+            result.append(_alphabet[random.nextInt(_alphabet.length)]);
+        }
+        return result.toString();
+    }
+
+    /** Return the cycles of a random rotor wiring, using RANDOM: a random
+     *  permutation if _cycleLength is 0, and otherwise cycles of length
+     *  _cycleLength (the last one possibly shorter). */
+    private String rotorCycles(SplittableRandom random) {
+        int n = _alphabet.length;
+        int[] perm = choose(random, n, n);
+        StringBuilder result = new StringBuilder();
+        if (_cycleLength > 0) {
+            for (int i = 0; i < n; i += _cycleLength) {
+                result.append('(');
+                for (int j = i; j < Math.min(n, i + _cycleLength); j += 1) {
+                    result.append(_alphabet[perm[j]]);
+                }
+                result.append(')');
+            }
+            return result.toString();
+        }
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start += 1) {
+            if (!seen[start]) {
+                result.append('(');
+                for (int c = start; !seen[c]; c = perm[c]) {
+                    seen[c] = true;
+                    result.append(_alphabet[c]);
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the cycles of a random reflector: pairs covering the
+     *  alphabet, with one character left fixed if its size is odd,
+     *  using RANDOM. */
+    private String reflectorCycles(SplittableRandom random) {
+        int n = _alphabet.length;
+        int[] order = choose(random, n, n);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < n; i += 2) {
+            result.append('(').append(_alphabet[order[i]]);
+            if (i + 1 < n) {
+                result.append(_alphabet[order[i + 1]]);
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    /** Characters preferred for alphabets, in order. */
+    private static final String LETTERS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    /** Characters that may not appear in an alphabet. */
+    private static final String FORBIDDEN = "*,/()";
+
+    /** Size of output buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Default values of the options. */
+    private static final HashMap<String, String> DEFAULTS = new HashMap<>();
+    static {
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("alphabet", "26");
+        DEFAULTS.put("slots", "5");
+        DEFAULTS.put("pawls", "3");
+        DEFAULTS.put("rotors", "8");
+        DEFAULTS.put("fixed", "2");
+        DEFAULTS.put("reflectors", "2");
+        DEFAULTS.put("notch-density", "0.04");
+        DEFAULTS.put("cycle-length", "0");
+        DEFAULTS.put("settings", "100");
+        DEFAULTS.put("message-length", "1000");
+        DEFAULTS.put("line-length", "100");
+        DEFAULTS.put("plugboard", "10");
+        DEFAULTS.put("rings", "0");
+    }
+
+    /** Names of the configuration and input files. */
+    private final String[] _files;
+
+    /** Seed for all random choices. */
+    private final long _seed;
+
+    /** The alphabet. */
+    private final char[] _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _slots;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Number of moving rotors. */
+    private final int _moving;
+
+    /** Number of non-moving rotors. */
+    private final int _fixed;
+
+    /** Number of reflectors. */
+    private final int _reflectors;
+
+    /** Chance of a notch at each position of a moving rotor. */
+    private final double _notchDensity;
+
+    /** Length of the cycles of rotor wirings, or 0 for random. */
+    private final int _cycleLength;
+
+    /** Number of settings lines. */
+    private final long _settings;
+
+    /** Message characters after each settings line. */
+    private final long _messageLength;
+
+    /** Largest number of message characters on one line. */
+    private final int _lineLength;
+
+    /** Number of plugboard pairs. */
+    private final int _plugboard;
+
+    /** Chance that a settings line gives ring settings. */
+    private final double _rings;
+}
@@ -0,0 +1,106 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the WorkloadGenerator class.
+ *  @author Lei Hao
+ */
+public class WorkloadGeneratorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the configuration file and the input file, in that order,
+     *  written by a WorkloadGenerator with the options OPTIONS. */
+    private String[] generate(String... options) throws IOException {
+        Path dir = Files.createTempDirectory("workload");
+        Path config = dir.resolve("conf"), input = dir.resolve("in");
+        try {
+            String[] args = new String[options.length + 2];
+            System.arraycopy(options, 0, args, 0, options.length);
+            args[options.length] = config.toString();
+            args[options.length + 1] = input.toString();
+            WorkloadGenerator generator = new WorkloadGenerator(args);
+            generator.writeConfig(config.toString());
+            generator.writeInput(input.toString());
+            return new String[] { Files.readString(config),
+                                  Files.readString(input) };
+        } finally {
+            config.toFile().delete();
+            input.toFile().delete();
+            dir.toFile().delete();
+        }
+    }
+
+    /** Return the number of settings lines in INPUT, a workload with
+     *  SLOTS slots, that give ring settings. */
+    private int ringLines(String input, int slots) {
+        int result = 0;
+        for (String line : input.split("\n")) {
+            if (line.startsWith("*")) {
+                int words = 0;
+                for (String word : line.split(" ")) {
+                    if (!word.startsWith("(")) {
+                        words += 1;
+                    }
+                }
+                assertTrue(msg("settings line", "%s", line),
+                           words == slots + 2 || words == slots + 3);
+                result += words == slots + 3 ? 1 : 0;
+            }
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkSameSeedSameOutput() throws IOException {
+        String[] options = { "--seed=39", "--settings=50",
+                             "--message-length=200", "--rings=0.5" };
+        String[] first = generate(options);
+        String[] second = generate(options);
+        assertEquals("configuration", first[0], second[0]);
+        assertEquals("input", first[1], second[1]);
+
+        options[0] = "--seed=40";
+        assertFalse("other seed", first[1].equals(generate(options)[1]));
+    }
+
+    @Test
+    public void checkRings() throws IOException {
+        assertEquals("no rings by default", 0,
+                     ringLines(generate("--settings=50")[1], 5));
+        assertEquals("rings on every line", 50,
+                     ringLines(generate("--settings=50", "--rings=1")[1],
+                               5));
+        String[] workload = generate("--settings=200", "--slots=4",
+                                     "--pawls=2", "--rings=0.5");
+        int rings = ringLines(workload[1], 4);
+        assertTrue(msg("some rings", "%d of 200 lines", rings),
+                   rings > 50 && rings < 150);
+
+        Path config = Files.createTempFile("workload", "conf");
+        try {
+            Files.writeString(config, workload[0]);
+            Machine m = Main.loadConfig(config.toString());
+            String output = Main.convertAll(m, workload[1]);
+            assertEquals("message lines converted", 200 * 10,
+                         output.split(System.lineSeparator()).length);
+        } finally {
+            config.toFile().delete();
+        }
+    }
+}